@@ -5,29 +5,51 @@ import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.nio.file.StandardOpenOption;
-import java.text.SimpleDateFormat;
-import java.util.Date;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.zone.ZoneOffsetTransition;
+import java.util.function.Supplier;
 
 /**
  * Application logging utility.
  * Port of appLog.ts from Node.js client.
+ * By default records are handed to a background AsyncLogWriter; set the system
+ * property node.drive.logAsync=false to print and write each line synchronously.
+ * Messages below the minimum level (node.drive.logLevel, or setLevel at runtime) are
+ * discarded before any formatting; the Supplier overloads also skip building the
+ * message text in that case.
  */
 public class AppLog {
 
-    private static final String ANSI_RESET = "\u001B[0m";
+    public enum Level {
+        DEBUG,
+        INFO,
+        WARN,
+        ERROR
+    }
+
+    static final String ANSI_RESET = "\u001B[0m";
     private static final String ANSI_CYAN = "\u001B[36m";
     private static final String ANSI_RED = "\u001B[31m";
     private static final String ANSI_GREEN = "\u001B[32m";
 
     private static Path logDir;
-    private static final SimpleDateFormat timestampFormat = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSS'Z'");
-    private static final SimpleDateFormat fileNameFormat = new SimpleDateFormat("yyyy-MM-dd-HH");
+    private static final ZoneId zone = ZoneId.systemDefault();
+    private static final DateTimeFormatter hourPrefixFormat = DateTimeFormatter.ofPattern("yyyy-MM-dd'T'HH:");
+    private static final DateTimeFormatter fileNameFormat = DateTimeFormatter.ofPattern("yyyy-MM-dd-HH");
+    private static volatile TimestampCache timestampCache = TimestampCache.forSecond(0);
+    private static volatile AsyncLogWriter asyncWriter;
+    private static volatile Level minLevel = Level.DEBUG;
 
     static {
         // Initialize log directory
         String userDir = System.getProperty("user.dir");
         logDir = Paths.get(userDir, "logs");
         ensureLogDirectory();
+        initLevel();
+        initAsyncWriter();
     }
 
     private static void ensureLogDirectory() {
@@ -40,22 +62,182 @@ public class AppLog {
         }
     }
 
-    private static String getTimestamp() {
-        return timestampFormat.format(new Date());
+    /**
+     * Formatted timestamp parts for one second of local time. Instances are immutable
+     * and replaced as a whole, so any thread can read the current one without locking.
+     */
+    private static final class TimestampCache {
+        final long second;         // epoch second this prefix belongs to
+        final String secondPrefix; // "yyyy-MM-ddTHH:mm:ss."
+        final long hourBase;       // epoch second at which the local clock reads HH:00:00
+        final long validFrom;      // range of epoch seconds sharing hourPrefix and fileName
+        final long validTo;
+        final String hourPrefix;   // "yyyy-MM-ddTHH:"
+        final String fileName;     // "yyyy-MM-dd-HH.log"
+
+        private TimestampCache(long second, long hourBase, long validFrom, long validTo,
+                               String hourPrefix, String fileName) {
+            this.second = second;
+            this.secondPrefix = buildSecondPrefix(hourPrefix, second - hourBase);
+            this.hourBase = hourBase;
+            this.validFrom = validFrom;
+            this.validTo = validTo;
+            this.hourPrefix = hourPrefix;
+            this.fileName = fileName;
+        }
+
+        static TimestampCache forSecond(long second) {
+            Instant instant = Instant.ofEpochSecond(second);
+            ZonedDateTime time = instant.atZone(zone);
+            long hourBase = second - time.getMinute() * 60L - time.getSecond();
+            long validTo = hourBase + 3600;
+
+            // An offset change inside the hour (e.g. a half-hour DST shift) ends it early
+            ZoneOffsetTransition transition = zone.getRules().nextTransition(instant);
+            if (transition != null) {
+                validTo = Math.min(validTo, transition.toEpochSecond());
+            }
+
+            return new TimestampCache(second, hourBase, second, validTo,
+                    hourPrefixFormat.format(time), fileNameFormat.format(time) + ".log");
+        }
+
+        /**
+         * Cache for another second within the same local hour, reusing the hour prefix
+         */
+        TimestampCache withSecond(long newSecond) {
+            return new TimestampCache(newSecond, hourBase, validFrom, validTo, hourPrefix, fileName);
+        }
+
+        boolean inHour(long epochSecond) {
+            return epochSecond >= validFrom && epochSecond < validTo;
+        }
+
+        private static String buildSecondPrefix(String hourPrefix, long secondOfHour) {
+            StringBuilder builder = new StringBuilder(hourPrefix.length() + 6).append(hourPrefix);
+            appendTwoDigits(builder, (int) (secondOfHour / 60));
+            builder.append(':');
+            appendTwoDigits(builder, (int) (secondOfHour % 60));
+            return builder.append('.').toString();
+        }
+
+        private static void appendTwoDigits(StringBuilder builder, int value) {
+            builder.append((char) ('0' + value / 10)).append((char) ('0' + value % 10));
+        }
+    }
+
+    /**
+     * Cached timestamp parts for the second containing the given time
+     */
+    private static TimestampCache timestampCacheFor(long timestamp) {
+        long second = Math.floorDiv(timestamp, 1000L);
+        TimestampCache cache = timestampCache;
+        if (cache.second == second) {
+            return cache;
+        }
+
+        // Racing threads may each build a cache for the same second; either result is correct
+        cache = cache.inHour(second) ? cache.withSecond(second) : TimestampCache.forSecond(second);
+        timestampCache = cache;
+        return cache;
+    }
+
+    private static void initLevel() {
+        String level = System.getProperty("node.drive.logLevel");
+        if (level == null || level.isEmpty()) {
+            return;
+        }
+
+        try {
+            minLevel = Level.valueOf(level.trim().toUpperCase());
+        } catch (IllegalArgumentException e) {
+            System.err.println("Invalid node.drive.logLevel: " + level + ", using " + minLevel);
+        }
+    }
+
+    /**
+     * Set the minimum level that is logged
+     */
+    public static void setLevel(Level level) {
+        minLevel = level;
     }
 
-    private static String getLogFileName() {
-        return fileNameFormat.format(new Date()) + ".log";
+    public static Level getLevel() {
+        return minLevel;
     }
 
-    private static String formatLogMessage(String logType, String className, String message) {
-        return String.format("%s | %s | [CLIENT] %s | %s",
-                getTimestamp(), logType, className, message);
+    public static boolean isEnabled(Level level) {
+        return level.compareTo(minLevel) >= 0;
     }
 
-    private static void writeToFile(String logMessage) {
+    public static boolean isDebugEnabled() {
+        return isEnabled(Level.DEBUG);
+    }
+
+    private static void initAsyncWriter() {
+        if ("false".equalsIgnoreCase(System.getProperty("node.drive.logAsync"))) {
+            return;
+        }
+
+        int capacity = 8192;
         try {
-            Path logFile = logDir.resolve(getLogFileName());
+            capacity = Integer.parseInt(System.getProperty("node.drive.logBufferSize", "8192"));
+        } catch (NumberFormatException e) {
+            System.err.println("Invalid node.drive.logBufferSize, using " + capacity);
+        }
+
+        AsyncLogWriter.OverflowPolicy policy = "drop".equalsIgnoreCase(System.getProperty("node.drive.logOverflow"))
+                ? AsyncLogWriter.OverflowPolicy.DROP
+                : AsyncLogWriter.OverflowPolicy.BLOCK;
+
+        asyncWriter = new AsyncLogWriter(logDir, System.out, capacity, policy);
+
+        // Best effort flush if the application exits without calling shutdown()
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            AsyncLogWriter writer = asyncWriter;
+            if (writer != null) {
+                writer.flush(1000);
+            }
+        }));
+    }
+
+    /**
+     * Write out pending log records and switch to synchronous logging.
+     * Call last during shutdown.
+     */
+    public static void shutdown() {
+        AsyncLogWriter writer = asyncWriter;
+        if (writer != null) {
+            asyncWriter = null;
+            writer.close(2000);
+        }
+    }
+
+    private static void appendTimestamp(StringBuilder builder, long timestamp) {
+        int millis = (int) Math.floorMod(timestamp, 1000L);
+        builder.append(timestampCacheFor(timestamp).secondPrefix)
+                .append((char) ('0' + millis / 100))
+                .append((char) ('0' + millis / 10 % 10))
+                .append((char) ('0' + millis % 10))
+                .append('Z');
+    }
+
+    static String getLogFileName(long timestamp) {
+        return timestampCacheFor(timestamp).fileName;
+    }
+
+    static String formatLogMessage(long timestamp, String logType, String className, String message) {
+        StringBuilder builder = new StringBuilder(48 + className.length() + (message != null ? message.length() : 4));
+        appendTimestamp(builder, timestamp);
+        return builder.append(" | ").append(logType)
+                .append(" | [CLIENT] ").append(className)
+                .append(" | ").append(message)
+                .toString();
+    }
+
+    private static void writeToFile(long timestamp, String logMessage) {
+        try {
+            Path logFile = logDir.resolve(getLogFileName(timestamp));
             String messageWithNewline = logMessage + System.lineSeparator();
 
             Files.write(logFile,
@@ -71,27 +253,65 @@ public class AppLog {
         System.out.println(color + logMessage + ANSI_RESET);
     }
 
+    private static void log(String logType, String color, String className, String message) {
+        long timestamp = System.currentTimeMillis();
+
+        AsyncLogWriter writer = asyncWriter;
+        if (writer != null) {
+            writer.publish(new AsyncLogWriter.LogRecord(timestamp, logType, color, className, message));
+            return;
+        }
+
+        String logMessage = formatLogMessage(timestamp, logType, className, message);
+        logToConsole(color, logMessage);
+        writeToFile(timestamp, logMessage);
+    }
+
     public static void debug(String className, String message) {
-        String logMessage = formatLogMessage("D", className, message);
-        logToConsole(ANSI_CYAN, logMessage);
-        writeToFile(logMessage);
+        if (isEnabled(Level.DEBUG)) {
+            log("D", ANSI_CYAN, className, message);
+        }
+    }
+
+    public static void debug(String className, Supplier<String> message) {
+        if (isEnabled(Level.DEBUG)) {
+            log("D", ANSI_CYAN, className, message.get());
+        }
     }
 
     public static void error(String className, String message) {
-        String logMessage = formatLogMessage("E", className, message);
-        logToConsole(ANSI_RED, logMessage);
-        writeToFile(logMessage);
+        if (isEnabled(Level.ERROR)) {
+            log("E", ANSI_RED, className, message);
+        }
+    }
+
+    public static void error(String className, Supplier<String> message) {
+        if (isEnabled(Level.ERROR)) {
+            log("E", ANSI_RED, className, message.get());
+        }
     }
 
     public static void info(String className, String message) {
-        String logMessage = formatLogMessage("I", className, message);
-        logToConsole(ANSI_GREEN, logMessage);
-        writeToFile(logMessage);
+        if (isEnabled(Level.INFO)) {
+            log("I", ANSI_GREEN, className, message);
+        }
+    }
+
+    public static void info(String className, Supplier<String> message) {
+        if (isEnabled(Level.INFO)) {
+            log("I", ANSI_GREEN, className, message.get());
+        }
     }
 
     public static void warn(String className, String message) {
-        String logMessage = formatLogMessage("W", className, message);
-        logToConsole(ANSI_RED, logMessage);
-        writeToFile(logMessage);
+        if (isEnabled(Level.WARN)) {
+            log("W", ANSI_RED, className, message);
+        }
+    }
+
+    public static void warn(String className, Supplier<String> message) {
+        if (isEnabled(Level.WARN)) {
+            log("W", ANSI_RED, className, message.get());
+        }
     }
 }
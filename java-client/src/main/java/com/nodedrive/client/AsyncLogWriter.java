@@ -0,0 +1,257 @@
+package com.nodedrive.client;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Background writer for AppLog.
+ * Logging threads publish records into a bounded lock-free ring buffer; a single
+ * writer thread drains it in batches, formats the records, prints them to the console
+ * and appends them to the hourly log file through a channel that stays open until the
+ * hour changes. When the buffer is full a record is either dropped (and counted) or the
+ * logging thread waits for space, depending on the overflow policy.
+ */
+public class AsyncLogWriter {
+
+    public enum OverflowPolicy {
+        DROP,
+        BLOCK
+    }
+
+    public static class LogRecord {
+        final long timestamp;
+        final String logType;
+        final String color;
+        final String className;
+        final String message;
+
+        public LogRecord(long timestamp, String logType, String color, String className, String message) {
+            this.timestamp = timestamp;
+            this.logType = logType;
+            this.color = color;
+            this.className = className;
+            this.message = message;
+        }
+    }
+
+    private static final int MAX_BATCH = 512;
+    private static final long IDLE_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+
+    private final Path logDir;
+    private final PrintStream console;
+    private final OverflowPolicy policy;
+
+    // Bounded multi-producer ring buffer: slot sequences tell producers and the
+    // consumer whether a slot is free or holds a published record
+    private final int mask;
+    private final AtomicReferenceArray<LogRecord> slots;
+    private final AtomicLongArray sequences;
+    private final AtomicLong tail = new AtomicLong();
+    private long head = 0;  // writer thread only
+    private volatile long written = 0;
+
+    private final AtomicLong dropped = new AtomicLong();
+    private final Thread writerThread;
+    private volatile boolean sleeping = false;
+    private volatile boolean running = true;
+
+    private FileChannel channel;
+    private String channelFileName;
+
+    public AsyncLogWriter(Path logDir, PrintStream console, int capacity, OverflowPolicy policy) {
+        int size = Integer.highestOneBit(Math.max(2, capacity - 1)) << 1;
+        this.logDir = logDir;
+        this.console = console;
+        this.policy = policy;
+        this.mask = size - 1;
+        this.slots = new AtomicReferenceArray<>(size);
+        this.sequences = new AtomicLongArray(size);
+        for (int i = 0; i < size; i++) {
+            sequences.set(i, i);
+        }
+
+        writerThread = new Thread(this::writeLoop, "log-writer");
+        writerThread.setDaemon(true);
+        writerThread.start();
+    }
+
+    /**
+     * Publish a record for the writer thread
+     */
+    public void publish(LogRecord record) {
+        while (!offer(record)) {
+            if (policy == OverflowPolicy.DROP || !running) {
+                dropped.incrementAndGet();
+                return;
+            }
+            // Buffer full: wait for the writer to free a slot
+            LockSupport.unpark(writerThread);
+            LockSupport.parkNanos(TimeUnit.MICROSECONDS.toNanos(50));
+        }
+
+        if (sleeping) {
+            LockSupport.unpark(writerThread);
+        }
+    }
+
+    private boolean offer(LogRecord record) {
+        while (true) {
+            long position = tail.get();
+            int index = (int) position & mask;
+            long sequence = sequences.get(index);
+
+            if (sequence == position) {
+                if (tail.compareAndSet(position, position + 1)) {
+                    slots.set(index, record);
+                    sequences.set(index, position + 1);
+                    return true;
+                }
+            } else if (sequence < position) {
+                return false;  // slot still holds an unwritten record: buffer full
+            }
+            // Otherwise another producer claimed this position first; retry
+        }
+    }
+
+    private LogRecord poll() {
+        int index = (int) head & mask;
+        if (sequences.get(index) != head + 1) {
+            return null;
+        }
+
+        LogRecord record = slots.get(index);
+        slots.set(index, null);
+        sequences.set(index, head + mask + 1);
+        head++;
+        return record;
+    }
+
+    /**
+     * Wait until every record published before this call has been written
+     */
+    public void flush(long timeoutMillis) {
+        long target = tail.get();
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+
+        while (written < target && writerThread.isAlive() && System.nanoTime() < deadline) {
+            LockSupport.unpark(writerThread);
+            LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(1));
+        }
+    }
+
+    /**
+     * Flush pending records and stop the writer thread
+     */
+    public void close(long timeoutMillis) {
+        flush(timeoutMillis);
+        running = false;
+        LockSupport.unpark(writerThread);
+        try {
+            writerThread.join(timeoutMillis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void writeLoop() {
+        StringBuilder consoleBatch = new StringBuilder();
+        StringBuilder fileBatch = new StringBuilder();
+
+        while (running || sequences.get((int) head & mask) == head + 1) {
+            int count = 0;
+            String batchFileName = null;
+            LogRecord record;
+
+            while (count < MAX_BATCH && (record = poll()) != null) {
+                String fileName = AppLog.getLogFileName(record.timestamp);
+                if (batchFileName != null && !batchFileName.equals(fileName)) {
+                    // Hour changed within the batch: write out what belongs to the previous file
+                    writeBatch(consoleBatch, fileBatch, batchFileName);
+                }
+                batchFileName = fileName;
+
+                String logMessage = AppLog.formatLogMessage(record.timestamp, record.logType,
+                        record.className, record.message);
+                consoleBatch.append(record.color).append(logMessage).append(AppLog.ANSI_RESET)
+                        .append(System.lineSeparator());
+                fileBatch.append(logMessage).append(System.lineSeparator());
+                count++;
+            }
+
+            if (count > 0) {
+                writeBatch(consoleBatch, fileBatch, batchFileName);
+                written = head;
+            }
+
+            long droppedCount = dropped.getAndSet(0);
+            if (droppedCount > 0) {
+                console.println("AppLog: dropped " + droppedCount + " log records (buffer full)");
+            }
+
+            if (count == 0) {
+                sleeping = true;
+                if (sequences.get((int) head & mask) != head + 1 && running) {
+                    LockSupport.parkNanos(IDLE_PARK_NANOS);
+                }
+                sleeping = false;
+            }
+        }
+
+        closeChannel();
+    }
+
+    private void writeBatch(StringBuilder consoleBatch, StringBuilder fileBatch, String fileName) {
+        if (consoleBatch.length() > 0) {
+            console.print(consoleBatch);
+            console.flush();
+            consoleBatch.setLength(0);
+        }
+
+        if (fileBatch.length() == 0) {
+            return;
+        }
+
+        try {
+            if (channel == null || !fileName.equals(channelFileName)) {
+                closeChannel();
+                channel = FileChannel.open(logDir.resolve(fileName),
+                        StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+                channelFileName = fileName;
+            }
+
+            ByteBuffer bytes = ByteBuffer.wrap(fileBatch.toString().getBytes(StandardCharsets.UTF_8));
+            while (bytes.hasRemaining()) {
+                channel.write(bytes);
+            }
+        } catch (IOException e) {
+            System.err.println("Failed to write to log file: " + e.getMessage());
+            closeChannel();
+        } finally {
+            fileBatch.setLength(0);
+        }
+    }
+
+    private void closeChannel() {
+        if (channel == null) {
+            return;
+        }
+
+        try {
+            channel.close();
+        } catch (IOException e) {
+            System.err.println("Failed to close log file: " + e.getMessage());
+        }
+        channel = null;
+        channelFileName = null;
+    }
+}
@@ -0,0 +1,160 @@
+package com.nodedrive.client;
+
+import java.io.InterruptedIOException;
+import java.time.LocalTime;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Token bucket shared by all uploads, limiting their combined rate.
+ * The rate can follow a daily schedule of time windows (for example throttled during
+ * office hours and unlimited at night); the window is looked up as uploads run, so
+ * the rate changes on its own when a window starts or ends.
+ * Writers take tokens before sending data and sleep off any shortfall outside the
+ * lock, so concurrent uploads share the rate roughly evenly.
+ */
+public class BandwidthLimiter {
+
+    private static final long NANOS_PER_SECOND = 1_000_000_000L;
+    // How often the schedule is consulted
+    private static final long RATE_CHECK_NANOS = NANOS_PER_SECOND;
+
+    /**
+     * A daily time window with its rate. Windows may wrap past midnight.
+     */
+    public static class Window {
+        public final LocalTime start;
+        public final LocalTime end;
+        public final long bytesPerSecond;  // 0 means unlimited
+
+        public Window(LocalTime start, LocalTime end, long bytesPerSecond) {
+            this.start = start;
+            this.end = end;
+            this.bytesPerSecond = bytesPerSecond;
+        }
+
+        public boolean contains(LocalTime time) {
+            if (start.isBefore(end)) {
+                return !time.isBefore(start) && time.isBefore(end);
+            }
+            return !time.isBefore(start) || time.isBefore(end);
+        }
+
+        @Override
+        public String toString() {
+            return start + "-" + end + "=" + (bytesPerSecond > 0 ? bytesPerSecond + " B/s" : "unlimited");
+        }
+    }
+
+    private final long defaultRate;
+    private final List<Window> schedule;
+
+    private long rate;
+    private long rateCheckedAt;
+    private double tokens;
+    private long refilledAt;
+
+    /**
+     * defaultRate applies outside all windows; the first window containing the current
+     * time wins. Rates are in bytes per second, 0 means unlimited.
+     */
+    public BandwidthLimiter(long defaultRate, List<Window> schedule) {
+        this.defaultRate = defaultRate;
+        this.schedule = new ArrayList<>(schedule);
+        this.rate = rateAt(LocalTime.now());
+        this.rateCheckedAt = System.nanoTime();
+        this.refilledAt = rateCheckedAt;
+        this.tokens = rate;
+    }
+
+    /**
+     * Parse a schedule of comma-separated HH:MM-HH:MM=KB windows, rates in KB per second
+     */
+    public static List<Window> parseSchedule(String value) {
+        List<Window> windows = new ArrayList<>();
+        if (value == null || value.trim().isEmpty()) {
+            return windows;
+        }
+
+        for (String entry : value.split(",")) {
+            int eq = entry.indexOf('=');
+            int dash = entry.indexOf('-');
+            if (eq <= 0 || dash <= 0 || dash > eq) {
+                throw new IllegalArgumentException("Invalid schedule entry: " + entry);
+            }
+
+            try {
+                windows.add(new Window(
+                        LocalTime.parse(entry.substring(0, dash).trim()),
+                        LocalTime.parse(entry.substring(dash + 1, eq).trim()),
+                        Long.parseLong(entry.substring(eq + 1).trim()) * 1024));
+            } catch (RuntimeException e) {
+                throw new IllegalArgumentException("Invalid schedule entry: " + entry);
+            }
+        }
+        return windows;
+    }
+
+    /**
+     * Rate in bytes per second at the given time of day, 0 if unlimited
+     */
+    public long rateAt(LocalTime time) {
+        for (Window window : schedule) {
+            if (window.contains(time)) {
+                return window.bytesPerSecond;
+            }
+        }
+        return defaultRate;
+    }
+
+    /**
+     * Take tokens for the given number of bytes, sleeping until the rate allows them
+     */
+    public void acquire(int bytes) throws InterruptedIOException {
+        long waitNanos;
+
+        synchronized (this) {
+            long now = System.nanoTime();
+            if (now - rateCheckedAt >= RATE_CHECK_NANOS) {
+                long newRate = rateAt(LocalTime.now());
+                if (newRate != rate) {
+                    long previousRate = rate;
+                    AppLog.info("BandwidthLimiter", () -> "Upload rate changed from " + describe(previousRate)
+                            + " to " + describe(newRate));
+                    rate = newRate;
+                    tokens = Math.min(tokens, newRate);
+                }
+                rateCheckedAt = now;
+            }
+
+            if (rate <= 0) {
+                refilledAt = now;
+                return;
+            }
+
+            // The bucket holds at most one second of data, so idle time does not build up a burst
+            tokens = Math.min(rate, tokens + (double) (now - refilledAt) * rate / NANOS_PER_SECOND);
+            refilledAt = now;
+            tokens -= bytes;
+            waitNanos = tokens < 0 ? (long) (-tokens * NANOS_PER_SECOND / rate) : 0;
+        }
+
+        if (waitNanos > 0) {
+            try {
+                Thread.sleep(waitNanos / 1_000_000, (int) (waitNanos % 1_000_000));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while throttling upload");
+            }
+        }
+    }
+
+    private static String describe(long bytesPerSecond) {
+        return bytesPerSecond > 0 ? (bytesPerSecond / 1024) + " KB/s" : "unlimited";
+    }
+
+    @Override
+    public String toString() {
+        return "BandwidthLimiter{default=" + describe(defaultRate) + ", schedule=" + schedule + "}";
+    }
+}
@@ -0,0 +1,221 @@
+package com.nodedrive.client;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * Block signature of one version of a file, as used by rsync.
+ * The file is cut into fixed-size blocks (the last one may be shorter) and every block
+ * gets a weak rolling checksum, cheap to slide over new content byte by byte, and a
+ * strong hash that confirms a weak match. DeltaEncoder uses it to find the blocks of
+ * the old version that reappear anywhere in the new one.
+ */
+public class BlockSignature {
+
+    public static final int MIN_BLOCK_SIZE = 2 * 1024;
+    public static final int MAX_BLOCK_SIZE = 128 * 1024;
+    public static final int STRONG_LENGTH = 16;  // SHA-256 truncated to 128 bits
+
+    private static final int MAGIC = 0x4e445347;  // "NDSG"
+    private static final int VERSION = 1;
+
+    private static final ThreadLocal<MessageDigest> DIGEST = ThreadLocal.withInitial(() -> {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException("SHA-256 algorithm not available", e);
+        }
+    });
+
+    public final int blockSize;
+    public final long fileSize;
+    public final String checksum;  // SHA-256 of the whole file, hex
+    public final int[] weak;
+    public final byte[] strong;    // STRONG_LENGTH bytes per block, back to back
+
+    public BlockSignature(int blockSize, long fileSize, String checksum, int[] weak, byte[] strong) {
+        this.blockSize = blockSize;
+        this.fileSize = fileSize;
+        this.checksum = checksum;
+        this.weak = weak;
+        this.strong = strong;
+    }
+
+    public int blockCount() {
+        return weak.length;
+    }
+
+    /**
+     * Length of a block; only the last block can be shorter than blockSize
+     */
+    public int blockLength(int block) {
+        return (int) Math.min(blockSize, fileSize - (long) block * blockSize);
+    }
+
+    /**
+     * Block size for a file: about the square root of its size, which balances the
+     * signature size against the amount of data resent around each change
+     */
+    public static int blockSizeFor(long fileSize) {
+        int size = Integer.highestOneBit((int) Math.min(Math.sqrt(fileSize), Integer.MAX_VALUE));
+        return Math.max(MIN_BLOCK_SIZE, Math.min(MAX_BLOCK_SIZE, size));
+    }
+
+    /**
+     * Weak checksum of a byte range (rsync: a = sum of bytes, b = sum of prefix sums,
+     * both mod 2^16). DeltaEncoder rolls the same sums one byte at a time.
+     */
+    public static int weakSum(byte[] data, int offset, int length) {
+        int a = 0;
+        int b = 0;
+        for (int i = 0; i < length; i++) {
+            a += data[offset + i] & 0xff;
+            b += a;
+        }
+        return toWeak(a, b);
+    }
+
+    static int toWeak(int a, int b) {
+        return (a & 0xffff) | (b << 16);
+    }
+
+    /**
+     * Truncated strong hash of a byte range, written to out at outOffset
+     */
+    static void strongHash(byte[] data, int offset, int length, byte[] out, int outOffset) {
+        MessageDigest digest = DIGEST.get();
+        digest.reset();
+        digest.update(data, offset, length);
+        System.arraycopy(digest.digest(), 0, out, outOffset, STRONG_LENGTH);
+    }
+
+    /**
+     * Compute the signature of a file in a single sequential read
+     */
+    public static BlockSignature compute(Path path, long expectedSize) throws IOException {
+        Builder builder = new Builder(expectedSize);
+
+        MessageDigest fileDigest;
+        try {
+            fileDigest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException("SHA-256 algorithm not available", e);
+        }
+
+        ByteBuffer buffer = ByteBuffer.allocate(builder.blockSize);
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            while (channel.read(buffer) != -1) {
+                buffer.flip();
+                fileDigest.update(buffer.array(), 0, buffer.limit());
+                builder.update(buffer);
+                buffer.clear();
+            }
+        }
+
+        return builder.build(FileHasher.toHex(fileDigest.digest()));
+    }
+
+    /**
+     * Builds a signature from a file's content fed in order, so it can be taken in the
+     * same read as the file's checksum instead of reading the file again
+     */
+    public static class Builder {
+        private final int blockSize;
+        private final long expectedSize;
+        private final int[] weak;
+        private final byte[] strong;
+        private final byte[] block;
+        private int filled;
+        private int blockIndex;
+        private long fileSize;
+
+        public Builder(long expectedSize) {
+            this.blockSize = blockSizeFor(expectedSize);
+            this.expectedSize = expectedSize;
+            int blockCount = (int) ((expectedSize + blockSize - 1) / blockSize);
+            this.weak = new int[blockCount];
+            this.strong = new byte[blockCount * STRONG_LENGTH];
+            this.block = new byte[blockSize];
+        }
+
+        /**
+         * Add the remaining bytes of the buffer, consuming them
+         */
+        public void update(ByteBuffer data) throws IOException {
+            while (data.hasRemaining()) {
+                int length = Math.min(data.remaining(), blockSize - filled);
+                data.get(block, filled, length);
+                filled += length;
+                fileSize += length;
+                if (filled == blockSize) {
+                    addBlock();
+                }
+            }
+        }
+
+        private void addBlock() throws IOException {
+            if (blockIndex == weak.length) {
+                throw new IOException("File changed while computing signature");
+            }
+            weak[blockIndex] = weakSum(block, 0, filled);
+            strongHash(block, 0, filled, strong, blockIndex * STRONG_LENGTH);
+            blockIndex++;
+            filled = 0;
+        }
+
+        /**
+         * The signature of everything added, given the checksum of the whole file
+         */
+        public BlockSignature build(String checksum) throws IOException {
+            if (filled > 0) {
+                addBlock();
+            }
+            if (fileSize != expectedSize) {
+                throw new IOException("File changed while computing signature");
+            }
+            return new BlockSignature(blockSize, fileSize, checksum, weak, strong);
+        }
+    }
+
+    public void writeTo(DataOutputStream out) throws IOException {
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        out.writeInt(blockSize);
+        out.writeLong(fileSize);
+        out.writeUTF(checksum);
+        out.writeInt(weak.length);
+        for (int sum : weak) {
+            out.writeInt(sum);
+        }
+        out.write(strong);
+    }
+
+    public static BlockSignature readFrom(DataInputStream in) throws IOException {
+        if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+            throw new IOException("Not a block signature");
+        }
+
+        int blockSize = in.readInt();
+        long fileSize = in.readLong();
+        String checksum = in.readUTF();
+        int blockCount = in.readInt();
+        if (blockSize <= 0 || blockCount < 0 || blockCount != (fileSize + blockSize - 1) / blockSize) {
+            throw new IOException("Corrupt block signature");
+        }
+
+        int[] weak = new int[blockCount];
+        for (int i = 0; i < blockCount; i++) {
+            weak[i] = in.readInt();
+        }
+        byte[] strong = new byte[blockCount * STRONG_LENGTH];
+        in.readFully(strong);
+        return new BlockSignature(blockSize, fileSize, checksum, weak, strong);
+    }
+}
@@ -0,0 +1,142 @@
+package com.nodedrive.client;
+
+import java.io.IOException;
+import java.nio.file.attribute.BasicFileAttributes;
+
+/**
+ * Resumable upload engine.
+ * Sends a file as a sequence of fixed-size byte ranges, starting from what the
+ * server already holds (uploadedSize from the upload check). Progress is recorded in
+ * the sync state index after every chunk, so an upload interrupted by a crash or a
+ * network drop continues from the last confirmed byte instead of from zero.
+ */
+public class ChunkedUploader {
+
+    public static final long DEFAULT_CHUNK_SIZE = 8L * 1024 * 1024;
+
+    // Range mismatches (416) tolerated per upload before giving up
+    private static final int MAX_RANGE_RESYNCS = 2;
+
+    private static final int RANGE_NOT_SATISFIABLE = 416;
+
+    private final ServerApiClient client;
+    private final SyncStateIndex stateIndex;
+    private final long chunkSize;
+
+    public ChunkedUploader(ServerApiClient client, SyncStateIndex stateIndex, long chunkSize) {
+        this.client = client;
+        this.stateIndex = stateIndex;
+        this.chunkSize = chunkSize > 0 ? chunkSize : DEFAULT_CHUNK_SIZE;
+    }
+
+    /**
+     * Upload a file, resuming a partial upload reported by the check response.
+     * request.filePath, fileSize and checksum must describe the file as hashed.
+     * Returns true once the server reports the upload complete; throws RejectedException
+     * if the server rejected the upload.
+     */
+    public boolean upload(ServerApiClient.FileUploadRequest request, String filePath, BasicFileAttributes attrs,
+                          ServerApiClient.FileCheckResponse checkResponse) throws IOException {
+        long fileSize = request.fileSize;
+        long startByte = resumeOffset(request, filePath, checkResponse);
+
+        if (startByte > 0) {
+            AppLog.info("ChunkedUploader", "Resuming upload of " + request.fileName + " at byte " + startByte
+                    + " of " + fileSize);
+        }
+
+        int resyncs = 0;
+        do {
+            long length = Math.min(chunkSize, fileSize - startByte);
+            ServerApiClient.FileUploadResponse response = client.uploadChunk(request, startByte, length);
+
+            if (response == null) {
+                AppLog.warn("ChunkedUploader", "Upload of " + request.fileName + " interrupted at byte " + startByte);
+                return false;
+            }
+
+            if (!response.success) {
+                if (ServerApiClient.isRejection(response.statusCode)) {
+                    throw new ServerApiClient.RejectedException("Upload of " + request.fileName + " rejected: "
+                            + (response.message != null ? response.message : response.statusCode));
+                }
+                // Only a range mismatch says where the server is; any other failure is retried later
+                if (response.statusCode != RANGE_NOT_SATISFIABLE || response.actualSize == null
+                        || resyncs++ >= MAX_RANGE_RESYNCS) {
+                    return false;
+                }
+                long actualSize = response.actualSize;
+                if (actualSize == fileSize) {
+                    // The last chunk arrived but its response was lost
+                    return confirmComplete(request, filePath, attrs);
+                }
+                startByte = actualSize < fileSize ? actualSize : 0;
+                AppLog.warn("ChunkedUploader", "Range mismatch for " + request.fileName
+                        + ", continuing at byte " + startByte);
+                continue;
+            }
+
+            if (response.uploadId != null) {
+                request.uploadId = response.uploadId;
+            }
+
+            if (response.isComplete) {
+                AppLog.info("ChunkedUploader", "Upload complete: " + request.fileName);
+                stateIndex.markSynced(filePath, attrs, request.checksum);
+                return true;
+            }
+
+            startByte = response.bytesUploaded > startByte ? response.bytesUploaded : startByte + length;
+            stateIndex.markUploading(filePath, attrs, request.checksum, request.uploadId);
+            long uploaded = startByte;
+            AppLog.debug("ChunkedUploader", () -> "Uploaded " + uploaded + "/" + fileSize + " bytes of " + request.fileName);
+        } while (startByte < fileSize);
+
+        AppLog.error("ChunkedUploader", "Server did not confirm completion of " + request.fileName);
+        return false;
+    }
+
+    /**
+     * Ask the server whether it holds the whole file, after a range mismatch reported
+     * all of its bytes as uploaded.
+     */
+    private boolean confirmComplete(ServerApiClient.FileUploadRequest request, String filePath,
+                                    BasicFileAttributes attrs) {
+        ServerApiClient.FileCheckRequest checkRequest = new ServerApiClient.FileCheckRequest();
+        checkRequest.username = request.username;
+        checkRequest.deviceId = request.deviceId;
+        checkRequest.fileName = request.fileName;
+        checkRequest.fileSize = request.fileSize;
+        checkRequest.checksum = request.checksum;
+
+        ServerApiClient.FileCheckResponse checkResponse = client.checkFileStatus(checkRequest);
+        if (checkResponse == null || !checkResponse.isComplete) {
+            AppLog.warn("ChunkedUploader", "Server holds all bytes of " + request.fileName
+                    + " but did not confirm completion");
+            return false;
+        }
+
+        AppLog.info("ChunkedUploader", "Upload complete: " + request.fileName);
+        stateIndex.markSynced(filePath, attrs, request.checksum);
+        return true;
+    }
+
+    /**
+     * Byte offset to continue from. The server's uploadedSize is authoritative;
+     * the local index only supplies the upload id of the interrupted upload.
+     */
+    private long resumeOffset(ServerApiClient.FileUploadRequest request, String filePath,
+                              ServerApiClient.FileCheckResponse checkResponse) {
+        if (!checkResponse.exists || checkResponse.shouldRestart
+                || checkResponse.uploadedSize <= 0 || checkResponse.uploadedSize >= request.fileSize) {
+            return 0;
+        }
+
+        SyncStateIndex.Entry entry = stateIndex.get(filePath);
+        if (entry != null && entry.state == SyncStateIndex.State.UPLOADING
+                && request.checksum.equals(entry.checksum)) {
+            request.uploadId = entry.uploadId;
+        }
+        return checkResponse.uploadedSize;
+    }
+}
@@ -0,0 +1,167 @@
+package com.nodedrive.client;
+
+import okhttp3.Interceptor;
+import okhttp3.Request;
+import okhttp3.Response;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.BooleanSupplier;
+
+/**
+ * Circuit breaker around server requests, installed as the outermost OkHttp interceptor.
+ * After a number of consecutive failed calls (connection errors, timeouts or 5xx
+ * responses, each counted once after its retries) the circuit opens: requests then
+ * fail at once without touching the network, and callers can check isOpen() to skip
+ * their work entirely. While open, a background thread probes the server with
+ * /api/ping, backing off between probes; the first successful probe closes the circuit
+ * and notifies the listeners so queued work can be drained.
+ */
+public class CircuitBreaker implements Interceptor {
+
+    private static final long MIN_PROBE_INTERVAL = 1000;
+    private static final long MAX_PROBE_INTERVAL = 30000;
+
+    /**
+     * Thrown for requests made while the circuit is open
+     */
+    public static class OpenException extends IOException {
+        private static final long serialVersionUID = 1L;
+
+        public OpenException() {
+            super("Server unavailable (circuit open)");
+        }
+    }
+
+    public interface Listener {
+        void onServerAvailable();
+    }
+
+    private final int failureThreshold;
+    private final BooleanSupplier probe;
+    private final List<Listener> listeners = new CopyOnWriteArrayList<>();
+
+    private volatile boolean open = false;
+    private int consecutiveFailures;
+    private Thread probeThread;
+
+    /**
+     * failureThreshold consecutive failures open the circuit, 0 disables it; probe
+     * returns whether the server answered a ping
+     */
+    public CircuitBreaker(int failureThreshold, BooleanSupplier probe) {
+        this.failureThreshold = failureThreshold;
+        this.probe = probe;
+    }
+
+    public void addListener(Listener listener) {
+        listeners.add(listener);
+    }
+
+    /**
+     * Whether the server is considered unavailable
+     */
+    public boolean isOpen() {
+        return open;
+    }
+
+    @Override
+    public Response intercept(Chain chain) throws IOException {
+        Request request = chain.request();
+
+        // Pings are how the server is probed, so they always go through
+        boolean ping = request.url().encodedPath().endsWith(ServerApiClient.PING_PATH);
+        if (open && !ping) {
+            throw new OpenException();
+        }
+
+        Response response;
+        try {
+            response = chain.proceed(request);
+        } catch (IOException e) {
+            if (RetryPolicy.isRetryable(e)) {
+                recordFailure();
+            }
+            throw e;
+        }
+
+        if (response.code() >= 500) {
+            recordFailure();
+        } else if (!ping || response.isSuccessful()) {
+            recordSuccess();
+        }
+        return response;
+    }
+
+    private synchronized void recordSuccess() {
+        consecutiveFailures = 0;
+    }
+
+    private synchronized void recordFailure() {
+        consecutiveFailures++;
+        if (!open && failureThreshold > 0 && consecutiveFailures >= failureThreshold) {
+            trip();
+        }
+    }
+
+    /**
+     * Open the circuit now, e.g. when the server is unreachable at startup
+     */
+    public synchronized void trip() {
+        if (open) {
+            return;
+        }
+
+        open = true;
+        AppLog.warn("CircuitBreaker", "Server unavailable, pausing uploads until it answers again");
+
+        probeThread = new Thread(this::probeLoop, "server-probe");
+        probeThread.setDaemon(true);
+        probeThread.start();
+    }
+
+    private void probeLoop() {
+        long interval = MIN_PROBE_INTERVAL;
+        while (open) {
+            try {
+                Thread.sleep(interval);
+            } catch (InterruptedException e) {
+                return;
+            }
+
+            if (probe.getAsBoolean()) {
+                close();
+                return;
+            }
+            interval = Math.min(MAX_PROBE_INTERVAL, interval * 2);
+        }
+    }
+
+    private void close() {
+        synchronized (this) {
+            open = false;
+            consecutiveFailures = 0;
+            probeThread = null;
+        }
+
+        AppLog.info("CircuitBreaker", "Server is reachable again, resuming uploads");
+        for (Listener listener : listeners) {
+            try {
+                listener.onServerAvailable();
+            } catch (RuntimeException e) {
+                AppLog.error("CircuitBreaker", "Listener failed: " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Stop probing
+     */
+    public synchronized void stop() {
+        if (probeThread != null) {
+            probeThread.interrupt();
+            probeThread = null;
+        }
+    }
+}
@@ -0,0 +1,139 @@
+package com.nodedrive.client;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Content-defined chunking (FastCDC).
+ * Splits a file into variable-size chunks whose boundaries are picked by a rolling
+ * gear hash over the content, so an edit only changes the chunks around it and the
+ * rest of the file keeps the same chunks (and chunk digests) as before.
+ * The gear table and size limits are part of the chunk format: changing them changes
+ * every boundary and defeats deduplication against chunks already on the server.
+ */
+public class ContentChunker {
+
+    public static final int MIN_SIZE = 256 * 1024;
+    public static final int AVG_SIZE = 1024 * 1024;
+    public static final int MAX_SIZE = 4 * 1024 * 1024;
+
+    // Normalized chunking: a stricter mask before the average size, a looser one after
+    private static final int AVG_BITS = Integer.numberOfTrailingZeros(AVG_SIZE);
+    private static final long MASK_STRICT = topBits(AVG_BITS + 1);
+    private static final long MASK_LOOSE = topBits(AVG_BITS - 1);
+
+    private static final long[] GEAR = createGearTable();
+
+    private static final ThreadLocal<ByteBuffer> BUFFER =
+            ThreadLocal.withInitial(() -> ByteBuffer.allocate(FileHasher.BUFFER_SIZE));
+
+    private static final ThreadLocal<MessageDigest> DIGEST = ThreadLocal.withInitial(() -> {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException("SHA-256 algorithm not available", e);
+        }
+    });
+
+    public static class Chunk {
+        public final long offset;
+        public final int length;
+        public final String hash;  // SHA-256 of the chunk, hex
+
+        public Chunk(long offset, int length, String hash) {
+            this.offset = offset;
+            this.length = length;
+            this.hash = hash;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("Chunk{offset=%d, length=%d, hash=%s}", offset, length, hash);
+        }
+    }
+
+    /**
+     * Mask selecting the given number of high bits, which mix in the most bytes of the window
+     */
+    private static long topBits(int bits) {
+        return ((1L << bits) - 1) << (64 - bits);
+    }
+
+    /**
+     * Fixed pseudo-random gear table (splitmix64 from a constant seed)
+     */
+    private static long[] createGearTable() {
+        long[] table = new long[256];
+        long state = 0x6e6f64652d647276L;
+        for (int i = 0; i < table.length; i++) {
+            state += 0x9e3779b97f4a7c15L;
+            long z = state;
+            z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+            z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+            table[i] = z ^ (z >>> 31);
+        }
+        return table;
+    }
+
+    /**
+     * Split a file into chunks in a single sequential read, hashing each chunk as it goes
+     */
+    public static List<Chunk> chunk(Path path) throws IOException {
+        List<Chunk> chunks = new ArrayList<>();
+        MessageDigest digest = DIGEST.get();
+        ByteBuffer buffer = BUFFER.get();
+        byte[] bytes = buffer.array();
+
+        digest.reset();
+        long chunkStart = 0;
+        int chunkLength = 0;
+        long hash = 0;
+
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            buffer.clear();
+            int read;
+            while ((read = channel.read(buffer)) != -1) {
+                int segmentStart = 0;
+
+                int i = 0;
+                while (i < read) {
+                    if (chunkLength < MIN_SIZE) {
+                        // Boundaries are never cut below the minimum size, so skip hashing there
+                        int skip = Math.min(MIN_SIZE - chunkLength, read - i);
+                        chunkLength += skip;
+                        i += skip;
+                        continue;
+                    }
+
+                    chunkLength++;
+                    hash = (hash << 1) + GEAR[bytes[i++] & 0xff];
+                    long mask = chunkLength < AVG_SIZE ? MASK_STRICT : MASK_LOOSE;
+                    if ((hash & mask) == 0 || chunkLength >= MAX_SIZE) {
+                        digest.update(bytes, segmentStart, i - segmentStart);
+                        chunks.add(new Chunk(chunkStart, chunkLength, FileHasher.toHex(digest.digest())));
+
+                        segmentStart = i;
+                        chunkStart += chunkLength;
+                        chunkLength = 0;
+                        hash = 0;
+                    }
+                }
+
+                digest.update(bytes, segmentStart, read - segmentStart);
+                buffer.clear();
+            }
+        }
+
+        if (chunkLength > 0) {
+            chunks.add(new Chunk(chunkStart, chunkLength, FileHasher.toHex(digest.digest())));
+        }
+        return chunks;
+    }
+}
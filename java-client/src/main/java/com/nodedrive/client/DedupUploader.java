@@ -0,0 +1,97 @@
+package com.nodedrive.client;
+
+import java.io.IOException;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Deduplicating upload engine for large files.
+ * Splits a file into content-defined chunks, asks the server which chunks it already
+ * holds (from earlier versions of this file or from similar files), uploads only the
+ * missing ones and then has the server assemble the file from its chunks. An edit to
+ * a large file therefore costs roughly the changed chunks instead of the whole file.
+ */
+public class DedupUploader {
+
+    private final ServerApiClient client;
+    private final SyncStateIndex stateIndex;
+    private final long minFileSize;
+
+    /**
+     * Files smaller than minFileSize are left to the regular uploader; 0 disables deduplication
+     */
+    public DedupUploader(ServerApiClient client, SyncStateIndex stateIndex, long minFileSize) {
+        this.client = client;
+        this.stateIndex = stateIndex;
+        this.minFileSize = minFileSize;
+    }
+
+    /**
+     * Whether a file of this size should be uploaded as chunks
+     */
+    public boolean accepts(long fileSize) {
+        return minFileSize > 0 && fileSize >= minFileSize && client.isChunkUploadSupported();
+    }
+
+    /**
+     * Upload a file as chunks. request.filePath, fileSize and checksum must describe the
+     * file as hashed. Returns true once the server reports the file complete; on false
+     * the caller can check client.isChunkUploadSupported() to fall back to a range upload.
+     * Throws RejectedException if the server rejected the commit.
+     */
+    public boolean upload(ServerApiClient.FileUploadRequest request, String filePath, BasicFileAttributes attrs)
+            throws IOException {
+        List<ContentChunker.Chunk> chunks = ContentChunker.chunk(request.filePath);
+
+        ContentChunker.Chunk last = chunks.isEmpty() ? null : chunks.get(chunks.size() - 1);
+        long chunkedSize = last != null ? last.offset + last.length : 0;
+        if (chunkedSize != request.fileSize) {
+            throw new IOException("File changed while chunking: " + request.filePath);
+        }
+
+        // The same content can occur more than once in a file; send it once
+        Map<String, ContentChunker.Chunk> unique = new HashMap<>();
+        for (ContentChunker.Chunk chunk : chunks) {
+            unique.putIfAbsent(chunk.hash, chunk);
+        }
+
+        List<String> missing = client.checkChunks(request.username, request.deviceId, new ArrayList<>(unique.keySet()));
+        if (missing == null) {
+            return false;
+        }
+
+        long sentBytes = 0;
+        for (String hash : missing) {
+            ContentChunker.Chunk chunk = unique.get(hash);
+            if (chunk == null) {
+                continue;
+            }
+            if (!client.uploadChunkData(request.username, request.deviceId, chunk, request.filePath)) {
+                AppLog.warn("DedupUploader", "Chunk upload of " + request.fileName + " interrupted after "
+                        + sentBytes + " bytes");
+                return false;
+            }
+            sentBytes += chunk.length;
+        }
+
+        ServerApiClient.FileUploadResponse response = client.commitChunks(request, chunks);
+        // Chunks that went missing since the check are sent again on the next attempt
+        if (response != null && !response.success && ServerApiClient.isRejection(response.statusCode)
+                && response.missing == null) {
+            throw new ServerApiClient.RejectedException("Commit of " + request.fileName + " rejected: "
+                    + (response.message != null ? response.message : response.statusCode));
+        }
+        if (response == null || !response.success || !response.isComplete) {
+            return false;
+        }
+
+        long sent = sentBytes;
+        AppLog.info("DedupUploader", () -> "Upload complete: " + request.fileName + " (" + missing.size() + " of "
+                + chunks.size() + " chunks sent, " + sent + " of " + request.fileSize + " bytes)");
+        stateIndex.markSynced(filePath, attrs, request.checksum);
+        return true;
+    }
+}
@@ -0,0 +1,300 @@
+package com.nodedrive.client;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * rsync delta encoding of a file against the block signature of an older version.
+ * A window of one block is slid over the new content with a rolling weak checksum;
+ * where it matches a block of the old version (confirmed by the strong hash) the
+ * delta refers to that block, everything in between is sent as literal data.
+ * Literal data is described as byte ranges of the new file, so it can be streamed
+ * from disk when the delta is uploaded.
+ */
+public class DeltaEncoder {
+
+    private static final int MIN_WINDOW_BUFFER = 1024 * 1024;
+
+    /**
+     * One reconstruct instruction: copy count blocks of the old version starting at
+     * block, or (block == -1) take length bytes of literal data from offset in the new file
+     */
+    public static class Instruction {
+        public final int block;
+        public final int count;
+        public final long offset;
+        public final long length;
+
+        private Instruction(int block, int count, long offset, long length) {
+            this.block = block;
+            this.count = count;
+            this.offset = offset;
+            this.length = length;
+        }
+
+        public boolean isCopy() {
+            return block >= 0;
+        }
+
+        @Override
+        public String toString() {
+            return isCopy()
+                    ? String.format("Copy{block=%d, count=%d}", block, count)
+                    : String.format("Data{offset=%d, length=%d}", offset, length);
+        }
+    }
+
+    public static class Delta {
+        public final List<Instruction> instructions;
+        public final long fileSize;
+        public final long literalBytes;
+        public final String checksum;  // SHA-256 of the new file as read, hex
+
+        Delta(List<Instruction> instructions, long fileSize, long literalBytes, String checksum) {
+            this.instructions = instructions;
+            this.fileSize = fileSize;
+            this.literalBytes = literalBytes;
+            this.checksum = checksum;
+        }
+    }
+
+    private final BlockSignature base;
+    private final Map<Integer, int[]> blocksByWeak = new HashMap<>();
+    private final long[] weakFilter = new long[1024];  // 65536-bit prefilter on the weak sum
+
+    private final List<Instruction> instructions = new ArrayList<>();
+    private long literalBytes;
+
+    private DeltaEncoder(BlockSignature base) {
+        this.base = base;
+
+        for (int block = 0; block < base.blockCount(); block++) {
+            int weak = base.weak[block];
+            int[] blocks = blocksByWeak.get(weak);
+            if (blocks == null) {
+                blocks = new int[]{block};
+            } else {
+                blocks = Arrays.copyOf(blocks, blocks.length + 1);
+                blocks[blocks.length - 1] = block;
+            }
+            blocksByWeak.put(weak, blocks);
+
+            int bit = filterBit(weak);
+            weakFilter[bit >>> 6] |= 1L << bit;
+        }
+    }
+
+    private static int filterBit(int weak) {
+        return (weak ^ (weak >>> 16)) & 0xffff;
+    }
+
+    /**
+     * Encode the file at path, expected to be fileSize bytes long, against the old
+     * version's signature. The file is read once; the returned checksum covers the
+     * content that was encoded.
+     */
+    public static Delta encode(BlockSignature base, Path path, long fileSize) throws IOException {
+        return new DeltaEncoder(base).encode(path, fileSize);
+    }
+
+    private Delta encode(Path path, long fileSize) throws IOException {
+        MessageDigest fileDigest;
+        try {
+            fileDigest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException("SHA-256 algorithm not available", e);
+        }
+
+        int blockSize = base.blockSize;
+        byte[] strong = new byte[BlockSignature.STRONG_LENGTH];
+
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            Window window = new Window(channel, fileDigest, Math.max(MIN_WINDOW_BUFFER, 4 * blockSize), path);
+
+            long pos = 0;
+            long literalStart = 0;
+            boolean haveSums = false;
+            int a = 0;
+            int b = 0;
+
+            while (pos < fileSize) {
+                int n = (int) Math.min(blockSize, fileSize - pos);
+                window.ensure(pos, pos + n);
+                byte[] data = window.buffer;
+
+                if (!haveSums) {
+                    int start = window.index(pos);
+                    a = 0;
+                    b = 0;
+                    for (int i = 0; i < n; i++) {
+                        a += data[start + i] & 0xff;
+                        b += a;
+                    }
+                    haveSums = true;
+                }
+
+                int match = findBlock(BlockSignature.toWeak(a, b), data, window.index(pos), n, strong);
+                if (match >= 0) {
+                    addLiteral(literalStart, pos);
+                    addCopy(match);
+                    pos += n;
+                    literalStart = pos;
+                    haveSums = false;
+                    continue;
+                }
+
+                // Slide the window one byte, or shrink it at the end of the file
+                int out = data[window.index(pos)] & 0xff;
+                if (pos + n < fileSize) {
+                    window.ensure(pos, pos + n + 1);
+                    data = window.buffer;
+                    int in = data[window.index(pos + n)] & 0xff;
+                    a += in - out;
+                    b += a - n * out;
+                } else {
+                    a -= out;
+                    b -= n * out;
+                }
+                pos++;
+            }
+            addLiteral(literalStart, fileSize);
+
+            window.ensureEnd(fileSize);
+        }
+
+        return new Delta(instructions, fileSize, literalBytes, FileHasher.toHex(fileDigest.digest()));
+    }
+
+    /**
+     * Old block with the given content, or -1. Blocks must have the same length, which
+     * matters for the shorter last block.
+     */
+    private int findBlock(int weak, byte[] data, int offset, int length, byte[] strong) {
+        int bit = filterBit(weak);
+        if ((weakFilter[bit >>> 6] & (1L << bit)) == 0) {
+            return -1;
+        }
+
+        int[] blocks = blocksByWeak.get(weak);
+        if (blocks == null) {
+            return -1;
+        }
+
+        boolean hashed = false;
+        for (int block : blocks) {
+            if (base.blockLength(block) != length) {
+                continue;
+            }
+            if (!hashed) {
+                BlockSignature.strongHash(data, offset, length, strong, 0);
+                hashed = true;
+            }
+            if (strongEquals(strong, block)) {
+                return block;
+            }
+        }
+        return -1;
+    }
+
+    private boolean strongEquals(byte[] strong, int block) {
+        int offset = block * BlockSignature.STRONG_LENGTH;
+        for (int i = 0; i < BlockSignature.STRONG_LENGTH; i++) {
+            if (strong[i] != base.strong[offset + i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void addLiteral(long start, long end) {
+        if (end > start) {
+            instructions.add(new Instruction(-1, 0, start, end - start));
+            literalBytes += end - start;
+        }
+    }
+
+    /**
+     * Add a block copy, extending the previous copy when the blocks are consecutive
+     */
+    private void addCopy(int block) {
+        if (!instructions.isEmpty()) {
+            Instruction last = instructions.get(instructions.size() - 1);
+            if (last.isCopy() && last.block + last.count == block) {
+                instructions.set(instructions.size() - 1, new Instruction(last.block, last.count + 1, 0, 0));
+                return;
+            }
+        }
+        instructions.add(new Instruction(block, 1, 0, 0));
+    }
+
+    /**
+     * Sliding read buffer over the file. Every byte is read (and added to the file
+     * digest) exactly once; the buffer is compacted to the current position when the
+     * window runs past its end.
+     */
+    private static class Window {
+        final FileChannel channel;
+        final MessageDigest digest;
+        final byte[] buffer;
+        final ByteBuffer byteBuffer;
+        final Path path;
+        long bufferStart;  // file offset of buffer[0]
+        int bufferLength;
+
+        Window(FileChannel channel, MessageDigest digest, int capacity, Path path) {
+            this.channel = channel;
+            this.digest = digest;
+            this.buffer = new byte[capacity];
+            this.byteBuffer = ByteBuffer.wrap(buffer);
+            this.path = path;
+        }
+
+        int index(long position) {
+            return (int) (position - bufferStart);
+        }
+
+        /**
+         * Make the file range [from, to) available in the buffer
+         */
+        void ensure(long from, long to) throws IOException {
+            if (to <= bufferStart + bufferLength) {
+                return;
+            }
+
+            int keep = index(from);
+            System.arraycopy(buffer, keep, buffer, 0, bufferLength - keep);
+            bufferStart = from;
+            bufferLength -= keep;
+
+            while (bufferStart + bufferLength < to) {
+                byteBuffer.clear().position(bufferLength);
+                int read = channel.read(byteBuffer);
+                if (read < 0) {
+                    throw new IOException("File changed while computing delta: " + path);
+                }
+                digest.update(buffer, bufferLength, read);
+                bufferLength += read;
+            }
+        }
+
+        /**
+         * Check that the file ends where expected
+         */
+        void ensureEnd(long fileSize) throws IOException {
+            byteBuffer.clear();
+            if (bufferStart + bufferLength != fileSize || channel.read(byteBuffer) > 0) {
+                throw new IOException("File changed while computing delta: " + path);
+            }
+        }
+    }
+}
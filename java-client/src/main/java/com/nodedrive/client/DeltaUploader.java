@@ -0,0 +1,179 @@
+package com.nodedrive.client;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * rsync-style delta upload engine for modified files.
+ * The block signature of the last synced version of each large file is kept in the
+ * signature directory. When that file changes, the new content is encoded as a delta
+ * against the signature and only the changed data goes to the server, together with
+ * the instructions to rebuild the new version from the copy the server already holds.
+ */
+public class DeltaUploader {
+
+    private final ServerApiClient client;
+    private final SyncStateIndex stateIndex;
+    private final Path signatureDir;
+    private final long minFileSize;
+
+    /**
+     * Files smaller than minFileSize are left to the other uploaders; 0 disables delta uploads
+     */
+    public DeltaUploader(ServerApiClient client, SyncStateIndex stateIndex, Path signatureDir, long minFileSize) {
+        this.client = client;
+        this.stateIndex = stateIndex;
+        this.signatureDir = signatureDir;
+        this.minFileSize = minFileSize;
+    }
+
+    /**
+     * Whether a file of this size should be tracked for delta uploads
+     */
+    public boolean accepts(long fileSize) {
+        return minFileSize > 0 && fileSize >= minFileSize && client.isDeltaUploadSupported();
+    }
+
+    /**
+     * Upload a modified file as a delta against its last synced version.
+     * request.filePath, fileSize and checksum must describe the file as hashed.
+     * Returns true once the server reports the file complete; false if there is no
+     * usable signature, the delta would not save enough, or the server rejected it,
+     * in which case the caller uploads the file another way.
+     */
+    public boolean upload(ServerApiClient.FileUploadRequest request, String filePath, BasicFileAttributes attrs)
+            throws IOException {
+        // The signature must describe the version the server holds, i.e. the last synced one
+        SyncStateIndex.Entry entry = stateIndex.get(filePath);
+        if (entry == null || entry.state != SyncStateIndex.State.SYNCED || entry.checksum == null) {
+            return false;
+        }
+
+        BlockSignature base = loadSignature(filePath);
+        if (base == null || !base.checksum.equals(entry.checksum)) {
+            return false;
+        }
+
+        DeltaEncoder.Delta delta = DeltaEncoder.encode(base, request.filePath, request.fileSize);
+        if (!delta.checksum.equals(request.checksum)) {
+            throw new IOException("File changed while computing delta: " + request.filePath);
+        }
+
+        // A delta that is mostly literal data saves little over the other upload paths
+        if (delta.literalBytes > request.fileSize / 2) {
+            AppLog.debug("DeltaUploader", () -> "Delta of " + request.fileName + " too large (" + delta.literalBytes
+                    + " of " + request.fileSize + " bytes), uploading in full");
+            return false;
+        }
+
+        ServerApiClient.FileUploadResponse response = client.uploadDelta(request, base.checksum, base.blockSize, delta);
+        if (response == null || !response.success || !response.isComplete) {
+            return false;
+        }
+
+        AppLog.info("DeltaUploader", () -> "Upload complete: " + request.fileName + " (delta of " + delta.literalBytes
+                + " of " + request.fileSize + " bytes, " + delta.instructions.size() + " instructions)");
+        stateIndex.markSynced(filePath, attrs, request.checksum);
+        return true;
+    }
+
+    /**
+     * Record the block signature of a file version the server now holds, so its next
+     * modification can be sent as a delta. The signature is taken while the file is
+     * hashed, so the file is not read again; without one (a file below the threshold)
+     * nothing is recorded. Errors are logged; without a signature the next upload is
+     * simply not a delta.
+     */
+    public void remember(String filePath, BlockSignature signature) {
+        if (signature == null || !accepts(signature.fileSize)) {
+            return;
+        }
+
+        Path signatureFile = signatureFile(filePath);
+        try {
+            BlockSignature existing = loadSignature(filePath);
+            if (existing != null && existing.checksum.equals(signature.checksum)) {
+                return;
+            }
+
+            Files.createDirectories(signatureDir);
+            Path tempFile = signatureFile.resolveSibling(signatureFile.getFileName() + ".tmp");
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tempFile)))) {
+                signature.writeTo(out);
+            }
+
+            try {
+                Files.move(tempFile, signatureFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(tempFile, signatureFile, StandardCopyOption.REPLACE_EXISTING);
+            }
+
+            AppLog.debug("DeltaUploader", () -> "Saved signature of " + filePath + " (" + signature.blockCount()
+                    + " blocks of " + signature.blockSize + " bytes)");
+        } catch (IOException e) {
+            AppLog.warn("DeltaUploader", "Failed to save signature of " + filePath + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * Drop the signature of a file that was deleted
+     */
+    public void forget(String filePath) {
+        try {
+            Files.deleteIfExists(signatureFile(filePath));
+        } catch (IOException e) {
+            AppLog.warn("DeltaUploader", "Failed to delete signature of " + filePath + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * Keep the signature of a file that was moved under its new path
+     */
+    public void move(String oldPath, String newPath) {
+        Path signatureFile = signatureFile(oldPath);
+        try {
+            Files.move(signatureFile, signatureFile(newPath), StandardCopyOption.REPLACE_EXISTING);
+        } catch (NoSuchFileException e) {
+            // No signature, the file is below the delta threshold
+        } catch (IOException e) {
+            AppLog.warn("DeltaUploader", "Failed to move signature of " + oldPath + ": " + e.getMessage());
+        }
+    }
+
+    private BlockSignature loadSignature(String filePath) {
+        Path signatureFile = signatureFile(filePath);
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(signatureFile)))) {
+            return BlockSignature.readFrom(in);
+        } catch (NoSuchFileException e) {
+            return null;
+        } catch (IOException e) {
+            AppLog.warn("DeltaUploader", "Ignoring unreadable signature " + signatureFile + ": " + e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Signature files are named after the hash of the local path
+     */
+    private Path signatureFile(String filePath) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            byte[] hash = digest.digest(filePath.getBytes(StandardCharsets.UTF_8));
+            return signatureDir.resolve(FileHasher.toHex(hash) + ".sig");
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException("SHA-256 algorithm not available", e);
+        }
+    }
+}
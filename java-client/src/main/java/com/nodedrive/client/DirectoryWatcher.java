@@ -3,14 +3,14 @@ package com.nodedrive.client;
 import java.io.IOException;
 import java.nio.file.*;
 import java.nio.file.attribute.BasicFileAttributes;
-import java.security.MessageDigest;
-import java.security.NoSuchAlgorithmException;
 import java.util.*;
-import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Directory watcher that monitors file changes and triggers callbacks.
  * Port of DirectoryWatcher.ts from Node.js client.
+ * Raw events come from a WatcherBackend (WatchService, polling or a replayed event
+ * log); they are debounced and hashed here before reaching the callback.
  */
 public class DirectoryWatcher {
 
@@ -20,23 +20,63 @@ public class DirectoryWatcher {
         DELETED
     }
 
+    /**
+     * A settled change to a path. Carries only the path and the metadata seen when the
+     * event was delivered; the checksum is computed on first request and then cached,
+     * so the file is read by whichever thread needs it rather than by the watcher.
+     */
     public static class FileEvent {
         public final FileEventType type;
         public final String filePath;
-        public final byte[] fileBuffer;
-        public final String checksum;
+        public final long size;          // -1 if unknown (deletions, missing files)
+        public final long lastModified;  // 0 if unknown
+        private volatile FileHasher.Result hash;
+
+        public FileEvent(FileEventType type, String filePath) {
+            this(type, filePath, -1, 0);
+        }
 
-        public FileEvent(FileEventType type, String filePath, byte[] fileBuffer, String checksum) {
+        public FileEvent(FileEventType type, String filePath, long size, long lastModified) {
             this.type = type;
             this.filePath = filePath;
-            this.fileBuffer = fileBuffer;
-            this.checksum = checksum;
+            this.size = size;
+            this.lastModified = lastModified;
+        }
+
+        /**
+         * Size, modification time and checksum of the file, read and hashed on first call
+         */
+        public FileHasher.Result getHash() throws IOException {
+            return getHash(false);
+        }
+
+        /**
+         * Like getHash(), also computing the block signature in the same read if
+         * withSignature is set
+         */
+        public FileHasher.Result getHash(boolean withSignature) throws IOException {
+            FileHasher.Result result = hash;
+            if (result == null || (withSignature && result.signature == null)) {
+                synchronized (this) {
+                    result = hash;
+                    if (result == null || (withSignature && result.signature == null)) {
+                        result = FileHasher.hash(Paths.get(filePath), withSignature);
+                        hash = result;
+                    }
+                }
+            }
+            return result;
+        }
+
+        public String getChecksum() throws IOException {
+            return getHash().checksum;
         }
 
         @Override
         public String toString() {
-            return String.format("FileEvent{type=%s, path=%s, checksum=%s, size=%d}",
-                    type, filePath, checksum, fileBuffer != null ? fileBuffer.length : 0);
+            FileHasher.Result result = hash;
+            return String.format("FileEvent{type=%s, path=%s, size=%d, checksum=%s}",
+                    type, filePath, size, result != null ? result.checksum : "-");
         }
     }
 
@@ -44,16 +84,61 @@ public class DirectoryWatcher {
         void onFileEvent(FileEvent event);
     }
 
+    public interface FileConsumer {
+        void accept(Path file, BasicFileAttributes attrs) throws InterruptedException;
+    }
+
+    public static class Config {
+        public EventDebouncer.Config debounce = new EventDebouncer.Config();
+        public int scanThreads = Math.max(4, Runtime.getRuntime().availableProcessors());
+        public WatcherBackend backend;     // event source; null picks WatchService or polling from the fields below
+        public SyncStateIndex stateIndex;  // known files, used to work out what changed after an event overflow
+        public long pollInterval = 0;            // > 0: poll for changes instead of using WatchService
+        public long pollRescanInterval = 60000;  // when polling, relist every directory this often
+
+        public Config() {
+        }
+
+        public Config(EventDebouncer.Config debounce, int scanThreads) {
+            this.debounce = debounce;
+            this.scanThreads = scanThreads;
+        }
+    }
+
     private final Path watchPath;
     private final FileEventCallback callback;
-    private WatchService watchService;
     private volatile boolean running = false;
-    private ExecutorService executor;
-    private final Map<WatchKey, Path> watchKeys = new ConcurrentHashMap<>();
+    private final EventDebouncer debouncer;
+    private final ParallelScanner scanner;
+    private final WatcherBackend backend;
 
     public DirectoryWatcher(String path, FileEventCallback callback) {
+        this(path, callback, new Config());
+    }
+
+    public DirectoryWatcher(String path, FileEventCallback callback, Config config) {
         this.watchPath = Paths.get(path);
         this.callback = callback;
+        this.debouncer = new EventDebouncer(config.debounce, this::handleFileEvent);
+        this.scanner = new ParallelScanner(config.scanThreads);
+        this.backend = config.backend != null ? config.backend : createBackend(config);
+    }
+
+    /**
+     * Backend chosen by the config: polling if a poll interval is set, otherwise WatchService.
+     * The backend gets a scanner of its own, which it shuts down when stopped: its scans
+     * must not queue behind an initial scan whose visitors block on a full upload queue.
+     */
+    public static WatcherBackend createBackend(Config config) {
+        ParallelScanner scanner = new ParallelScanner(config.scanThreads);
+        if (config.pollInterval > 0) {
+            return new PollingBackend(config.pollInterval, config.pollRescanInterval, scanner);
+        }
+        return new WatchServiceBackend(scanner, config.stateIndex);
+    }
+
+    public Path getWatchPath() {
+        return watchPath;
     }
 
     /**
@@ -73,37 +158,14 @@ public class DirectoryWatcher {
             throw new IOException("Watch path is not a directory: " + watchPath);
         }
 
-        watchService = FileSystems.getDefault().newWatchService();
-
-        // Register directory and all subdirectories recursively
-        registerDirectoryRecursively(watchPath);
-
+        debouncer.start();
+        try {
+            backend.start(watchPath, debouncer::submit);
+        } catch (IOException e) {
+            debouncer.stop();
+            throw e;
+        }
         running = true;
-        executor = Executors.newSingleThreadExecutor();
-
-        // Start watching in background thread
-        executor.submit(() -> {
-            AppLog.info("DirectoryWatcher", "Started watching: " + watchPath + " (recursive)");
-            watchLoop();
-        });
-    }
-
-    /**
-     * Register a directory and all its subdirectories with the watch service
-     */
-    private void registerDirectoryRecursively(Path dir) throws IOException {
-        Files.walkFileTree(dir, new SimpleFileVisitor<Path>() {
-            @Override
-            public FileVisitResult preVisitDirectory(Path directory, BasicFileAttributes attrs) throws IOException {
-                WatchKey key = directory.register(watchService,
-                        StandardWatchEventKinds.ENTRY_CREATE,
-                        StandardWatchEventKinds.ENTRY_MODIFY,
-                        StandardWatchEventKinds.ENTRY_DELETE);
-                watchKeys.put(key, directory);
-                AppLog.debug("DirectoryWatcher", "Registered: " + directory);
-                return FileVisitResult.CONTINUE;
-            }
-        });
     }
 
     /**
@@ -115,125 +177,35 @@ public class DirectoryWatcher {
         }
 
         running = false;
-
-        try {
-            if (watchService != null) {
-                watchService.close();
-            }
-        } catch (IOException e) {
-            AppLog.error("DirectoryWatcher", "Error closing watch service: " + e.getMessage());
-        }
-
-        if (executor != null) {
-            executor.shutdown();
-            try {
-                if (!executor.awaitTermination(5, TimeUnit.SECONDS)) {
-                    executor.shutdownNow();
-                }
-            } catch (InterruptedException e) {
-                executor.shutdownNow();
-                Thread.currentThread().interrupt();
-            }
-        }
-
-        watchKeys.clear();
+        backend.stop();
+        debouncer.stop();
+        scanner.shutdown();
         AppLog.info("DirectoryWatcher", "Stopped watching: " + watchPath);
     }
 
     /**
-     * Main watch loop
+     * Handle a settled file system event. Only stats the file; hashing is left to
+     * whoever consumes the event.
      */
-    private void watchLoop() {
-        while (running) {
-            WatchKey key;
-            try {
-                // Wait for events (blocks until an event occurs)
-                key = watchService.poll(1, TimeUnit.SECONDS);
-                if (key == null) {
-                    continue;
-                }
-            } catch (InterruptedException e) {
-                Thread.currentThread().interrupt();
-                break;
-            } catch (Exception e) {
-                AppLog.error("DirectoryWatcher", "Error polling watch service: " + e.getMessage());
-                break;
-            }
-
-            // Get the directory for this watch key
-            Path dir = watchKeys.get(key);
-            if (dir == null) {
-                AppLog.warn("DirectoryWatcher", "Watch key not recognized");
-                key.reset();
-                continue;
-            }
-
-            for (WatchEvent<?> event : key.pollEvents()) {
-                WatchEvent.Kind<?> kind = event.kind();
-
-                // Skip overflow events
-                if (kind == StandardWatchEventKinds.OVERFLOW) {
-                    continue;
-                }
-
-                @SuppressWarnings("unchecked")
-                WatchEvent<Path> pathEvent = (WatchEvent<Path>) event;
-                Path filename = pathEvent.context();
-                Path fullPath = dir.resolve(filename);
-
-                // If a new directory is created, register it
-                if (kind == StandardWatchEventKinds.ENTRY_CREATE) {
-                    try {
-                        if (Files.isDirectory(fullPath)) {
-                            registerDirectoryRecursively(fullPath);
-                            AppLog.info("DirectoryWatcher", "Registered new directory: " + fullPath);
-                        }
-                    } catch (IOException e) {
-                        AppLog.error("DirectoryWatcher", "Failed to register new directory: " + e.getMessage());
-                    }
-                }
-
-                handleFileEvent(kind, fullPath);
-            }
-
-            // Reset the key
-            boolean valid = key.reset();
-            if (!valid) {
-                watchKeys.remove(key);
-                AppLog.warn("DirectoryWatcher", "Watch key no longer valid, removed from tracking");
-            }
-        }
-    }
-
-    /**
-     * Handle a file system event
-     */
-    private void handleFileEvent(WatchEvent.Kind<?> kind, Path filePath) {
+    private void handleFileEvent(FileEventType eventType, Path filePath) {
         try {
-            FileEventType eventType;
-            byte[] fileBuffer = null;
-            String checksum = null;
-
-            if (kind == StandardWatchEventKinds.ENTRY_CREATE) {
-                eventType = FileEventType.CREATED;
-                if (Files.exists(filePath) && Files.isRegularFile(filePath)) {
-                    fileBuffer = Files.readAllBytes(filePath);
-                    checksum = calculateChecksum(fileBuffer);
-                }
-            } else if (kind == StandardWatchEventKinds.ENTRY_MODIFY) {
-                eventType = FileEventType.MODIFIED;
-                if (Files.exists(filePath) && Files.isRegularFile(filePath)) {
-                    fileBuffer = Files.readAllBytes(filePath);
-                    checksum = calculateChecksum(fileBuffer);
+            long size = -1;
+            long lastModified = 0;
+
+            if (eventType != FileEventType.DELETED) {
+                try {
+                    BasicFileAttributes attrs = Files.readAttributes(filePath, BasicFileAttributes.class);
+                    if (attrs.isRegularFile()) {
+                        size = attrs.size();
+                        lastModified = attrs.lastModifiedTime().toMillis();
+                    }
+                } catch (NoSuchFileException e) {
+                    // Gone again before the event settled; consumers skip missing files
                 }
-            } else if (kind == StandardWatchEventKinds.ENTRY_DELETE) {
-                eventType = FileEventType.DELETED;
-            } else {
-                return;
             }
 
-            FileEvent event = new FileEvent(eventType, filePath.toString(), fileBuffer, checksum);
-            AppLog.debug("DirectoryWatcher", "File event: " + event);
+            FileEvent event = new FileEvent(eventType, filePath.toString(), size, lastModified);
+            AppLog.debug("DirectoryWatcher", () -> "File event: " + event);
 
             // Trigger callback
             callback.onFileEvent(event);
@@ -247,45 +219,41 @@ public class DirectoryWatcher {
      * Get all files in the watched directory
      */
     public List<String> getAllFiles() throws IOException {
-        List<String> files = new ArrayList<>();
+        List<String> files = Collections.synchronizedList(new ArrayList<>());
 
-        if (!Files.exists(watchPath)) {
-            return files;
+        try {
+            forEachFile((file, attrs) -> files.add(file.toString()));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while listing " + watchPath);
         }
 
-        Files.walkFileTree(watchPath, new SimpleFileVisitor<Path>() {
-            @Override
-            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
-                if (attrs.isRegularFile()) {
-                    files.add(file.toString());
-                }
-                return FileVisitResult.CONTINUE;
-            }
-        });
-
         return files;
     }
 
     /**
-     * Calculate SHA-256 checksum of file data
+     * Scan the watched directory in parallel, passing each regular file to the consumer
+     * as soon as it is found. The consumer is called from several threads at once.
+     * Returns the number of files found.
      */
-    private String calculateChecksum(byte[] data) {
-        try {
-            MessageDigest digest = MessageDigest.getInstance("SHA-256");
-            byte[] hash = digest.digest(data);
-
-            // Convert to hex string
-            StringBuilder hexString = new StringBuilder();
-            for (byte b : hash) {
-                String hex = Integer.toHexString(0xff & b);
-                if (hex.length() == 1) {
-                    hexString.append('0');
-                }
-                hexString.append(hex);
-            }
-            return hexString.toString();
-        } catch (NoSuchAlgorithmException e) {
-            throw new RuntimeException("SHA-256 algorithm not available", e);
+    public int forEachFile(FileConsumer consumer) throws InterruptedException {
+        if (!Files.exists(watchPath)) {
+            return 0;
         }
+
+        AtomicInteger count = new AtomicInteger();
+        scanner.scan(watchPath, new ParallelScanner.Visitor() {
+            @Override
+            public void preVisitDirectory(Path dir) {
+            }
+
+            @Override
+            public void visitFile(Path file, BasicFileAttributes attrs) throws InterruptedException {
+                count.incrementAndGet();
+                consumer.accept(file, attrs);
+            }
+        });
+
+        return count.get();
     }
 }
@@ -0,0 +1,176 @@
+package com.nodedrive.client;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Collapses bursts of file events into a single settled event per path.
+ * An event is released once its path has been quiet for the configured quiet period,
+ * or once the max latency has elapsed since the first event of the burst, whichever
+ * comes first.
+ */
+public class EventDebouncer {
+
+    private static final long TICK_MILLIS = 50;
+
+    public static class Config {
+        public long quietPeriod = 500;
+        public long maxLatency = 10000;
+        public Map<String, Long> quietPeriodOverrides = new HashMap<>();  // path prefix -> quiet period
+
+        public Config() {
+        }
+
+        public Config(long quietPeriod, long maxLatency) {
+            this.quietPeriod = quietPeriod;
+            this.maxLatency = maxLatency;
+        }
+    }
+
+    public interface Sink {
+        void onSettledEvent(DirectoryWatcher.FileEventType type, Path path);
+    }
+
+    private static class Pending {
+        final Path path;
+        DirectoryWatcher.FileEventType type;
+        final long firstSeen;
+        long lastSeen;
+        final long quietPeriod;
+
+        Pending(Path path, DirectoryWatcher.FileEventType type, long now, long quietPeriod) {
+            this.path = path;
+            this.type = type;
+            this.firstSeen = now;
+            this.lastSeen = now;
+            this.quietPeriod = quietPeriod;
+        }
+    }
+
+    private final Config config;
+    private final Sink sink;
+    private final Map<Path, Pending> pending = new LinkedHashMap<>();
+    private volatile ScheduledExecutorService scheduler;
+
+    public EventDebouncer(Config config, Sink sink) {
+        this.config = config;
+        this.sink = sink;
+    }
+
+    public void start() {
+        if (config.quietPeriod <= 0) {
+            return;
+        }
+
+        scheduler = Executors.newSingleThreadScheduledExecutor();
+        scheduler.scheduleWithFixedDelay(this::flushDue, TICK_MILLIS, TICK_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    public void stop() {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+            scheduler = null;
+        }
+
+        synchronized (pending) {
+            if (!pending.isEmpty()) {
+                AppLog.debug("EventDebouncer", () -> "Discarding " + pending.size() + " unsettled events");
+            }
+            pending.clear();
+        }
+    }
+
+    /**
+     * Record an event. With debouncing disabled it is dispatched immediately.
+     */
+    public void submit(DirectoryWatcher.FileEventType type, Path path) {
+        if (scheduler == null) {
+            sink.onSettledEvent(type, path);
+            return;
+        }
+
+        long now = System.currentTimeMillis();
+        synchronized (pending) {
+            Pending entry = pending.get(path);
+            if (entry == null) {
+                pending.put(path, new Pending(path, type, now, quietPeriodFor(path)));
+                return;
+            }
+
+            DirectoryWatcher.FileEventType merged = merge(entry.type, type);
+            if (merged == null) {
+                // Created and deleted within the same burst: nothing to report
+                pending.remove(path);
+                return;
+            }
+
+            entry.type = merged;
+            entry.lastSeen = now;
+        }
+    }
+
+    /**
+     * Combine a pending event with a newer one for the same path.
+     * Returns null when the two cancel out.
+     */
+    private static DirectoryWatcher.FileEventType merge(DirectoryWatcher.FileEventType previous,
+                                                       DirectoryWatcher.FileEventType next) {
+        if (next == DirectoryWatcher.FileEventType.DELETED) {
+            return previous == DirectoryWatcher.FileEventType.CREATED ? null : DirectoryWatcher.FileEventType.DELETED;
+        }
+        if (previous == DirectoryWatcher.FileEventType.CREATED) {
+            return DirectoryWatcher.FileEventType.CREATED;
+        }
+        // Modified, or deleted and re-created: either way the content changed
+        return DirectoryWatcher.FileEventType.MODIFIED;
+    }
+
+    /**
+     * Quiet period for a path: the longest matching prefix override, else the default
+     */
+    private long quietPeriodFor(Path path) {
+        long quietPeriod = config.quietPeriod;
+        int longestMatch = -1;
+
+        for (Map.Entry<String, Long> override : config.quietPeriodOverrides.entrySet()) {
+            String prefix = override.getKey();
+            if (prefix.length() > longestMatch && path.startsWith(prefix)) {
+                longestMatch = prefix.length();
+                quietPeriod = override.getValue();
+            }
+        }
+        return quietPeriod;
+    }
+
+    private void flushDue() {
+        List<Pending> due = new ArrayList<>();
+        long now = System.currentTimeMillis();
+
+        synchronized (pending) {
+            Iterator<Pending> it = pending.values().iterator();
+            while (it.hasNext()) {
+                Pending p = it.next();
+                if (now - p.lastSeen >= p.quietPeriod || now - p.firstSeen >= config.maxLatency) {
+                    due.add(p);
+                    it.remove();
+                }
+            }
+        }
+
+        for (Pending p : due) {
+            try {
+                sink.onSettledEvent(p.type, p.path);
+            } catch (Exception e) {
+                AppLog.error("EventDebouncer", "Error dispatching event for " + p.path + ": " + e.getMessage());
+            }
+        }
+    }
+}
@@ -0,0 +1,116 @@
+package com.nodedrive.client;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * Streaming SHA-256 file hasher.
+ * Reads a file once, sequentially, through a pooled direct buffer and returns
+ * its size, modification time and checksum together, and on request the block
+ * signature delta uploads need, so that is not read separately.
+ */
+public class FileHasher {
+
+    public static final int BUFFER_SIZE = 256 * 1024;
+
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    private static final ThreadLocal<ByteBuffer> BUFFER =
+            ThreadLocal.withInitial(() -> ByteBuffer.allocateDirect(BUFFER_SIZE));
+
+    private static final ThreadLocal<MessageDigest> DIGEST = ThreadLocal.withInitial(() -> {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException("SHA-256 algorithm not available", e);
+        }
+    });
+
+    public static class Result {
+        public final long size;
+        public final long lastModified;
+        public final String checksum;
+        public final BlockSignature signature;  // null unless requested
+
+        public Result(long size, long lastModified, String checksum) {
+            this(size, lastModified, checksum, null);
+        }
+
+        public Result(long size, long lastModified, String checksum, BlockSignature signature) {
+            this.size = size;
+            this.lastModified = lastModified;
+            this.checksum = checksum;
+            this.signature = signature;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("HashResult{size=%d, lastModified=%d, checksum=%s}",
+                    size, lastModified, checksum);
+        }
+    }
+
+    /**
+     * Hash a file in a single pass.
+     * Throws if the file changes while it is being read, since the digest would not
+     * match any version of the file.
+     */
+    public static Result hash(Path path) throws IOException {
+        return hash(path, false);
+    }
+
+    /**
+     * Hash a file in a single pass, computing its block signature in the same pass
+     * if withSignature is set
+     */
+    public static Result hash(Path path, boolean withSignature) throws IOException {
+        BasicFileAttributes before = Files.readAttributes(path, BasicFileAttributes.class);
+        MessageDigest digest = DIGEST.get();
+        ByteBuffer buffer = BUFFER.get();
+        BlockSignature.Builder signature = withSignature ? new BlockSignature.Builder(before.size()) : null;
+        long size = 0;
+
+        digest.reset();
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            buffer.clear();
+            int read;
+            while ((read = channel.read(buffer)) != -1) {
+                size += read;
+                buffer.flip();
+                if (signature != null) {
+                    signature.update(buffer.duplicate());
+                }
+                digest.update(buffer);
+                buffer.clear();
+            }
+        }
+
+        BasicFileAttributes after = Files.readAttributes(path, BasicFileAttributes.class);
+        if (after.size() != size || !after.lastModifiedTime().equals(before.lastModifiedTime())) {
+            throw new IOException("File changed while hashing: " + path);
+        }
+
+        String checksum = toHex(digest.digest());
+        return new Result(size, before.lastModifiedTime().toMillis(), checksum,
+                signature != null ? signature.build(checksum) : null);
+    }
+
+    /**
+     * Convert a digest to a lowercase hex string
+     */
+    public static String toHex(byte[] hash) {
+        char[] chars = new char[hash.length * 2];
+        for (int i = 0; i < hash.length; i++) {
+            chars[i * 2] = HEX[(hash[i] >> 4) & 0x0f];
+            chars[i * 2 + 1] = HEX[hash[i] & 0x0f];
+        }
+        return new String(chars);
+    }
+}
@@ -0,0 +1,108 @@
+package com.nodedrive.client;
+
+import okhttp3.MediaType;
+import okhttp3.RequestBody;
+import okio.BufferedSink;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * OkHttp request body that streams a file (or byte ranges of it) straight from disk.
+ * Data is copied through a fixed-size per-thread buffer, so heap usage stays constant
+ * regardless of the file size. An optional bandwidth limiter paces the copy.
+ */
+public class FileRequestBody extends RequestBody {
+
+    public static final int BUFFER_SIZE = 64 * 1024;
+
+    private static final ThreadLocal<ByteBuffer> BUFFER =
+            ThreadLocal.withInitial(() -> ByteBuffer.allocate(BUFFER_SIZE));
+
+    private final Path path;
+    private final long[] offsets;
+    private final long[] lengths;
+    private final long length;
+    private final MediaType contentType;
+    private final BandwidthLimiter limiter;
+
+    public FileRequestBody(Path path, long length, MediaType contentType) {
+        this(path, 0, length, contentType);
+    }
+
+    public FileRequestBody(Path path, long offset, long length, MediaType contentType) {
+        this(path, offset, length, contentType, null);
+    }
+
+    public FileRequestBody(Path path, long offset, long length, MediaType contentType, BandwidthLimiter limiter) {
+        this(path, new long[]{offset}, new long[]{length}, contentType, limiter);
+    }
+
+    /**
+     * Body made of several byte ranges of the file, sent back to back in the given order.
+     * limiter may be null for an unthrottled body.
+     */
+    public FileRequestBody(Path path, long[] offsets, long[] lengths, MediaType contentType,
+                           BandwidthLimiter limiter) {
+        long total = 0;
+        for (long rangeLength : lengths) {
+            total += rangeLength;
+        }
+
+        this.path = path;
+        this.offsets = offsets;
+        this.lengths = lengths;
+        this.length = total;
+        this.contentType = contentType;
+        this.limiter = limiter;
+    }
+
+    @Override
+    public MediaType contentType() {
+        return contentType;
+    }
+
+    @Override
+    public long contentLength() {
+        return length;
+    }
+
+    /**
+     * Copy the file ranges to the sink. The file is reopened on every call so OkHttp
+     * can replay the body when it retries a request.
+     */
+    @Override
+    public void writeTo(BufferedSink sink) throws IOException {
+        ByteBuffer buffer = BUFFER.get();
+
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            for (int i = 0; i < offsets.length; i++) {
+                long position = offsets[i];
+                long remaining = lengths[i];
+
+                while (remaining > 0) {
+                    buffer.clear();
+                    if (remaining < buffer.capacity()) {
+                        buffer.limit((int) remaining);
+                    }
+
+                    int read = channel.read(buffer, position);
+                    if (read < 0) {
+                        throw new IOException("File truncated while uploading: " + path);
+                    }
+
+                    if (limiter != null) {
+                        limiter.acquire(read);
+                    }
+
+                    sink.write(buffer.array(), 0, read);
+                    position += read;
+                    remaining -= read;
+                }
+            }
+        }
+    }
+}
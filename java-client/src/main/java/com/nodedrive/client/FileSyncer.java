@@ -0,0 +1,552 @@
+package com.nodedrive.client;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Synchronizes changed local files with the server.
+ * Handles batches of file events from the upload queue: files unchanged since their
+ * last sync are skipped using the local state index, the rest are hashed, checked
+ * against the server in a single batch request and uploaded if needed. Files whose
+ * upload fails are parked in the retry queue. While the server is unavailable, events
+ * are deferred to that queue without reading the files.
+ * Deleted files are removed from the server in batch requests. A deleted directory is
+ * expanded through the state index into every synced file below it, so a whole
+ * subtree goes out in as few requests as possible.
+ * Moves arrive as a deletion and a creation. A created file whose file key, size and
+ * modification time match a synced file that is gone is taken as that file moved: it
+ * is renamed on the server without being read. Deletions are held back for the move
+ * window, and for as long as a created file that could be the moved one is still
+ * queued (same size and modification time as a deleted file), up to a maximum hold,
+ * so the deleted side of a move is still in the index when the created side is handled.
+ */
+public class FileSyncer {
+
+    private final String username;
+    private final String deviceId;
+    private final ServerApiClient client;
+    private final SyncStateIndex stateIndex;
+    private final ChunkedUploader uploader;
+    private final DedupUploader dedupUploader;
+    private final DeltaUploader deltaUploader;
+    private final RetryQueue retryQueue;
+    private final long moveWindow;
+    private final long maxMoveHold;
+    // Created files seen by the watcher but not yet synced, by path and by moveKey
+    private final ConcurrentHashMap<String, String> pendingCreations = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, Integer> pendingMoveKeys = new ConcurrentHashMap<>();
+
+    /**
+     * A file that changed since its last sync and needs a server check
+     */
+    private static class Candidate {
+        final String filePath;
+        final Path path;
+        final String fileName;
+        final BasicFileAttributes attrs;
+        final FileHasher.Result hash;
+
+        Candidate(String filePath, Path path, BasicFileAttributes attrs, FileHasher.Result hash) {
+            this.filePath = filePath;
+            this.path = path;
+            this.fileName = path.getFileName().toString();
+            this.attrs = attrs;
+            this.hash = hash;
+        }
+    }
+
+    public FileSyncer(String username, String deviceId, ServerApiClient client, SyncStateIndex stateIndex,
+                      ChunkedUploader uploader, DedupUploader dedupUploader, DeltaUploader deltaUploader,
+                      RetryQueue retryQueue, long moveWindow, long maxMoveHold) {
+        this.username = username;
+        this.deviceId = deviceId;
+        this.client = client;
+        this.stateIndex = stateIndex;
+        this.uploader = uploader;
+        this.dedupUploader = dedupUploader;
+        this.deltaUploader = deltaUploader;
+        this.retryQueue = retryQueue;
+        this.moveWindow = moveWindow;
+        this.maxMoveHold = maxMoveHold;
+    }
+
+    /**
+     * Upload the files behind a batch of created/modified events if they are not
+     * already uploaded or have been modified, and delete the files behind deleted ones
+     */
+    public void syncFiles(List<DirectoryWatcher.FileEvent> events) {
+        try {
+            syncBatch(events);
+        } finally {
+            // Only once a created file is renamed or uploaded may held deletions stop waiting for it
+            for (DirectoryWatcher.FileEvent event : events) {
+                forgetCreated(event.filePath);
+            }
+        }
+    }
+
+    private void syncBatch(List<DirectoryWatcher.FileEvent> events) {
+        if (client.getCircuitBreaker().isOpen() && retryQueue != null) {
+            // Retried events come back as modifications; a missing path is then deleted
+            for (DirectoryWatcher.FileEvent event : events) {
+                retryQueue.defer(event.filePath);
+            }
+            AppLog.debug("FileSyncer", () -> "Server unavailable, deferred " + events.size() + " events");
+            return;
+        }
+
+        List<Candidate> candidates = new ArrayList<>();
+        List<String> deleted = new ArrayList<>();
+        for (DirectoryWatcher.FileEvent event : events) {
+            if (event.type == DirectoryWatcher.FileEventType.DELETED) {
+                // Wait a move window for the other half of a possible move
+                if (moveWindow > 0 && retryQueue != null) {
+                    retryQueue.hold(event.filePath, moveWindow, "waiting for a move");
+                } else {
+                    deleted.add(event.filePath);
+                }
+                continue;
+            }
+
+            if (event.type == DirectoryWatcher.FileEventType.CREATED && syncMove(event.filePath)) {
+                continue;
+            }
+
+            Candidate candidate = prepare(event);
+            if (candidate != null) {
+                candidates.add(candidate);
+            } else if (!Files.exists(Paths.get(event.filePath))) {
+                // A held or retried deletion; keep waiting while its moved file may still be queued
+                if (awaitsMove(event.filePath)) {
+                    retryQueue.hold(event.filePath, moveWindow, "waiting for a move");
+                } else {
+                    deleted.add(event.filePath);
+                }
+            } else if (retryQueue != null) {
+                retryQueue.clear(event.filePath);
+            }
+        }
+
+        if (!deleted.isEmpty()) {
+            deleteFiles(deleted);
+        }
+
+        if (candidates.isEmpty()) {
+            return;
+        }
+
+        // Check all changed files with the server in one round trip
+        List<ServerApiClient.FileCheckRequest> checkRequests = new ArrayList<>(candidates.size());
+        for (Candidate candidate : candidates) {
+            ServerApiClient.FileCheckRequest checkRequest = new ServerApiClient.FileCheckRequest();
+            checkRequest.username = username;
+            checkRequest.deviceId = deviceId;
+            checkRequest.fileName = candidate.fileName;
+            checkRequest.fileSize = candidate.hash.size;
+            checkRequest.checksum = candidate.hash.checksum;
+            checkRequests.add(checkRequest);
+        }
+
+        List<ServerApiClient.FileCheckResponse> checkResponses = client.checkFileStatusBatch(checkRequests);
+        if (checkResponses == null) {
+            // Not knowing what the server has, uploading everything would be a guess
+            for (Candidate candidate : candidates) {
+                parkForRetry(candidate, "server check failed");
+            }
+            return;
+        }
+
+        for (int i = 0; i < candidates.size(); i++) {
+            Candidate candidate = candidates.get(i);
+            ServerApiClient.FileCheckResponse checkResponse = checkResponses.get(i);
+            if (checkResponse == null) {
+                parkForRetry(candidate, "server check failed");
+                continue;
+            }
+            if (checkResponse.error != null) {
+                dropRejected(candidate.filePath, "check rejected: " + checkResponse.error);
+                continue;
+            }
+
+            // The breaker opened during an earlier upload: leave the rest until it closes
+            if (client.getCircuitBreaker().isOpen() && retryQueue != null) {
+                retryQueue.defer(candidate.filePath);
+                continue;
+            }
+
+            // Skip if file is already complete on server
+            if (checkResponse.exists && checkResponse.isComplete) {
+                AppLog.info("FileSyncer", "File already uploaded: " + candidate.fileName);
+                stateIndex.markSynced(candidate.filePath, candidate.attrs, candidate.hash.checksum);
+                if (deltaUploader != null) {
+                    deltaUploader.remember(candidate.filePath, candidate.hash.signature);
+                }
+                if (retryQueue != null) {
+                    retryQueue.clear(candidate.filePath);
+                }
+                continue;
+            }
+
+            upload(candidate, checkResponse);
+        }
+    }
+
+    /**
+     * Stat and hash a changed file. Returns null if there is nothing to sync.
+     * The hash is cached on the event, so the file is only read once before uploading.
+     */
+    private Candidate prepare(DirectoryWatcher.FileEvent event) {
+        String filePath = event.filePath;
+
+        try {
+            Path path = Paths.get(filePath);
+            BasicFileAttributes attrs;
+            try {
+                attrs = Files.readAttributes(path, BasicFileAttributes.class);
+            } catch (NoSuchFileException e) {
+                AppLog.debug("FileSyncer", () -> "Skipping missing file: " + filePath);
+                return null;
+            }
+            if (!attrs.isRegularFile()) {
+                AppLog.debug("FileSyncer", () -> "Skipping non-file: " + filePath);
+                return null;
+            }
+
+            // Skip files that have not changed since they were last synced
+            if (stateIndex.isUnchanged(filePath, attrs)) {
+                AppLog.debug("FileSyncer", () -> "Unchanged since last sync: " + filePath);
+                return null;
+            }
+
+            // Hash file (size, mtime and checksum from a single read), on this worker thread;
+            // the block signature for a later delta upload is taken in the same read
+            boolean withSignature = deltaUploader != null && deltaUploader.accepts(attrs.size());
+            FileHasher.Result hash = event.getHash(withSignature);
+            if (!hashMatches(hash, attrs)) {
+                // Changed between the stat and the hash; the newer change has its own event
+                AppLog.debug("FileSyncer", () -> "Changed while syncing, skipping: " + filePath);
+                return null;
+            }
+
+            // Touched but identical content: refresh the index entry only
+            SyncStateIndex.Entry entry = stateIndex.get(filePath);
+            if (entry != null && entry.state == SyncStateIndex.State.SYNCED
+                    && entry.size == hash.size && hash.checksum.equals(entry.checksum)) {
+                AppLog.debug("FileSyncer", () -> "Content unchanged since last sync: " + filePath);
+                stateIndex.markSynced(filePath, attrs, hash.checksum);
+                return null;
+            }
+
+            return new Candidate(filePath, path, attrs, hash);
+
+        } catch (Exception e) {
+            AppLog.error("FileSyncer", "Failed to read file " + filePath + ": " + e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Note a created file as soon as the watcher reports it, before it is queued, so that
+     * held deletions know a moved file may still be on its way
+     */
+    public void noteCreated(DirectoryWatcher.FileEvent event) {
+        if (event.type != DirectoryWatcher.FileEventType.CREATED || event.size < 0 || moveWindow <= 0) {
+            return;
+        }
+        String key = moveKey(event.size, event.lastModified);
+        synchronized (pendingCreations) {
+            String previous = pendingCreations.put(event.filePath, key);
+            if (previous != null) {
+                pendingMoveKeys.computeIfPresent(previous, (k, count) -> count > 1 ? count - 1 : null);
+            }
+            pendingMoveKeys.merge(key, 1, Integer::sum);
+        }
+    }
+
+    private void forgetCreated(String filePath) {
+        synchronized (pendingCreations) {
+            String key = pendingCreations.remove(filePath);
+            if (key != null) {
+                pendingMoveKeys.computeIfPresent(key, (k, count) -> count > 1 ? count - 1 : null);
+            }
+        }
+    }
+
+    private static String moveKey(long size, long lastModified) {
+        return size + "/" + lastModified;
+    }
+
+    /**
+     * Whether a deleted path should be held for another move window: some synced file
+     * at or below it matches a created file that is still queued, and the path has not
+     * been held for maxMoveHold yet
+     */
+    private boolean awaitsMove(String filePath) {
+        if (moveWindow <= 0 || retryQueue == null || pendingMoveKeys.isEmpty()
+                || retryQueue.heldFor(filePath) >= maxMoveHold) {
+            return false;
+        }
+        for (SyncStateIndex.Entry entry : stateIndex.listTree(filePath)) {
+            if (entry.state == SyncStateIndex.State.SYNCED
+                    && pendingMoveKeys.containsKey(moveKey(entry.size, entry.lastModified))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Handle a created file that is a synced file moved from elsewhere, recognised by its
+     * file key, size and modification time: rename it on the server and move its index
+     * entry. Returns false if it is not a move or the rename failed, and the file is then
+     * synced as usual.
+     */
+    private boolean syncMove(String filePath) {
+        if (stateIndex.get(filePath) != null) {
+            return false;
+        }
+
+        Path path = Paths.get(filePath);
+        BasicFileAttributes attrs;
+        try {
+            attrs = Files.readAttributes(path, BasicFileAttributes.class);
+        } catch (IOException e) {
+            return false;
+        }
+        String fileKey = SyncStateIndex.fileKeyOf(attrs);
+        if (fileKey == null || !attrs.isRegularFile()) {
+            return false;
+        }
+
+        SyncStateIndex.Entry moved = stateIndex.findByFileKey(fileKey);
+        if (moved == null || moved.state != SyncStateIndex.State.SYNCED || moved.path.equals(filePath)
+                || !moved.matches(attrs) || Files.exists(Paths.get(moved.path))) {
+            return false;
+        }
+
+        // The server stores files by name, so a move that keeps the name needs no request
+        String oldName = Paths.get(moved.path).getFileName().toString();
+        String newName = path.getFileName().toString();
+        if (!oldName.equals(newName)) {
+            ServerApiClient.FileRenameRequest request = new ServerApiClient.FileRenameRequest();
+            request.username = username;
+            request.deviceId = deviceId;
+            request.fileName = oldName;
+            request.newFileName = newName;
+            request.checksum = moved.checksum;
+            if (!client.renameFile(request)) {
+                return false;
+            }
+        }
+
+        AppLog.info("FileSyncer", "Moved " + moved.path + " to " + filePath);
+        stateIndex.remove(moved.path);
+        stateIndex.markSynced(filePath, attrs, moved.checksum);
+        if (deltaUploader != null) {
+            deltaUploader.move(moved.path, filePath);
+        }
+        if (retryQueue != null) {
+            retryQueue.clear(moved.path);
+            retryQueue.clear(filePath);
+        }
+        return true;
+    }
+
+    /**
+     * Delete the synced files at or below the given paths from the server, then forget
+     * them locally. Paths below another deleted path are covered by it.
+     */
+    private void deleteFiles(List<String> paths) {
+        // Parents sort before their children, so each subtree is expanded once from its top
+        Collections.sort(paths);
+        List<String> roots = new ArrayList<>();
+        Set<String> rootSet = new HashSet<>();
+        for (String path : paths) {
+            if (!isBelowAny(path, rootSet)) {
+                roots.add(path);
+                rootSet.add(path);
+            }
+        }
+
+        List<SyncStateIndex.Entry> entries = new ArrayList<>();
+        Map<String, Integer> deletedRefs = new HashMap<>();
+        for (String root : roots) {
+            for (SyncStateIndex.Entry entry : stateIndex.listTree(root)) {
+                // Recreated since the event; its own events take care of it
+                if (Files.exists(Paths.get(entry.path))) {
+                    continue;
+                }
+                entries.add(entry);
+                if (entry.checksum != null) {
+                    deletedRefs.merge(entry.checksum, 1, Integer::sum);
+                }
+            }
+        }
+
+        // The server stores a device's files by checksum, so content that another
+        // local file still has (a copy, or the target of a move) must stay
+        Set<String> checksums = new HashSet<>();
+        for (Map.Entry<String, Integer> ref : deletedRefs.entrySet()) {
+            if (stateIndex.countChecksum(ref.getKey()) <= ref.getValue()) {
+                checksums.add(ref.getKey());
+            }
+        }
+
+        List<ServerApiClient.FileDeleteRequest> requests = new ArrayList<>();
+        for (SyncStateIndex.Entry entry : entries) {
+            if (entry.checksum != null && checksums.remove(entry.checksum)) {
+                ServerApiClient.FileDeleteRequest request = new ServerApiClient.FileDeleteRequest();
+                request.username = username;
+                request.deviceId = deviceId;
+                request.fileName = Paths.get(entry.path).getFileName().toString();
+                request.checksum = entry.checksum;
+                requests.add(request);
+            }
+        }
+
+        if (!requests.isEmpty()) {
+            AppLog.info("FileSyncer", "Deleting " + requests.size() + " files from server under " + roots.size()
+                    + " deleted paths");
+            if (!client.deleteFiles(username, deviceId, requests)) {
+                for (String root : roots) {
+                    parkForRetry(root, "delete did not complete");
+                }
+                return;
+            }
+        }
+
+        for (SyncStateIndex.Entry entry : entries) {
+            stateIndex.remove(entry.path);
+            if (deltaUploader != null) {
+                deltaUploader.forget(entry.path);
+            }
+        }
+        if (retryQueue != null) {
+            for (String path : paths) {
+                retryQueue.clear(path);
+            }
+        }
+    }
+
+    private static boolean isBelowAny(String path, Set<String> roots) {
+        for (Path parent = Paths.get(path).getParent(); parent != null; parent = parent.getParent()) {
+            if (roots.contains(parent.toString())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Whether a hash was taken of the file version described by the attributes
+     */
+    private static boolean hashMatches(FileHasher.Result hash, BasicFileAttributes attrs) {
+        return hash.size == attrs.size() && hash.lastModified == attrs.lastModifiedTime().toMillis();
+    }
+
+    private void upload(Candidate candidate, ServerApiClient.FileCheckResponse checkResponse) {
+        try {
+            AppLog.info("FileSyncer", "Uploading file: " + candidate.fileName);
+            ServerApiClient.FileUploadRequest uploadRequest = toUploadRequest(candidate);
+            if (!uploadFile(uploadRequest, candidate, checkResponse)) {
+                parkForRetry(candidate, "upload did not complete");
+                return;
+            }
+
+            if (deltaUploader != null) {
+                deltaUploader.remember(candidate.filePath, candidate.hash.signature);
+            }
+            if (retryQueue != null) {
+                retryQueue.clear(candidate.filePath);
+            }
+
+        } catch (ServerApiClient.RejectedException e) {
+            dropRejected(candidate.filePath, e.getMessage());
+        } catch (Exception e) {
+            AppLog.error("FileSyncer", "Failed to upload file " + candidate.filePath + ": " + e.getMessage());
+            parkForRetry(candidate, e.getMessage());
+        }
+    }
+
+    private void parkForRetry(Candidate candidate, String reason) {
+        parkForRetry(candidate.filePath, reason);
+    }
+
+    /**
+     * Park a path for a later retry. The client reports requests failed by an open
+     * circuit breaker like any other failure, so the breaker is checked here: while it
+     * is open the path is deferred, costing no attempt, until the server is back.
+     */
+    private void parkForRetry(String path, String reason) {
+        if (retryQueue == null) {
+            return;
+        }
+        if (client.getCircuitBreaker().isOpen()) {
+            retryQueue.defer(path);
+        } else {
+            retryQueue.park(path, reason);
+        }
+    }
+
+    /**
+     * Give up on a path the server rejected; retrying the same request would only be
+     * rejected again, and the file is synced anew when it next changes
+     */
+    private void dropRejected(String path, String reason) {
+        AppLog.warn("FileSyncer", "Not retrying " + path + ", server rejected it (" + reason + ")");
+        if (retryQueue != null) {
+            retryQueue.clear(path);
+        }
+    }
+
+    private ServerApiClient.FileUploadRequest toUploadRequest(Candidate candidate) {
+        ServerApiClient.FileUploadRequest uploadRequest = new ServerApiClient.FileUploadRequest();
+        uploadRequest.username = username;
+        uploadRequest.deviceId = deviceId;
+        uploadRequest.filePath = candidate.path;
+        uploadRequest.fileName = candidate.fileName;
+        uploadRequest.fileSize = candidate.hash.size;
+        uploadRequest.lastModified = candidate.hash.lastModified;
+        uploadRequest.checksum = candidate.hash.checksum;
+        return uploadRequest;
+    }
+
+    /**
+     * Pick the upload path for a file: a delta against the last synced version, then
+     * deduplicated chunks, then a plain range upload. Returns true once the server holds the file.
+     */
+    private boolean uploadFile(ServerApiClient.FileUploadRequest uploadRequest, Candidate candidate,
+                               ServerApiClient.FileCheckResponse checkResponse) throws IOException {
+        boolean fresh = checkResponse.uploadedSize == 0;
+
+        // Modified large files go up as a delta when the last synced version is known
+        if (deltaUploader != null && deltaUploader.accepts(candidate.hash.size) && fresh
+                && deltaUploader.upload(uploadRequest, candidate.filePath, candidate.attrs)) {
+            return true;
+        }
+
+        // Large files go up as deduplicated chunks, unless a range upload is already under way
+        if (dedupUploader != null && dedupUploader.accepts(candidate.hash.size) && fresh) {
+            if (dedupUploader.upload(uploadRequest, candidate.filePath, candidate.attrs)) {
+                return true;
+            }
+            if (client.isChunkUploadSupported()) {
+                return false;
+            }
+        }
+
+        return uploader.upload(uploadRequest, candidate.filePath, candidate.attrs, checkResponse);
+    }
+}
@@ -4,6 +4,8 @@ import java.io.IOException;
 import java.net.InetAddress;
 import java.net.NetworkInterface;
 import java.net.SocketException;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Enumeration;
 import java.util.List;
 
@@ -27,84 +29,6 @@ public class Main {
         }
     }
 
-    /**
-     * Upload a file if it's not already uploaded or has been modified
-     */
-    private static void uploadFileIfNeeded(String filePath, String username, String deviceId, ServerApiClient client) {
-        try {
-            // Read file
-            java.nio.file.Path path = java.nio.file.Paths.get(filePath);
-            if (!java.nio.file.Files.exists(path) || !java.nio.file.Files.isRegularFile(path)) {
-                AppLog.debug("Main", "Skipping non-file: " + filePath);
-                return;
-            }
-
-            byte[] fileBuffer = java.nio.file.Files.readAllBytes(path);
-
-            // Calculate checksum
-            String checksum = calculateChecksum(fileBuffer);
-
-            // Get file info
-            FileInfo.Info fileInfo = FileInfo.getFileInfo(fileBuffer, filePath);
-
-            // Check if file needs to be uploaded
-            ServerApiClient.FileCheckRequest checkRequest = new ServerApiClient.FileCheckRequest();
-            checkRequest.username = username;
-            checkRequest.deviceId = deviceId;
-            checkRequest.fileName = fileInfo.fileName;
-            checkRequest.fileSize = fileInfo.fileSize;
-            checkRequest.checksum = checksum;
-
-            ServerApiClient.FileCheckResponse checkResponse = client.checkFileStatus(checkRequest);
-
-            // Skip if file is already complete on server
-            if (checkResponse.exists && checkResponse.isComplete) {
-                AppLog.info("Main", "File already uploaded: " + fileInfo.fileName);
-                return;
-            }
-
-            // Upload file
-            AppLog.info("Main", "Uploading file: " + fileInfo.fileName);
-            ServerApiClient.FileUploadRequest uploadRequest = new ServerApiClient.FileUploadRequest();
-            uploadRequest.username = username;
-            uploadRequest.deviceId = deviceId;
-            uploadRequest.file = fileInfo.file;
-            uploadRequest.fileName = fileInfo.fileName;
-            uploadRequest.fileSize = fileInfo.fileSize;
-            uploadRequest.lastModified = fileInfo.lastModified;
-            uploadRequest.checksum = checksum;
-
-            client.uploadFile(uploadRequest);
-
-        } catch (Exception e) {
-            AppLog.error("Main", "Failed to upload file " + filePath + ": " + e.getMessage());
-        }
-    }
-
-    /**
-     * Calculate SHA-256 checksum of file data
-     */
-    private static String calculateChecksum(byte[] data) {
-        try {
-            java.security.MessageDigest digest = java.security.MessageDigest.getInstance("SHA-256");
-            byte[] hash = digest.digest(data);
-
-            // Convert to hex string
-            StringBuilder hexString = new StringBuilder();
-            for (byte b : hash) {
-                String hex = Integer.toHexString(0xff & b);
-                if (hex.length() == 1) {
-                    hexString.append('0');
-                }
-                hexString.append(hex);
-            }
-            return hexString.toString();
-        } catch (java.security.NoSuchAlgorithmException e) {
-            AppLog.error("Main", "SHA-256 algorithm not available: " + e.getMessage());
-            return "";
-        }
-    }
-
     /**
      * Get MAC address of the first non-loopback network interface
      */
@@ -155,19 +79,22 @@ public class Main {
         AppLog.info("Main", "Device ID: " + deviceId);
 
         // Parse command line arguments
-        String watchPath = getWatchPath(args);
+        List<String> watchPaths = getWatchPaths(args);
         String serverUrl = getServerUrl(args);
 
-        AppLog.info("Main", "Watch Path: " + watchPath);
+        AppLog.info("Main", "Watch Paths: " + String.join(", ", watchPaths));
         AppLog.info("Main", "Server URL: " + serverUrl);
 
         // Initialize server client
         ServerApiClient.Config clientConfig = new ServerApiClient.Config(
                 serverUrl,
                 5000,  // timeout
-                1,     // retry attempts
-                100    // retry delay
+                (int) getLongProperty("node.drive.retryAttempts", 3),
+                (int) getLongProperty("node.drive.retryDelayMs", 500)
         );
+        clientConfig.compressUploads = "true".equalsIgnoreCase(System.getProperty("node.drive.compressUploads"));
+        clientConfig.uploadLimiter = getUploadLimiter();
+        clientConfig.breakerThreshold = (int) getLongProperty("node.drive.breakerThreshold", 5);
         ServerApiClient client = new ServerApiClient(clientConfig);
 
         // Test server connectivity
@@ -175,37 +102,116 @@ public class Main {
         if (client.ping()) {
             AppLog.info("Main", "Server is reachable!");
         } else {
-            AppLog.warn("Main", "Server is not reachable. Will continue anyway...");
+            AppLog.warn("Main", "Server is not reachable. Changes will be queued until it is...");
+            client.getCircuitBreaker().trip();
         }
 
-        // Initialize directory watcher
-        DirectoryWatcher watcher = new DirectoryWatcher(watchPath, (event) -> {
-            AppLog.info("Main", "File event detected: " + event);
+        // Local sync state: lets unchanged files be skipped without reading them
+        SyncStateIndex stateIndex = SyncStateIndex.open(getStateDir().resolve("sync-index.jsonl"));
+        stateIndex.startAutoFlush(30000);
 
-            // Handle file creation and modification
-            if (event.type == DirectoryWatcher.FileEventType.CREATED ||
-                event.type == DirectoryWatcher.FileEventType.MODIFIED) {
+        // Event debouncing: collapse bursts of events per file before handling them
+        EventDebouncer.Config debounceConfig = new EventDebouncer.Config(
+                getLongProperty("node.drive.debounceMs", 500),
+                getLongProperty("node.drive.debounceMaxMs", 10000)
+        );
+        debounceConfig.quietPeriodOverrides = getQuietPeriodOverrides();
+
+        // Upload workers: events are queued and handled in batches off the watcher thread
+        ChunkedUploader uploader = new ChunkedUploader(client, stateIndex,
+                getLongProperty("node.drive.uploadChunkMb", 8) * 1024 * 1024);
+        DedupUploader dedupUploader = new DedupUploader(client, stateIndex,
+                getLongProperty("node.drive.dedupMinMb", 8) * 1024 * 1024);
+        DeltaUploader deltaUploader = new DeltaUploader(client, stateIndex, getStateDir().resolve("signatures"),
+                getLongProperty("node.drive.deltaMinMb", 1) * 1024 * 1024);
+        // Files whose upload failed are retried with backoff, also across restarts
+        RetryQueue retryQueue = RetryQueue.open(getStateDir().resolve("retry-queue.jsonl"));
+        FileSyncer syncer = new FileSyncer(username, deviceId, client, stateIndex, uploader, dedupUploader,
+                deltaUploader, retryQueue, getLongProperty("node.drive.moveWindowMs", 2000),
+                getLongProperty("node.drive.moveMaxHoldMs", 60000));
+        // Queued and in-flight work is journaled so it can be resumed after a crash or restart
+        UploadJournal journal = null;
+        try {
+            journal = UploadJournal.open(getStateDir().resolve("upload-journal"));
+        } catch (IOException e) {
+            AppLog.error("Main", "Failed to open upload journal, queued uploads will not survive a restart: "
+                    + e.getMessage());
+        }
+        UploadJournal uploadJournal = journal;
+        UploadQueue uploadQueue = new UploadQueue(
+                (int) getLongProperty("node.drive.uploadWorkers", 4),
+                (int) getLongProperty("node.drive.uploadQueueSize", 1000),
+                ServerApiClient.MAX_BATCH_CHECK,
+                syncer::syncFiles,
+                uploadJournal
+        );
 
-                // Upload file if needed (checks before uploading)
-                uploadFileIfNeeded(event.filePath, username, deviceId, client);
-            }
-        });
+        // One watcher per root, all feeding the shared upload queue
+        List<String> pollPaths = splitPaths(System.getProperty("node.drive.pollPaths"));
+        List<DirectoryWatcher> watchers = new ArrayList<>();
+        for (int i = 0; i < watchPaths.size(); i++) {
+            String watchPath = watchPaths.get(i);
+            DirectoryWatcher.Config watcherConfig = createWatcherConfig(watchPath, pollPaths,
+                    watchPaths.size() > 1 ? "." + (i + 1) : "", debounceConfig, stateIndex);
+
+            watchers.add(new DirectoryWatcher(watchPath, (event) -> {
+                AppLog.info("Main", () -> "File event detected: " + event);
+
+                // Queue the upload or deletion (checks before uploading); blocks while the queue is full
+                syncer.noteCreated(event);
+                try {
+                    uploadQueue.submit(watchPath, event);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }, watcherConfig));
+        }
 
         // Start watching
         try {
-            watcher.start();
+            uploadQueue.start();
+            retryQueue.start(event -> uploadQueue.submit(RetryQueue.GROUP, event));
+            client.getCircuitBreaker().addListener(retryQueue::retryNow);
+
+            List<DirectoryWatcher> started = new ArrayList<>();
+            for (DirectoryWatcher watcher : watchers) {
+                try {
+                    watcher.start();
+                    started.add(watcher);
+                } catch (IOException e) {
+                    AppLog.error("Main", "Failed to start directory watcher: " + e.getMessage());
+                }
+            }
+            if (started.isEmpty()) {
+                throw new IOException("No watch path could be watched");
+            }
 
-            // Get all existing files and upload them
-            List<String> allFiles = watcher.getAllFiles();
-            AppLog.info("Main", "Found " + allFiles.size() + " existing files");
+            // Resume the work that was outstanding when the client last stopped
+            if (uploadJournal != null) {
+                List<UploadJournal.Record> outstanding = uploadJournal.outstanding();
+                if (!outstanding.isEmpty()) {
+                    AppLog.info("Main", "Resuming " + outstanding.size() + " queued uploads");
+                }
+                for (UploadJournal.Record record : outstanding) {
+                    // As when first queued, so a recovered creation can still complete a move
+                    syncer.noteCreated(record.event);
+                    uploadQueue.submit(record.group, record.event);
+                }
+            }
 
-            if (allFiles.size() > 0) {
+            // Scan existing files of all roots at once, queueing each changed one for upload as it is found
+            if (!"false".equalsIgnoreCase(System.getProperty("node.drive.startupScan"))) {
                 AppLog.info("Main", "Checking and uploading existing files...");
-                for (String file : allFiles) {
-                    AppLog.debug("Main", "Processing: " + file);
-                    uploadFileIfNeeded(file, username, deviceId, client);
+                List<Thread> scans = new ArrayList<>();
+                for (DirectoryWatcher watcher : started) {
+                    Thread scan = new Thread(() -> queueExistingFiles(watcher, stateIndex, uploadQueue),
+                            "initial-scan-" + (scans.size() + 1));
+                    scan.start();
+                    scans.add(scan);
+                }
+                for (Thread scan : scans) {
+                    scan.join();
                 }
-                AppLog.info("Main", "Finished processing existing files");
             }
 
             // Keep application running
@@ -214,8 +220,18 @@ public class Main {
             // Add shutdown hook
             Runtime.getRuntime().addShutdownHook(new Thread(() -> {
                 AppLog.info("Main", "Shutting down...");
-                watcher.stop();
+                for (DirectoryWatcher watcher : started) {
+                    watcher.stop();
+                }
+                client.getCircuitBreaker().stop();
+                retryQueue.stop();
+                uploadQueue.stop();
+                if (uploadJournal != null) {
+                    uploadJournal.close();
+                }
+                stateIndex.close();
                 AppLog.info("Main", "Goodbye!");
+                AppLog.shutdown();
             }));
 
             // Keep main thread alive
@@ -229,28 +245,106 @@ public class Main {
 
         } catch (IOException e) {
             AppLog.error("Main", "Failed to start directory watcher: " + e.getMessage());
+            AppLog.shutdown();
             System.exit(1);
+        } catch (InterruptedException e) {
+            AppLog.warn("Main", "Interrupted while queueing existing files");
         }
     }
 
     /**
-     * Get watch path from command line arguments, system property, or use default
+     * Queue the files of a watch root that changed since they were last synced
      */
-    private static String getWatchPath(String[] args) {
+    private static void queueExistingFiles(DirectoryWatcher watcher, SyncStateIndex stateIndex,
+                                           UploadQueue uploadQueue) {
+        String root = watcher.getWatchPath().toString();
+        try {
+            int fileCount = watcher.forEachFile((file, attrs) -> {
+                if (stateIndex.isUnchanged(file.toString(), attrs)) {
+                    return;
+                }
+                AppLog.debug("Main", () -> "Queueing: " + file);
+                uploadQueue.submit(root, new DirectoryWatcher.FileEvent(DirectoryWatcher.FileEventType.MODIFIED,
+                        file.toString(), attrs.size(), attrs.lastModifiedTime().toMillis()));
+            });
+            AppLog.info("Main", "Found and queued " + fileCount + " existing files in " + root);
+        } catch (InterruptedException e) {
+            AppLog.warn("Main", "Interrupted while queueing existing files in " + root);
+        }
+    }
+
+    /**
+     * Get watch paths from command line arguments, system property, or use default.
+     * Several roots are separated by the platform path separator (':' or ';').
+     */
+    private static List<String> getWatchPaths(String[] args) {
         // Priority 1: Command line argument
         if (args.length > 0) {
-            return args[0];
+            return splitPaths(args[0]);
         }
 
         // Priority 2: System property (from gradle.properties)
         String propPath = System.getProperty("node.drive.watchPath");
         if (propPath != null && !propPath.isEmpty()) {
-            return propPath;
+            return splitPaths(propPath);
         }
 
         // Priority 3: Default to user's home directory + node-drive/target
         String userHome = System.getProperty("user.home");
-        return userHome + "/Documents/node-drive/target";
+        return Collections.singletonList(userHome + "/Documents/node-drive/target");
+    }
+
+    /**
+     * Split a list of paths on the platform path separator, dropping duplicates
+     */
+    private static List<String> splitPaths(String value) {
+        List<String> paths = new ArrayList<>();
+        if (value == null) {
+            return paths;
+        }
+
+        for (String path : value.split(java.util.regex.Pattern.quote(java.io.File.pathSeparator))) {
+            String trimmed = path.trim();
+            if (!trimmed.isEmpty() && !paths.contains(trimmed)) {
+                paths.add(trimmed);
+            }
+        }
+        return paths;
+    }
+
+    /**
+     * Watcher settings for one root. If node.drive.pollPaths is set only the roots it
+     * lists are polled, otherwise all roots are polled when a poll interval is set.
+     * Event log files get the given suffix so that several roots do not share one.
+     */
+    private static DirectoryWatcher.Config createWatcherConfig(String watchPath, List<String> pollPaths,
+                                                               String logSuffix,
+                                                               EventDebouncer.Config debounceConfig,
+                                                               SyncStateIndex stateIndex) {
+        DirectoryWatcher.Config watcherConfig = new DirectoryWatcher.Config();
+        watcherConfig.debounce = debounceConfig;
+        watcherConfig.scanThreads = (int) getLongProperty("node.drive.scanThreads", watcherConfig.scanThreads);
+        watcherConfig.stateIndex = stateIndex;
+        watcherConfig.pollInterval = getLongProperty("node.drive.pollIntervalMs", 0);
+        if (!pollPaths.isEmpty()) {
+            boolean poll = pollPaths.contains(watchPath);
+            watcherConfig.pollInterval = poll ? (watcherConfig.pollInterval > 0 ? watcherConfig.pollInterval : 5000) : 0;
+        }
+        watcherConfig.pollRescanInterval = getLongProperty("node.drive.pollRescanMs", watcherConfig.pollRescanInterval);
+
+        // Event source: replay a recorded event log, or record the live events for later replay
+        String replayEvents = System.getProperty("node.drive.replayEvents");
+        String recordEvents = System.getProperty("node.drive.recordEvents");
+        if (replayEvents != null && !replayEvents.isEmpty()) {
+            watcherConfig.backend = new ReplayBackend(java.nio.file.Paths.get(replayEvents + logSuffix), true);
+        } else if (recordEvents != null && !recordEvents.isEmpty()) {
+            watcherConfig.backend = new RecordingBackend(DirectoryWatcher.createBackend(watcherConfig),
+                    java.nio.file.Paths.get(recordEvents + logSuffix));
+        }
+
+        AppLog.info("Main", "Watching " + watchPath + (watcherConfig.pollInterval > 0
+                ? " by polling every " + watcherConfig.pollInterval + " ms" : ""));
+        return watcherConfig;
     }
 
     /**
@@ -277,4 +371,84 @@ public class Main {
         // Priority 4: Default
         return "http://localhost:3000";
     }
+
+    /**
+     * Get the directory for persistent client state, from the node.drive.stateDir
+     * system property or the 'state' folder next to the logs
+     */
+    private static java.nio.file.Path getStateDir() {
+        String propDir = System.getProperty("node.drive.stateDir");
+        if (propDir != null && !propDir.isEmpty()) {
+            return java.nio.file.Paths.get(propDir);
+        }
+        return java.nio.file.Paths.get(System.getProperty("user.dir"), "state");
+    }
+
+    /**
+     * Get a numeric system property, or the default if it is missing or invalid
+     */
+    private static long getLongProperty(String name, long defaultValue) {
+        String value = System.getProperty(name);
+        if (value == null || value.isEmpty()) {
+            return defaultValue;
+        }
+
+        try {
+            return Long.parseLong(value.trim());
+        } catch (NumberFormatException e) {
+            AppLog.warn("Main", "Invalid value for " + name + ": " + value + ", using " + defaultValue);
+            return defaultValue;
+        }
+    }
+
+    /**
+     * Get the shared upload bandwidth limiter from the node.drive.uploadLimitKb and
+     * node.drive.uploadLimitSchedule system properties, or null if uploads are unlimited.
+     * Schedule format: HH:MM-HH:MM=KB[,HH:MM-HH:MM=KB...]
+     */
+    private static BandwidthLimiter getUploadLimiter() {
+        long defaultRate = getLongProperty("node.drive.uploadLimitKb", 0) * 1024;
+        List<BandwidthLimiter.Window> schedule;
+        try {
+            schedule = BandwidthLimiter.parseSchedule(System.getProperty("node.drive.uploadLimitSchedule"));
+        } catch (IllegalArgumentException e) {
+            AppLog.warn("Main", "Ignoring upload limit schedule: " + e.getMessage());
+            schedule = new ArrayList<>();
+        }
+
+        if (defaultRate <= 0 && schedule.isEmpty()) {
+            return null;
+        }
+
+        BandwidthLimiter limiter = new BandwidthLimiter(defaultRate, schedule);
+        AppLog.info("Main", "Upload bandwidth limit: " + limiter);
+        return limiter;
+    }
+
+    /**
+     * Get per-path debounce quiet periods from the node.drive.debouncePaths system property.
+     * Format: path=millis[,path=millis...]
+     */
+    private static java.util.Map<String, Long> getQuietPeriodOverrides() {
+        java.util.Map<String, Long> overrides = new java.util.HashMap<>();
+        String value = System.getProperty("node.drive.debouncePaths");
+        if (value == null || value.isEmpty()) {
+            return overrides;
+        }
+
+        for (String entry : value.split(",")) {
+            int eq = entry.lastIndexOf('=');
+            if (eq <= 0) {
+                AppLog.warn("Main", "Ignoring invalid debounce path entry: " + entry);
+                continue;
+            }
+
+            try {
+                overrides.put(entry.substring(0, eq).trim(), Long.parseLong(entry.substring(eq + 1).trim()));
+            } catch (NumberFormatException e) {
+                AppLog.warn("Main", "Ignoring invalid debounce path entry: " + entry);
+            }
+        }
+        return overrides;
+    }
 }
@@ -0,0 +1,127 @@
+package com.nodedrive.client;
+
+import java.io.IOException;
+import java.nio.file.DirectoryIteratorException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Parallel directory tree scanner.
+ * Walks the tree with one fork-join task per directory and reports directories and
+ * regular files to a visitor as soon as they are found, instead of building a full
+ * listing first. Symbolic links are not followed. Visitor methods are called from
+ * several threads at once and must be thread-safe. All scans share one fork-join
+ * pool, which lives until shutdown().
+ */
+public class ParallelScanner {
+
+    public interface Visitor {
+        /**
+         * Called for each directory before its entries are listed
+         */
+        void preVisitDirectory(Path dir) throws IOException;
+
+        /**
+         * Called for each regular file. Throwing InterruptedException stops the scan.
+         */
+        void visitFile(Path file, BasicFileAttributes attrs) throws InterruptedException;
+    }
+
+    private final ForkJoinPool pool;
+
+    public ParallelScanner(int parallelism) {
+        this.pool = new ForkJoinPool(Math.max(1, parallelism));
+    }
+
+    /**
+     * Scan a directory tree, returning once every directory has been visited.
+     * Unreadable directories are logged and skipped.
+     */
+    public void scan(Path root, Visitor visitor) throws InterruptedException {
+        AtomicBoolean cancelled = new AtomicBoolean(false);
+        pool.invoke(new DirectoryTask(root, visitor, cancelled));
+
+        if (cancelled.get()) {
+            throw new InterruptedException("Scan interrupted: " + root);
+        }
+    }
+
+    /**
+     * Stop the scan threads. Scans already running finish; new scans are rejected.
+     */
+    public void shutdown() {
+        pool.shutdown();
+    }
+
+    private static class DirectoryTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final Path dir;
+        private final Visitor visitor;
+        private final AtomicBoolean cancelled;
+
+        DirectoryTask(Path dir, Visitor visitor, AtomicBoolean cancelled) {
+            this.dir = dir;
+            this.visitor = visitor;
+            this.cancelled = cancelled;
+        }
+
+        @Override
+        protected void compute() {
+            if (cancelled.get()) {
+                return;
+            }
+
+            try {
+                visitor.preVisitDirectory(dir);
+            } catch (IOException e) {
+                AppLog.error("ParallelScanner", "Failed to visit directory " + dir + ": " + e.getMessage());
+            }
+
+            List<DirectoryTask> subtasks = new ArrayList<>();
+            try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir)) {
+                for (Path entry : stream) {
+                    if (cancelled.get()) {
+                        break;
+                    }
+
+                    BasicFileAttributes attrs;
+                    try {
+                        attrs = Files.readAttributes(entry, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+                    } catch (IOException e) {
+                        AppLog.debug("ParallelScanner", () -> "Skipping unreadable entry " + entry + ": " + e.getMessage());
+                        continue;
+                    }
+
+                    if (attrs.isDirectory()) {
+                        // Start on the subdirectory right away while this one is still being listed
+                        DirectoryTask subtask = new DirectoryTask(entry, visitor, cancelled);
+                        subtask.fork();
+                        subtasks.add(subtask);
+                    } else if (attrs.isRegularFile()) {
+                        try {
+                            visitor.visitFile(entry, attrs);
+                        } catch (InterruptedException e) {
+                            cancelled.set(true);
+                            break;
+                        }
+                    }
+                }
+            } catch (IOException | DirectoryIteratorException e) {
+                AppLog.error("ParallelScanner", "Failed to list directory " + dir + ": " + e.getMessage());
+            }
+
+            for (DirectoryTask subtask : subtasks) {
+                subtask.join();
+            }
+        }
+    }
+}
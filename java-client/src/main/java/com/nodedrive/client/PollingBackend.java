@@ -0,0 +1,253 @@
+package com.nodedrive.client;
+
+import java.io.IOException;
+import java.nio.file.DirectoryIteratorException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Watcher backend that detects changes by polling, for file systems where WatchService misses events
+ * (NFS and SMB mounts, some container overlay file systems).
+ * Keeps a snapshot of every directory (its modification time plus the size and
+ * modification time of each file in it). Each poll only stats the directories and
+ * relists those whose modification time changed. Edits made in place do not change
+ * the directory's modification time, so every directory is relisted on a slower full
+ * rescan interval as well.
+ */
+public class PollingBackend implements WatcherBackend {
+
+    private static class FileState {
+        final long size;
+        final long lastModified;
+
+        FileState(BasicFileAttributes attrs) {
+            this.size = attrs.size();
+            this.lastModified = attrs.lastModifiedTime().toMillis();
+        }
+
+        boolean matches(BasicFileAttributes attrs) {
+            return size == attrs.size() && lastModified == attrs.lastModifiedTime().toMillis();
+        }
+    }
+
+    private static class DirSnapshot {
+        volatile long lastModified;
+        final Map<String, FileState> files = new ConcurrentHashMap<>();
+        final Set<String> subdirs = ConcurrentHashMap.newKeySet();
+
+        DirSnapshot(long lastModified) {
+            this.lastModified = lastModified;
+        }
+    }
+
+    private final long pollInterval;
+    private final long rescanInterval;
+    private final ParallelScanner scanner;
+    private Path root;
+    private Listener listener;
+    private final Map<Path, DirSnapshot> snapshots = new ConcurrentHashMap<>();
+    private ScheduledExecutorService poller;
+    private long lastRescan;
+
+    /**
+     * The backend takes over the scanner and shuts it down when stopped
+     */
+    public PollingBackend(long pollInterval, long rescanInterval, ParallelScanner scanner) {
+        this.pollInterval = pollInterval;
+        this.rescanInterval = rescanInterval;
+        this.scanner = scanner;
+    }
+
+    /**
+     * Take the initial snapshot and start polling
+     */
+    @Override
+    public void start(Path root, Listener listener) throws IOException {
+        this.root = root;
+        this.listener = listener;
+        try {
+            snapshotTree(root, false);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while scanning " + root);
+        }
+        lastRescan = System.currentTimeMillis();
+
+        poller = Executors.newSingleThreadScheduledExecutor();
+        poller.scheduleWithFixedDelay(this::poll, pollInterval, pollInterval, TimeUnit.MILLISECONDS);
+        AppLog.info("PollingBackend", "Polling " + root + " every " + pollInterval + " ms ("
+                + snapshots.size() + " directories)");
+    }
+
+    @Override
+    public void stop() {
+        if (poller != null) {
+            poller.shutdownNow();
+            poller = null;
+        }
+        scanner.shutdown();
+        snapshots.clear();
+    }
+
+    private void poll() {
+        try {
+            long start = System.currentTimeMillis();
+            boolean rescan = rescanInterval > 0 && start - lastRescan >= rescanInterval;
+            if (rescan) {
+                lastRescan = start;
+            }
+
+            // The root itself was removed and has come back
+            if (!snapshots.containsKey(root) && Files.isDirectory(root, LinkOption.NOFOLLOW_LINKS)) {
+                snapshotTree(root, true);
+            }
+
+            for (Path dir : new ArrayList<>(snapshots.keySet())) {
+                DirSnapshot snapshot = snapshots.get(dir);
+                if (snapshot == null) {
+                    continue;  // removed with its parent during this poll
+                }
+
+                BasicFileAttributes attrs;
+                try {
+                    attrs = Files.readAttributes(dir, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+                } catch (NoSuchFileException e) {
+                    removeTree(dir);
+                    continue;
+                }
+                if (!attrs.isDirectory()) {
+                    removeTree(dir);
+                    continue;
+                }
+
+                long lastModified = attrs.lastModifiedTime().toMillis();
+                if (rescan || lastModified != snapshot.lastModified) {
+                    snapshot.lastModified = lastModified;
+                    relist(dir, snapshot);
+                }
+            }
+
+            AppLog.debug("PollingBackend", () -> (rescan ? "Rescanned " : "Polled ") + snapshots.size()
+                    + " directories in " + (System.currentTimeMillis() - start) + " ms");
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (Exception e) {
+            AppLog.error("PollingBackend", "Poll of " + root + " failed: " + e.getMessage());
+        }
+    }
+
+    /**
+     * List a directory and report the differences from its snapshot
+     */
+    private void relist(Path dir, DirSnapshot snapshot) throws InterruptedException {
+        Set<String> seenFiles = new HashSet<>();
+        Set<String> seenDirs = new HashSet<>();
+
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir)) {
+            for (Path child : stream) {
+                BasicFileAttributes attrs;
+                try {
+                    attrs = Files.readAttributes(child, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+                } catch (IOException e) {
+                    continue;
+                }
+
+                String name = child.getFileName().toString();
+                if (attrs.isDirectory()) {
+                    seenDirs.add(name);
+                    if (snapshot.subdirs.add(name)) {
+                        snapshotTree(child, true);
+                    }
+                } else if (attrs.isRegularFile()) {
+                    seenFiles.add(name);
+                    FileState previous = snapshot.files.put(name, new FileState(attrs));
+                    if (previous == null) {
+                        listener.onEvent(DirectoryWatcher.FileEventType.CREATED, child);
+                    } else if (!previous.matches(attrs)) {
+                        listener.onEvent(DirectoryWatcher.FileEventType.MODIFIED, child);
+                    }
+                }
+            }
+        } catch (IOException | DirectoryIteratorException e) {
+            AppLog.error("PollingBackend", "Failed to list " + dir + ": " + e.getMessage());
+            return;
+        }
+
+        for (Iterator<String> it = snapshot.files.keySet().iterator(); it.hasNext(); ) {
+            String name = it.next();
+            if (!seenFiles.contains(name)) {
+                it.remove();
+                listener.onEvent(DirectoryWatcher.FileEventType.DELETED, dir.resolve(name));
+            }
+        }
+
+        for (Iterator<String> it = snapshot.subdirs.iterator(); it.hasNext(); ) {
+            String name = it.next();
+            if (!seenDirs.contains(name)) {
+                it.remove();
+                removeTree(dir.resolve(name));
+            }
+        }
+    }
+
+    /**
+     * Snapshot a directory tree, optionally reporting its files as created
+     */
+    private void snapshotTree(Path dir, boolean reportFiles) throws InterruptedException {
+        scanner.scan(dir, new ParallelScanner.Visitor() {
+            @Override
+            public void preVisitDirectory(Path directory) throws IOException {
+                // Taken before listing, so changes made during the scan show up on the next poll
+                long lastModified = Files.getLastModifiedTime(directory, LinkOption.NOFOLLOW_LINKS).toMillis();
+                snapshots.put(directory, new DirSnapshot(lastModified));
+
+                DirSnapshot parent = directory.equals(dir) ? null : snapshots.get(directory.getParent());
+                if (parent != null) {
+                    parent.subdirs.add(directory.getFileName().toString());
+                }
+            }
+
+            @Override
+            public void visitFile(Path file, BasicFileAttributes attrs) {
+                DirSnapshot parent = snapshots.get(file.getParent());
+                if (parent != null) {
+                    parent.files.put(file.getFileName().toString(), new FileState(attrs));
+                }
+                if (reportFiles) {
+                    listener.onEvent(DirectoryWatcher.FileEventType.CREATED, file);
+                }
+            }
+        });
+    }
+
+    /**
+     * Drop the snapshots of a removed directory tree, reporting its files as deleted
+     */
+    private void removeTree(Path dir) {
+        for (Iterator<Map.Entry<Path, DirSnapshot>> it = snapshots.entrySet().iterator(); it.hasNext(); ) {
+            Map.Entry<Path, DirSnapshot> entry = it.next();
+            Path path = entry.getKey();
+            if (!path.startsWith(dir)) {
+                continue;
+            }
+
+            it.remove();
+            for (String name : entry.getValue().files.keySet()) {
+                listener.onEvent(DirectoryWatcher.FileEventType.DELETED, path.resolve(name));
+            }
+        }
+    }
+}
@@ -0,0 +1,70 @@
+package com.nodedrive.client;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Watcher backend that passes events through from another backend and records them
+ * to an event log that ReplayBackend can play back later.
+ * Each line holds the milliseconds since start, the event type and the path relative
+ * to the watched root, separated by tabs.
+ */
+public class RecordingBackend implements WatcherBackend {
+
+    private final WatcherBackend delegate;
+    private final Path logFile;
+    private BufferedWriter writer;
+    private long startTime;
+
+    public RecordingBackend(WatcherBackend delegate, Path logFile) {
+        this.delegate = delegate;
+        this.logFile = logFile;
+    }
+
+    @Override
+    public void start(Path root, Listener listener) throws IOException {
+        writer = Files.newBufferedWriter(logFile, StandardCharsets.UTF_8);
+        startTime = System.currentTimeMillis();
+        AppLog.info("RecordingBackend", "Recording events to " + logFile);
+
+        delegate.start(root, (type, path) -> {
+            record(type, root.relativize(path));
+            listener.onEvent(type, path);
+        });
+    }
+
+    private synchronized void record(DirectoryWatcher.FileEventType type, Path relativePath) {
+        if (writer == null) {
+            return;
+        }
+
+        try {
+            writer.write((System.currentTimeMillis() - startTime) + "\t" + type + "\t" + relativePath);
+            writer.newLine();
+            // Keep the log complete if the client is killed rather than stopped
+            writer.flush();
+        } catch (IOException e) {
+            AppLog.error("RecordingBackend", "Failed to record event: " + e.getMessage());
+        }
+    }
+
+    @Override
+    public void stop() {
+        delegate.stop();
+
+        synchronized (this) {
+            if (writer == null) {
+                return;
+            }
+            try {
+                writer.close();
+            } catch (IOException e) {
+                AppLog.error("RecordingBackend", "Failed to close event log: " + e.getMessage());
+            }
+            writer = null;
+        }
+    }
+}
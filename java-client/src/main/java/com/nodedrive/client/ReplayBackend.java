@@ -0,0 +1,76 @@
+package com.nodedrive.client;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Watcher backend that plays back an event log written by RecordingBackend instead
+ * of watching the file system, for reproducing event sequences in tests.
+ * Recorded paths are resolved against the watched root. With realTime set the
+ * original delays between events are kept, otherwise events are replayed at once.
+ */
+public class ReplayBackend implements WatcherBackend {
+
+    private final Path logFile;
+    private final boolean realTime;
+    private Thread replayThread;
+
+    public ReplayBackend(Path logFile, boolean realTime) {
+        this.logFile = logFile;
+        this.realTime = realTime;
+    }
+
+    @Override
+    public void start(Path root, Listener listener) throws IOException {
+        if (!Files.isRegularFile(logFile)) {
+            throw new IOException("Event log does not exist: " + logFile);
+        }
+
+        replayThread = new Thread(() -> replay(root, listener), "event-replay");
+        replayThread.setDaemon(true);
+        replayThread.start();
+    }
+
+    private void replay(Path root, Listener listener) {
+        AppLog.info("ReplayBackend", "Replaying events from " + logFile);
+        long startTime = System.currentTimeMillis();
+        int count = 0;
+
+        try (BufferedReader reader = Files.newBufferedReader(logFile, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String[] fields = line.split("\t", 3);
+                if (fields.length < 3) {
+                    continue;
+                }
+
+                if (realTime) {
+                    long delay = startTime + Long.parseLong(fields[0]) - System.currentTimeMillis();
+                    if (delay > 0) {
+                        Thread.sleep(delay);
+                    }
+                }
+
+                listener.onEvent(DirectoryWatcher.FileEventType.valueOf(fields[1]), root.resolve(fields[2]));
+                count++;
+            }
+        } catch (InterruptedException e) {
+            return;
+        } catch (IOException | IllegalArgumentException e) {
+            AppLog.error("ReplayBackend", "Failed to replay " + logFile + ": " + e.getMessage());
+        }
+
+        AppLog.info("ReplayBackend", "Replayed " + count + " events");
+    }
+
+    @Override
+    public void stop() {
+        if (replayThread != null) {
+            replayThread.interrupt();
+            replayThread = null;
+        }
+    }
+}
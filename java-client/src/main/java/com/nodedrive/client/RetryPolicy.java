@@ -0,0 +1,150 @@
+package com.nodedrive.client;
+
+import okhttp3.Interceptor;
+import okhttp3.Request;
+import okhttp3.Response;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.SocketTimeoutException;
+import java.nio.file.FileSystemException;
+import java.util.concurrent.ThreadLocalRandom;
+import javax.net.ssl.SSLPeerUnverifiedException;
+
+/**
+ * Retry engine for server requests, installed as an OkHttp interceptor so every call
+ * (checks, uploads, chunk and delta requests) gets the same treatment.
+ * Transient failures (timeouts, dropped connections, 408/429/5xx responses) are
+ * retried with jittered exponential backoff, honouring Retry-After. Everything else
+ * is returned at once. A shared retry budget caps retries to a fraction of the
+ * requests made, so a server that is down is not hit with a multiple of the normal load.
+ * Request bodies are replayed on retry; FileRequestBody reopens the file each time.
+ */
+public class RetryPolicy implements Interceptor {
+
+    private static final long MAX_DELAY = 30000;
+
+    // Retry budget: each request earns BUDGET_RATIO retries, up to BUDGET_MAX banked
+    private static final double BUDGET_RATIO = 0.2;
+    private static final double BUDGET_MIN = 10;
+    private static final double BUDGET_MAX = 100;
+
+    private final int retryAttempts;
+    private final long retryDelay;
+    private double budget = BUDGET_MIN;
+
+    /**
+     * retryAttempts is the number of retries after the first attempt; retryDelay the
+     * base delay in milliseconds, doubled on every further retry
+     */
+    public RetryPolicy(int retryAttempts, long retryDelay) {
+        this.retryAttempts = Math.max(0, retryAttempts);
+        this.retryDelay = Math.max(1, retryDelay);
+    }
+
+    @Override
+    public Response intercept(Chain chain) throws IOException {
+        Request request = chain.request();
+        // A ping reports reachability, retrying it would only hide that
+        if (request.url().encodedPath().endsWith(ServerApiClient.PING_PATH)) {
+            return chain.proceed(request);
+        }
+        deposit();
+
+        for (int attempt = 0; ; attempt++) {
+            Response response;
+            try {
+                response = chain.proceed(request);
+            } catch (IOException e) {
+                if (attempt >= retryAttempts || !isRetryable(e) || chain.call().isCanceled() || !withdraw()) {
+                    throw e;
+                }
+                long delay = backoff(attempt, -1);
+                logRetry(request, attempt, delay, e.getClass().getSimpleName() + ": " + e.getMessage());
+                sleep(delay);
+                continue;
+            }
+
+            if (attempt >= retryAttempts || !isRetryable(response.code()) || !withdraw()) {
+                return response;
+            }
+
+            long delay = backoff(attempt, retryAfter(response));
+            logRetry(request, attempt, delay, "HTTP " + response.code());
+            response.close();
+            sleep(delay);
+        }
+    }
+
+    /**
+     * Whether a failed call may succeed when repeated
+     */
+    static boolean isRetryable(IOException e) {
+        if (e instanceof SocketTimeoutException) {
+            return true;
+        }
+        // Interrupted or cancelled calls, certificate problems and local file errors stay failed
+        return !(e instanceof InterruptedIOException)
+                && !(e instanceof SSLPeerUnverifiedException)
+                && !(e instanceof FileSystemException);
+    }
+
+    /**
+     * Whether a response status is transient: timeout, throttling or a server-side error
+     */
+    static boolean isRetryable(int code) {
+        return code == 408 || code == 429 || code == 500 || code == 502 || code == 503 || code == 504;
+    }
+
+    /**
+     * Delay before the retry following the given attempt: the exponential delay with
+     * equal jitter, or the server's Retry-After if that is longer
+     */
+    long backoff(int attempt, long retryAfter) {
+        long delay = Math.min(MAX_DELAY, retryDelay << Math.min(attempt, 20));
+        long jittered = delay / 2 + ThreadLocalRandom.current().nextLong(delay / 2 + 1);
+        return Math.max(jittered, Math.min(MAX_DELAY, retryAfter));
+    }
+
+    /**
+     * Retry-After in milliseconds, or -1 if absent. Only the delay-seconds form is used.
+     */
+    private static long retryAfter(Response response) {
+        String value = response.header("Retry-After");
+        if (value == null) {
+            return -1;
+        }
+        try {
+            return Long.parseLong(value.trim()) * 1000;
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    private synchronized void deposit() {
+        budget = Math.min(BUDGET_MAX, budget + BUDGET_RATIO);
+    }
+
+    private synchronized boolean withdraw() {
+        if (budget < 1) {
+            AppLog.debug("RetryPolicy", "Retry budget exhausted, not retrying");
+            return false;
+        }
+        budget -= 1;
+        return true;
+    }
+
+    private static void logRetry(Request request, int attempt, long delay, String reason) {
+        AppLog.warn("RetryPolicy", "Request to " + request.url().encodedPath() + " failed (" + reason + "), retry "
+                + (attempt + 1) + " in " + delay + " ms");
+    }
+
+    private static void sleep(long millis) throws InterruptedIOException {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting to retry");
+        }
+    }
+}
@@ -0,0 +1,315 @@
+package com.nodedrive.client;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Durable queue of files whose upload failed, retried with exponential backoff.
+ * Without it a file that failed because of a server hiccup would only be synced again
+ * when it next changes. Parked files are resubmitted to the upload queue once their
+ * delay has passed and dropped when a sync of them succeeds or finds nothing to do.
+ * Files that could not even be tried because the server is unavailable are deferred
+ * until retryNow() releases them all at once, and files can be held for a short delay
+ * without counting as a failure. A file that keeps failing is given up after
+ * MAX_ATTEMPTS attempts; it is synced again when it next changes.
+ * The queue is kept in memory and written to disk as JSON lines shortly after every
+ * change, so parked files survive a restart.
+ */
+public class RetryQueue {
+
+    public static final String GROUP = "retry";
+
+    private static final long BASE_DELAY = 10000;
+    private static final long MAX_DELAY = 10 * 60 * 1000;
+    private static final long CHECK_INTERVAL = 1000;
+    static final int MAX_ATTEMPTS = 10;
+
+    /**
+     * Where retried events are sent
+     */
+    public interface Target {
+        void submit(DirectoryWatcher.FileEvent event) throws InterruptedException;
+    }
+
+    public static class Entry {
+        public String path;
+        public int attempts;
+        public long nextAttempt;  // epoch millis
+        public String reason;
+        public long heldSince;    // epoch millis of the first hold, 0 if never held
+
+        @Override
+        public String toString() {
+            return String.format("Entry{path=%s, attempts=%d, reason=%s}", path, attempts, reason);
+        }
+    }
+
+    private final Path queueFile;
+    private final Gson gson = new Gson();
+    private final ConcurrentHashMap<String, Entry> entries = new ConcurrentHashMap<>();
+    private final AtomicBoolean dirty = new AtomicBoolean(false);
+    private ScheduledExecutorService scheduler;
+
+    private RetryQueue(Path queueFile) {
+        this.queueFile = queueFile;
+    }
+
+    /**
+     * Open the queue stored at the given file, loading parked files if present
+     */
+    public static RetryQueue open(Path queueFile) {
+        RetryQueue queue = new RetryQueue(queueFile);
+        queue.load();
+        return queue;
+    }
+
+    private void load() {
+        if (!Files.exists(queueFile)) {
+            return;
+        }
+
+        try (BufferedReader reader = Files.newBufferedReader(queueFile, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.isEmpty()) {
+                    continue;
+                }
+                try {
+                    Entry entry = gson.fromJson(line, Entry.class);
+                    if (entry != null && entry.path != null) {
+                        entries.put(entry.path, entry);
+                    }
+                } catch (JsonParseException e) {
+                    AppLog.warn("RetryQueue", "Skipping corrupt retry queue line");
+                }
+            }
+        } catch (IOException e) {
+            AppLog.error("RetryQueue", "Failed to load retry queue " + queueFile + ": " + e.getMessage());
+        }
+
+        if (!entries.isEmpty()) {
+            AppLog.info("RetryQueue", "Loaded " + entries.size() + " files to retry from " + queueFile);
+        }
+    }
+
+    /**
+     * Park a file whose upload failed, to be retried after a growing delay,
+     * or drop it once it has failed MAX_ATTEMPTS times
+     */
+    public void park(String path, String reason) {
+        int[] attempts = new int[1];
+        Entry entry = entries.compute(path, (key, existing) -> {
+            Entry updated = existing != null ? existing : new Entry();
+            attempts[0] = updated.attempts + 1;
+            if (attempts[0] >= MAX_ATTEMPTS) {
+                return null;
+            }
+            updated.path = path;
+            updated.attempts = attempts[0];
+            updated.nextAttempt = System.currentTimeMillis() + backoff(updated.attempts);
+            updated.reason = reason;
+            return updated;
+        });
+        dirty.set(true);
+
+        if (entry == null) {
+            AppLog.warn("RetryQueue", "Giving up on " + path + " after " + attempts[0] + " attempts: " + reason);
+            return;
+        }
+        AppLog.info("RetryQueue", "Will retry " + path + " in " + (entry.nextAttempt - System.currentTimeMillis()) / 1000
+                + " s (attempt " + entry.attempts + ": " + reason + ")");
+    }
+
+    /**
+     * Hold a file until retryNow() is called, without counting it as a failed attempt
+     */
+    public void defer(String path) {
+        entries.compute(path, (key, existing) -> {
+            Entry updated = existing != null ? existing : new Entry();
+            updated.path = path;
+            updated.nextAttempt = Long.MAX_VALUE;
+            updated.reason = "server unavailable";
+            return updated;
+        });
+        dirty.set(true);
+    }
+
+    /**
+     * Resubmit a file after the given delay without counting it as a failed attempt,
+     * e.g. to see whether a deleted file reappears elsewhere as part of a move
+     */
+    public void hold(String path, long delayMillis, String reason) {
+        entries.compute(path, (key, existing) -> {
+            Entry updated = existing != null ? existing : new Entry();
+            updated.path = path;
+            long now = System.currentTimeMillis();
+            updated.nextAttempt = now + delayMillis;
+            updated.reason = reason;
+            if (updated.heldSince == 0) {
+                updated.heldSince = now;
+            }
+            return updated;
+        });
+        dirty.set(true);
+    }
+
+    /**
+     * How long a file has been held in total since it was first held, or 0
+     */
+    public long heldFor(String path) {
+        Entry entry = entries.get(path);
+        return entry != null && entry.heldSince > 0 ? System.currentTimeMillis() - entry.heldSince : 0;
+    }
+
+    /**
+     * Make every parked or deferred file due, e.g. once the server is reachable again.
+     * The failures were the server's, so their backoff starts over.
+     */
+    public void retryNow() {
+        for (String path : entries.keySet()) {
+            entries.computeIfPresent(path, (key, entry) -> {
+                entry.attempts = 0;
+                entry.nextAttempt = 0;
+                return entry;
+            });
+        }
+        dirty.set(true);
+
+        if (!entries.isEmpty()) {
+            AppLog.info("RetryQueue", "Retrying " + entries.size() + " queued files");
+        }
+    }
+
+    /**
+     * Forget a file, after it was synced or no longer needs syncing
+     */
+    public void clear(String path) {
+        if (entries.remove(path) != null) {
+            dirty.set(true);
+            AppLog.debug("RetryQueue", () -> "Retry of " + path + " no longer needed");
+        }
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    /**
+     * Delay before the given retry: doubling from BASE_DELAY up to MAX_DELAY, with jitter
+     * so files parked together are not all retried at the same moment
+     */
+    private static long backoff(int attempts) {
+        long delay = Math.min(MAX_DELAY, BASE_DELAY << Math.min(attempts - 1, 20));
+        return delay / 2 + ThreadLocalRandom.current().nextLong(delay / 2 + 1);
+    }
+
+    /**
+     * Start resubmitting parked files to the target as their delay expires
+     */
+    public void start(Target target) {
+        if (scheduler != null) {
+            return;
+        }
+
+        scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "retry-queue");
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler.scheduleWithFixedDelay(() -> {
+            try {
+                resubmitDue(target);
+                flush();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (IOException e) {
+                AppLog.error("RetryQueue", "Failed to save retry queue: " + e.getMessage());
+            } catch (RuntimeException e) {
+                AppLog.error("RetryQueue", "Retry scheduling failed: " + e.getMessage());
+            }
+        }, CHECK_INTERVAL, CHECK_INTERVAL, TimeUnit.MILLISECONDS);
+    }
+
+    private void resubmitDue(Target target) throws InterruptedException {
+        long now = System.currentTimeMillis();
+        for (String path : entries.keySet()) {
+            int[] attempt = new int[1];
+            entries.computeIfPresent(path, (key, entry) -> {
+                if (entry.nextAttempt <= now) {
+                    // Until the outcome is known, do not resubmit it again before another backoff period
+                    attempt[0] = entry.attempts + 1;
+                    entry.nextAttempt = now + backoff(attempt[0]);
+                }
+                return entry;
+            });
+            if (attempt[0] == 0) {
+                continue;
+            }
+            dirty.set(true);
+
+            AppLog.debug("RetryQueue", () -> "Retrying " + path + " (attempt " + attempt[0] + ")");
+            target.submit(new DirectoryWatcher.FileEvent(DirectoryWatcher.FileEventType.MODIFIED, path));
+        }
+    }
+
+    /**
+     * Write the queue to disk if it has changed since the last flush
+     */
+    public synchronized void flush() throws IOException {
+        if (!dirty.getAndSet(false)) {
+            return;
+        }
+
+        try {
+            Files.createDirectories(queueFile.getParent());
+            Path tempFile = queueFile.resolveSibling(queueFile.getFileName() + ".tmp");
+
+            try (BufferedWriter writer = Files.newBufferedWriter(tempFile, StandardCharsets.UTF_8)) {
+                for (Entry entry : entries.values()) {
+                    writer.write(gson.toJson(entry));
+                    writer.newLine();
+                }
+            }
+
+            try {
+                Files.move(tempFile, queueFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(tempFile, queueFile, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } catch (IOException e) {
+            dirty.set(true);
+            throw e;
+        }
+    }
+
+    /**
+     * Stop resubmitting and write any pending changes
+     */
+    public void stop() {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+            scheduler = null;
+        }
+
+        try {
+            flush();
+        } catch (IOException e) {
+            AppLog.error("RetryQueue", "Failed to save retry queue: " + e.getMessage());
+        }
+    }
+}
@@ -4,7 +4,10 @@ import com.google.gson.Gson;
 import okhttp3.*;
 
 import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.concurrent.TimeUnit;
 
@@ -14,15 +17,31 @@ import java.util.concurrent.TimeUnit;
  */
 public class ServerApiClient {
 
+    public static final int MAX_BATCH_CHECK = 200;
+    public static final int MAX_CHUNK_CHECK = 1000;
+    public static final int MAX_BATCH_DELETE = 500;
+    public static final String PING_PATH = "/api/ping";
+
     private final String baseUrl;
+    private final boolean compressUploads;
+    private final BandwidthLimiter uploadLimiter;
+    private final CircuitBreaker circuitBreaker;
     private final OkHttpClient httpClient;
     private final Gson gson;
+    private volatile boolean batchCheckSupported = true;
+    private volatile boolean chunkUploadSupported = true;
+    private volatile boolean deltaUploadSupported = true;
+    private volatile boolean batchDeleteSupported = true;
+    private volatile boolean renameSupported = true;
 
     public static class Config {
         public String baseUrl = "http://localhost:3000";
         public int timeout = 5000;
         public int retryAttempts = 1;
         public int retryDelay = 100;
+        public boolean compressUploads = false;  // gzip file data the server can decode
+        public BandwidthLimiter uploadLimiter;   // shared by all uploads; null for no limit
+        public int breakerThreshold = 5;         // consecutive failures that open the circuit, 0 never
 
         public Config() {
         }
@@ -39,10 +58,12 @@ public class ServerApiClient {
         public String username;
         public String deviceId;
         public byte[] file;
+        public Path filePath;  // when set, the file is streamed from disk instead of sent from 'file'
         public String fileName;
         public long fileSize;
         public long lastModified;
         public String checksum;
+        public String uploadId;  // set when resuming a partial upload
 
         @Override
         public String toString() {
@@ -59,11 +80,27 @@ public class ServerApiClient {
         public String checksum;
     }
 
+    public static class FileDeleteRequest {
+        public String username;
+        public String deviceId;
+        public String fileName;
+        public String checksum;
+    }
+
+    public static class FileRenameRequest {
+        public String username;
+        public String deviceId;
+        public String fileName;
+        public String newFileName;
+        public String checksum;
+    }
+
     public static class FileCheckResponse {
         public boolean exists;
         public long uploadedSize;
         public boolean isComplete;
         public boolean shouldRestart;
+        public String error;  // set when the server rejected the check of this file
 
         @Override
         public String toString() {
@@ -72,8 +109,114 @@ public class ServerApiClient {
         }
     }
 
+    public static class FileUploadResponse {
+        public boolean success;
+        public String uploadId;
+        public long bytesUploaded;
+        public boolean isComplete;
+        public String message;
+        public Long actualSize;  // bytes the server holds, reported on a range mismatch (416)
+        public List<String> missing;  // chunks a commit found missing on the server
+        public transient int statusCode;  // HTTP status of the response, not part of the JSON
+
+        @Override
+        public String toString() {
+            return String.format("FileUploadResponse{success=%s, bytesUploaded=%d, isComplete=%s, message=%s}",
+                    success, bytesUploaded, isComplete, message);
+        }
+    }
+
+    /**
+     * The server refused a request in a way that sending it again will not change,
+     * e.g. a checksum mismatch or an unsupported encoding
+     */
+    public static class RejectedException extends IOException {
+        private static final long serialVersionUID = 1L;
+
+        public RejectedException(String message) {
+            super(message);
+        }
+    }
+
+    private static class BatchCheckRequest {
+        List<FileCheckRequest> files;
+
+        BatchCheckRequest(List<FileCheckRequest> files) {
+            this.files = files;
+        }
+    }
+
+    private static class BatchCheckResponse {
+        List<FileCheckResponse> results;
+    }
+
+    private static class BatchDeleteRequest {
+        String username;
+        String deviceId;
+        List<DeletedFile> files;
+    }
+
+    private static class DeletedFile {
+        String fileName;
+        String checksum;
+
+        DeletedFile(String fileName, String checksum) {
+            this.fileName = fileName;
+            this.checksum = checksum;
+        }
+    }
+
+    private static class ChunkCheckRequest {
+        String username;
+        String deviceId;
+        List<String> hashes;
+
+        ChunkCheckRequest(String username, String deviceId, List<String> hashes) {
+            this.username = username;
+            this.deviceId = deviceId;
+            this.hashes = hashes;
+        }
+    }
+
+    private static class ChunkCheckResponse {
+        List<String> missing;
+    }
+
+    private static class ChunkRef {
+        String hash;
+        long size;
+
+        ChunkRef(String hash, long size) {
+            this.hash = hash;
+            this.size = size;
+        }
+    }
+
+    private static class ChunkCommitRequest {
+        String username;
+        String deviceId;
+        String fileName;
+        long fileSize;
+        long lastModified;
+        String checksum;
+        List<ChunkRef> chunks;
+    }
+
+    /**
+     * Delta instruction as sent to the server: a block copy, or literal data taken from
+     * the uploaded file part in order
+     */
+    private static class DeltaOp {
+        Integer block;
+        Integer count;
+        Long length;
+    }
+
     public ServerApiClient(Config config) {
         this.baseUrl = config.baseUrl;
+        this.compressUploads = config.compressUploads;
+        this.uploadLimiter = config.uploadLimiter;
+        this.circuitBreaker = new CircuitBreaker(config.breakerThreshold, this::ping);
         this.gson = new Gson();
 
         this.httpClient = new OkHttpClient.Builder()
@@ -81,16 +224,29 @@ public class ServerApiClient {
                 .readTimeout(config.timeout, TimeUnit.MILLISECONDS)
                 .writeTimeout(config.timeout, TimeUnit.MILLISECONDS)
                 .retryOnConnectionFailure(true)
+                .addInterceptor(circuitBreaker)
+                .addInterceptor(new RetryPolicy(config.retryAttempts, config.retryDelay))
                 .build();
 
         AppLog.info("ServerApiClient", "Initialized with baseUrl: " + baseUrl);
     }
 
     /**
-     * Check if a file needs to be uploaded
+     * Whether a failure status means the server rejected the request itself, so retrying
+     * it unchanged is pointless. Conflicts (409) and range mismatches (416) are not
+     * rejections; they report state the caller acts on.
+     */
+    public static boolean isRejection(int statusCode) {
+        return statusCode == 400 || statusCode == 413 || statusCode == 415 || statusCode == 422;
+    }
+
+    /**
+     * Check if a file needs to be uploaded.
+     * Returns null if the check failed, so the file is not mistaken for a missing one,
+     * and a response with error set if the server rejected the check.
      */
     public FileCheckResponse checkFileStatus(FileCheckRequest request) {
-        AppLog.debug("ServerApiClient", "Checking file status: " + request.fileName);
+        AppLog.debug("ServerApiClient", () -> "Checking file status: " + request.fileName);
 
         try {
             // Create JSON request body
@@ -111,7 +267,7 @@ public class ServerApiClient {
                 if (response.isSuccessful() && response.body() != null) {
                     String responseBody = response.body().string();
                     FileCheckResponse checkResponse = gson.fromJson(responseBody, FileCheckResponse.class);
-                    AppLog.debug("ServerApiClient", "File check response: " + checkResponse);
+                    AppLog.debug("ServerApiClient", () -> "File check response: " + checkResponse);
                     return checkResponse;
                 } else if (response.code() == 409) {
                     // File already exists and is complete
@@ -121,6 +277,19 @@ public class ServerApiClient {
                         AppLog.info("ServerApiClient", "File already exists on server: " + request.fileName);
                         return checkResponse;
                     }
+                } else if (isRejection(response.code())) {
+                    String responseBody = response.body() != null ? response.body().string() : "";
+                    FileCheckResponse checkResponse = responseBody.isEmpty()
+                            ? null
+                            : gson.fromJson(responseBody, FileCheckResponse.class);
+                    if (checkResponse == null) {
+                        checkResponse = new FileCheckResponse();
+                    }
+                    if (checkResponse.error == null) {
+                        checkResponse.error = response.code() + " - " + response.message();
+                    }
+                    AppLog.error("ServerApiClient", "File check rejected: " + checkResponse.error);
+                    return checkResponse;
                 }
                 AppLog.error("ServerApiClient", "File check failed: " + response.code() + " - " + response.message());
             }
@@ -129,19 +298,98 @@ public class ServerApiClient {
             AppLog.error("ServerApiClient", "File check error: " + e.getMessage());
         }
 
-        // Return default response indicating file doesn't exist
-        FileCheckResponse defaultResponse = new FileCheckResponse();
-        defaultResponse.exists = false;
-        defaultResponse.uploadedSize = 0;
-        defaultResponse.isComplete = false;
-        defaultResponse.shouldRestart = false;
-        return defaultResponse;
+        return null;
+    }
+
+    /**
+     * Check many files in as few round trips as possible.
+     * Returns one response per request, in request order, with null for a file whose
+     * check failed and error set for one the server rejected; returns null if a request
+     * failed. Falls back to per-file
+     * checks if the server has no batch endpoint.
+     */
+    public List<FileCheckResponse> checkFileStatusBatch(List<FileCheckRequest> requests) {
+        List<FileCheckResponse> results = new ArrayList<>(requests.size());
+
+        for (int start = 0; start < requests.size(); start += MAX_BATCH_CHECK) {
+            List<FileCheckRequest> chunk = requests.subList(start, Math.min(start + MAX_BATCH_CHECK, requests.size()));
+
+            if (batchCheckSupported) {
+                List<FileCheckResponse> chunkResults = postBatchCheck(chunk);
+                if (chunkResults != null) {
+                    results.addAll(chunkResults);
+                    continue;
+                }
+                if (batchCheckSupported) {
+                    return null;
+                }
+            }
+
+            for (FileCheckRequest request : chunk) {
+                results.add(checkFileStatus(request));
+            }
+        }
+
+        return results;
+    }
+
+    /**
+     * Send one batch check request.
+     * Returns null if it failed, or if the server does not support batch checks, in
+     * which case batchCheckSupported is cleared.
+     */
+    private List<FileCheckResponse> postBatchCheck(List<FileCheckRequest> requests) {
+        AppLog.debug("ServerApiClient", () -> "Checking file status for batch of " + requests.size() + " files");
+
+        try {
+            RequestBody body = RequestBody.create(
+                    gson.toJson(new BatchCheckRequest(requests)),
+                    MediaType.parse("application/json")
+            );
+
+            Request httpRequest = new Request.Builder()
+                    .url(baseUrl + "/api/upload/check/batch")
+                    .post(body)
+                    .build();
+
+            try (Response response = httpClient.newCall(httpRequest).execute()) {
+                if (response.code() == 404) {
+                    AppLog.info("ServerApiClient", "Server does not support batch checks, checking files one by one");
+                    batchCheckSupported = false;
+                    return null;
+                }
+
+                if (response.isSuccessful() && response.body() != null) {
+                    BatchCheckResponse batchResponse = gson.fromJson(response.body().string(), BatchCheckResponse.class);
+                    if (batchResponse != null && batchResponse.results != null
+                            && batchResponse.results.size() == requests.size()) {
+                        // An entry the server could not check is unknown, not missing; one it
+                        // rejected keeps its error
+                        List<FileCheckResponse> results = new ArrayList<>(batchResponse.results);
+                        for (FileCheckResponse result : results) {
+                            if (result != null && result.error != null) {
+                                AppLog.error("ServerApiClient", "File check rejected: " + result.error);
+                            }
+                        }
+                        return results;
+                    }
+                    AppLog.error("ServerApiClient", "Batch check returned an unexpected number of results");
+                } else {
+                    AppLog.error("ServerApiClient", "Batch check failed: " + response.code() + " - " + response.message());
+                }
+            }
+
+        } catch (IOException e) {
+            AppLog.error("ServerApiClient", "Batch check error: " + e.getMessage());
+        }
+        return null;
     }
 
     /**
-     * Upload a file to the server
+     * Upload a file to the server.
+     * Returns true if the server accepted the upload.
      */
-    public void uploadFile(FileUploadRequest request) {
+    public boolean uploadFile(FileUploadRequest request) {
         AppLog.info("ServerApiClient", "Uploading file: " + request);
 
         try {
@@ -156,7 +404,17 @@ public class ServerApiClient {
                     .addFormDataPart("checksum", request.checksum);
 
             // Add file data
-            if (request.file != null) {
+            if (request.filePath != null) {
+                RequestBody fileBody = new FileRequestBody(
+                        request.filePath,
+                        0,
+                        request.fileSize,
+                        MediaType.parse("application/octet-stream"),
+                        uploadLimiter
+                );
+                fileBody = encode(bodyBuilder, fileBody, request.filePath, 0, request.fileSize);
+                bodyBuilder.addFormDataPart("file", request.fileName, fileBody);
+            } else if (request.file != null) {
                 RequestBody fileBody = RequestBody.create(
                         request.file,
                         MediaType.parse("application/octet-stream")
@@ -177,6 +435,7 @@ public class ServerApiClient {
                 if (response.isSuccessful()) {
                     String responseBody = response.body() != null ? response.body().string() : "";
                     AppLog.info("ServerApiClient", "Upload successful: " + responseBody);
+                    return true;
                 } else {
                     AppLog.error("ServerApiClient", "Upload failed: " + response.code() + " - " + response.message());
                 }
@@ -185,6 +444,488 @@ public class ServerApiClient {
         } catch (IOException e) {
             AppLog.error("ServerApiClient", "Upload error: " + e.getMessage());
         }
+        return false;
+    }
+
+    /**
+     * Upload one byte range of a file, streamed from request.filePath.
+     * Returns the server's response (also for rejected ranges), or null if the
+     * request could not be completed.
+     */
+    public FileUploadResponse uploadChunk(FileUploadRequest request, long startByte, long length) {
+        long endByte = startByte + length - 1;
+        AppLog.debug("ServerApiClient", () -> "Uploading " + request.fileName + " bytes " + startByte + "-" + endByte
+                + "/" + request.fileSize);
+
+        try {
+            MultipartBody.Builder bodyBuilder = new MultipartBody.Builder()
+                    .setType(MultipartBody.FORM)
+                    .addFormDataPart("username", request.username)
+                    .addFormDataPart("deviceId", request.deviceId)
+                    .addFormDataPart("fileName", request.fileName)
+                    .addFormDataPart("fileSize", String.valueOf(request.fileSize))
+                    .addFormDataPart("lastModified", String.valueOf(request.lastModified))
+                    .addFormDataPart("checksum", request.checksum)
+                    .addFormDataPart("startByte", String.valueOf(startByte));
+
+            if (request.uploadId != null) {
+                bodyBuilder.addFormDataPart("uploadId", request.uploadId);
+            }
+
+            RequestBody fileBody = new FileRequestBody(
+                    request.filePath,
+                    startByte,
+                    length,
+                    MediaType.parse("application/octet-stream"),
+                    uploadLimiter
+            );
+            fileBody = encode(bodyBuilder, fileBody, request.filePath, startByte, length);
+            bodyBuilder.addFormDataPart("file", request.fileName, fileBody);
+
+            Request.Builder requestBuilder = new Request.Builder()
+                    .url(baseUrl + "/api/upload")
+                    .post(bodyBuilder.build());
+
+            if (length > 0) {
+                requestBuilder.header("Content-Range", "bytes " + startByte + "-" + endByte + "/" + request.fileSize);
+            }
+
+            try (Response response = httpClient.newCall(requestBuilder.build()).execute()) {
+                String responseBody = response.body() != null ? response.body().string() : "";
+                FileUploadResponse uploadResponse = responseBody.isEmpty()
+                        ? null
+                        : gson.fromJson(responseBody, FileUploadResponse.class);
+
+                if (uploadResponse == null) {
+                    uploadResponse = new FileUploadResponse();
+                    uploadResponse.success = response.isSuccessful();
+                }
+                uploadResponse.statusCode = response.code();
+                if (!response.isSuccessful()) {
+                    uploadResponse.success = false;
+                    AppLog.error("ServerApiClient", "Chunk upload failed: " + response.code() + " - " + response.message()
+                            + (uploadResponse.message != null ? " (" + uploadResponse.message + ")" : ""));
+                }
+                return uploadResponse;
+            }
+
+        } catch (IOException e) {
+            AppLog.error("ServerApiClient", "Chunk upload error: " + e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Compress the file part of an upload when enabled and its data (sampled around the
+     * given range) is likely to shrink, announcing the encoding in a contentEncoding field
+     * ahead of the file part. Returns the body to send.
+     */
+    private RequestBody encode(MultipartBody.Builder bodyBuilder, RequestBody fileBody, Path filePath,
+                               long offset, long length) {
+        if (!compressUploads || !UploadCompression.shouldCompress(filePath, offset, length)) {
+            return fileBody;
+        }
+
+        bodyBuilder.addFormDataPart("contentEncoding", UploadCompression.ENCODING);
+        return UploadCompression.gzip(fileBody);
+    }
+
+    /**
+     * Whether the server is known to accept chunk uploads. Turns false once the
+     * server answers 404 on a chunk endpoint.
+     */
+    public boolean isChunkUploadSupported() {
+        return chunkUploadSupported;
+    }
+
+    /**
+     * Ask the server which of the given chunk hashes it does not have yet.
+     * Returns null if the check failed or the server does not store chunks.
+     */
+    public List<String> checkChunks(String username, String deviceId, List<String> hashes) {
+        List<String> missing = new ArrayList<>();
+
+        for (int start = 0; start < hashes.size(); start += MAX_CHUNK_CHECK) {
+            List<String> batch = hashes.subList(start, Math.min(start + MAX_CHUNK_CHECK, hashes.size()));
+
+            try {
+                RequestBody body = RequestBody.create(
+                        gson.toJson(new ChunkCheckRequest(username, deviceId, batch)),
+                        MediaType.parse("application/json")
+                );
+
+                Request httpRequest = new Request.Builder()
+                        .url(baseUrl + "/api/chunks/check")
+                        .post(body)
+                        .build();
+
+                try (Response response = httpClient.newCall(httpRequest).execute()) {
+                    if (response.code() == 404) {
+                        AppLog.info("ServerApiClient", "Server does not support chunk uploads, uploading whole files");
+                        chunkUploadSupported = false;
+                        return null;
+                    }
+                    if (!response.isSuccessful() || response.body() == null) {
+                        AppLog.error("ServerApiClient", "Chunk check failed: " + response.code() + " - " + response.message());
+                        return null;
+                    }
+
+                    ChunkCheckResponse checkResponse = gson.fromJson(response.body().string(), ChunkCheckResponse.class);
+                    if (checkResponse == null || checkResponse.missing == null) {
+                        AppLog.error("ServerApiClient", "Chunk check returned no result");
+                        return null;
+                    }
+                    missing.addAll(checkResponse.missing);
+                }
+            } catch (IOException e) {
+                AppLog.error("ServerApiClient", "Chunk check error: " + e.getMessage());
+                return null;
+            }
+        }
+
+        return missing;
+    }
+
+    /**
+     * Upload the content of one chunk, streamed from the given range of a file.
+     * Returns true if the server stored it.
+     */
+    public boolean uploadChunkData(String username, String deviceId, ContentChunker.Chunk chunk, Path filePath) {
+        AppLog.debug("ServerApiClient", () -> "Uploading chunk " + chunk.hash + " (" + chunk.length + " bytes)");
+
+        try {
+            RequestBody fileBody = new FileRequestBody(
+                    filePath,
+                    chunk.offset,
+                    chunk.length,
+                    MediaType.parse("application/octet-stream"),
+                    uploadLimiter
+            );
+
+            MultipartBody.Builder bodyBuilder = new MultipartBody.Builder()
+                    .setType(MultipartBody.FORM)
+                    .addFormDataPart("username", username)
+                    .addFormDataPart("deviceId", deviceId)
+                    .addFormDataPart("hash", chunk.hash);
+            fileBody = encode(bodyBuilder, fileBody, filePath, chunk.offset, chunk.length);
+            RequestBody body = bodyBuilder
+                    .addFormDataPart("file", chunk.hash, fileBody)
+                    .build();
+
+            Request httpRequest = new Request.Builder()
+                    .url(baseUrl + "/api/chunks/upload")
+                    .post(body)
+                    .build();
+
+            try (Response response = httpClient.newCall(httpRequest).execute()) {
+                if (response.isSuccessful()) {
+                    return true;
+                }
+                AppLog.error("ServerApiClient", "Chunk data upload failed: " + response.code() + " - " + response.message());
+            }
+
+        } catch (IOException e) {
+            AppLog.error("ServerApiClient", "Chunk data upload error: " + e.getMessage());
+        }
+        return false;
+    }
+
+    /**
+     * Ask the server to assemble a file from stored chunks, in order.
+     * Returns the server's response, or null if the request could not be completed.
+     */
+    public FileUploadResponse commitChunks(FileUploadRequest request, List<ContentChunker.Chunk> chunks) {
+        ChunkCommitRequest commit = new ChunkCommitRequest();
+        commit.username = request.username;
+        commit.deviceId = request.deviceId;
+        commit.fileName = request.fileName;
+        commit.fileSize = request.fileSize;
+        commit.lastModified = request.lastModified;
+        commit.checksum = request.checksum;
+        commit.chunks = new ArrayList<>(chunks.size());
+        for (ContentChunker.Chunk chunk : chunks) {
+            commit.chunks.add(new ChunkRef(chunk.hash, chunk.length));
+        }
+
+        try {
+            RequestBody body = RequestBody.create(
+                    gson.toJson(commit),
+                    MediaType.parse("application/json")
+            );
+
+            Request httpRequest = new Request.Builder()
+                    .url(baseUrl + "/api/chunks/commit")
+                    .post(body)
+                    .build();
+
+            try (Response response = httpClient.newCall(httpRequest).execute()) {
+                String responseBody = response.body() != null ? response.body().string() : "";
+                FileUploadResponse commitResponse = responseBody.isEmpty()
+                        ? null
+                        : gson.fromJson(responseBody, FileUploadResponse.class);
+
+                if (commitResponse == null) {
+                    commitResponse = new FileUploadResponse();
+                }
+                commitResponse.success = commitResponse.success && response.isSuccessful();
+                commitResponse.statusCode = response.code();
+                if (!commitResponse.success) {
+                    AppLog.error("ServerApiClient", "Chunk commit failed: " + response.code() + " - " + response.message()
+                            + (commitResponse.message != null ? " (" + commitResponse.message + ")" : ""));
+                }
+                return commitResponse;
+            }
+
+        } catch (IOException e) {
+            AppLog.error("ServerApiClient", "Chunk commit error: " + e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Whether the server is known to accept delta uploads. Turns false once the server
+     * answers 404 on the delta endpoint.
+     */
+    public boolean isDeltaUploadSupported() {
+        return deltaUploadSupported;
+    }
+
+    /**
+     * Upload a file as a delta against the version with baseChecksum that the server
+     * already holds under the same name. The literal data of the delta is streamed from
+     * request.filePath. Returns the server's response, or null if the request could not
+     * be completed.
+     */
+    public FileUploadResponse uploadDelta(FileUploadRequest request, String baseChecksum, int blockSize,
+                                          DeltaEncoder.Delta delta) {
+        List<DeltaOp> ops = new ArrayList<>(delta.instructions.size());
+        List<DeltaEncoder.Instruction> literals = new ArrayList<>();
+        for (DeltaEncoder.Instruction instruction : delta.instructions) {
+            DeltaOp op = new DeltaOp();
+            if (instruction.isCopy()) {
+                op.block = instruction.block;
+                op.count = instruction.count;
+            } else {
+                op.length = instruction.length;
+                literals.add(instruction);
+            }
+            ops.add(op);
+        }
+
+        long[] offsets = new long[literals.size()];
+        long[] lengths = new long[literals.size()];
+        for (int i = 0; i < literals.size(); i++) {
+            offsets[i] = literals.get(i).offset;
+            lengths[i] = literals.get(i).length;
+        }
+
+        try {
+            RequestBody fileBody = new FileRequestBody(
+                    request.filePath,
+                    offsets,
+                    lengths,
+                    MediaType.parse("application/octet-stream"),
+                    uploadLimiter
+            );
+
+            MultipartBody.Builder bodyBuilder = new MultipartBody.Builder()
+                    .setType(MultipartBody.FORM)
+                    .addFormDataPart("username", request.username)
+                    .addFormDataPart("deviceId", request.deviceId)
+                    .addFormDataPart("fileName", request.fileName)
+                    .addFormDataPart("fileSize", String.valueOf(request.fileSize))
+                    .addFormDataPart("lastModified", String.valueOf(request.lastModified))
+                    .addFormDataPart("checksum", request.checksum)
+                    .addFormDataPart("baseChecksum", baseChecksum)
+                    .addFormDataPart("blockSize", String.valueOf(blockSize))
+                    .addFormDataPart("instructions", gson.toJson(ops));
+            if (offsets.length > 0) {
+                fileBody = encode(bodyBuilder, fileBody, request.filePath, offsets[0], delta.literalBytes);
+            }
+            RequestBody body = bodyBuilder
+                    .addFormDataPart("file", request.fileName, fileBody)
+                    .build();
+
+            Request httpRequest = new Request.Builder()
+                    .url(baseUrl + "/api/upload/delta")
+                    .post(body)
+                    .build();
+
+            try (Response response = httpClient.newCall(httpRequest).execute()) {
+                if (response.code() == 404) {
+                    AppLog.info("ServerApiClient", "Server does not support delta uploads, uploading whole files");
+                    deltaUploadSupported = false;
+                    return null;
+                }
+
+                String responseBody = response.body() != null ? response.body().string() : "";
+                FileUploadResponse uploadResponse = responseBody.isEmpty()
+                        ? null
+                        : gson.fromJson(responseBody, FileUploadResponse.class);
+
+                if (uploadResponse == null) {
+                    uploadResponse = new FileUploadResponse();
+                }
+                uploadResponse.success = uploadResponse.success && response.isSuccessful();
+                if (!uploadResponse.success) {
+                    AppLog.warn("ServerApiClient", "Delta upload rejected: " + response.code() + " - " + response.message()
+                            + (uploadResponse.message != null ? " (" + uploadResponse.message + ")" : ""));
+                }
+                return uploadResponse;
+            }
+
+        } catch (IOException e) {
+            AppLog.error("ServerApiClient", "Delta upload error: " + e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Rename a stored file on the server, e.g. after it was moved locally.
+     * Returns true if the server renamed it; false if it could not, in which case the
+     * file is synced like a new one.
+     */
+    public boolean renameFile(FileRenameRequest request) {
+        if (!renameSupported) {
+            return false;
+        }
+        AppLog.debug("ServerApiClient", () -> "Renaming " + request.fileName + " to " + request.newFileName);
+
+        try {
+            RequestBody body = RequestBody.create(
+                    gson.toJson(request),
+                    MediaType.parse("application/json")
+            );
+
+            Request httpRequest = new Request.Builder()
+                    .url(baseUrl + "/api/rename")
+                    .post(body)
+                    .build();
+
+            try (Response response = httpClient.newCall(httpRequest).execute()) {
+                if (response.code() == 404) {
+                    AppLog.info("ServerApiClient", "Server does not support renames, moved files are synced as new files");
+                    renameSupported = false;
+                    return false;
+                }
+
+                if (response.isSuccessful()) {
+                    return true;
+                }
+                AppLog.warn("ServerApiClient", "Rename failed: " + response.code() + " - " + response.message());
+            }
+
+        } catch (IOException e) {
+            AppLog.error("ServerApiClient", "Rename error: " + e.getMessage());
+        }
+        return false;
+    }
+
+    /**
+     * Delete a file from the server.
+     * Returns true if it was deleted or the server did not have it.
+     */
+    public boolean deleteFile(FileDeleteRequest request) {
+        AppLog.debug("ServerApiClient", () -> "Deleting file: " + request.fileName);
+
+        try {
+            RequestBody body = RequestBody.create(
+                    gson.toJson(request),
+                    MediaType.parse("application/json")
+            );
+
+            Request httpRequest = new Request.Builder()
+                    .url(baseUrl + "/api/delete")
+                    .post(body)
+                    .build();
+
+            try (Response response = httpClient.newCall(httpRequest).execute()) {
+                if (response.isSuccessful()) {
+                    return true;
+                }
+                AppLog.error("ServerApiClient", "Delete failed: " + response.code() + " - " + response.message());
+            }
+
+        } catch (IOException e) {
+            AppLog.error("ServerApiClient", "Delete error: " + e.getMessage());
+        }
+        return false;
+    }
+
+    /**
+     * Delete many files of one device in as few round trips as possible.
+     * Returns true if all were deleted. Falls back to per-file deletes if the server
+     * has no batch endpoint.
+     */
+    public boolean deleteFiles(String username, String deviceId, List<FileDeleteRequest> requests) {
+        boolean deleted = true;
+
+        for (int start = 0; start < requests.size(); start += MAX_BATCH_DELETE) {
+            List<FileDeleteRequest> chunk = requests.subList(start, Math.min(start + MAX_BATCH_DELETE, requests.size()));
+            Boolean chunkDeleted = batchDeleteSupported ? postBatchDelete(username, deviceId, chunk) : null;
+
+            if (chunkDeleted == null) {
+                for (FileDeleteRequest request : chunk) {
+                    deleted &= deleteFile(request);
+                }
+            } else {
+                deleted &= chunkDeleted;
+            }
+        }
+
+        return deleted;
+    }
+
+    /**
+     * Send one batch delete request.
+     * Returns null if the server does not support batch deletes.
+     */
+    private Boolean postBatchDelete(String username, String deviceId, List<FileDeleteRequest> requests) {
+        AppLog.debug("ServerApiClient", () -> "Deleting batch of " + requests.size() + " files");
+
+        BatchDeleteRequest batch = new BatchDeleteRequest();
+        batch.username = username;
+        batch.deviceId = deviceId;
+        batch.files = new ArrayList<>(requests.size());
+        for (FileDeleteRequest request : requests) {
+            batch.files.add(new DeletedFile(request.fileName, request.checksum));
+        }
+
+        try {
+            RequestBody body = RequestBody.create(
+                    gson.toJson(batch),
+                    MediaType.parse("application/json")
+            );
+
+            Request httpRequest = new Request.Builder()
+                    .url(baseUrl + "/api/delete/batch")
+                    .post(body)
+                    .build();
+
+            try (Response response = httpClient.newCall(httpRequest).execute()) {
+                if (response.code() == 404) {
+                    AppLog.info("ServerApiClient", "Server does not support batch deletes, deleting files one by one");
+                    batchDeleteSupported = false;
+                    return null;
+                }
+
+                if (response.isSuccessful()) {
+                    return true;
+                }
+                AppLog.error("ServerApiClient", "Batch delete failed: " + response.code() + " - " + response.message());
+            }
+
+        } catch (IOException e) {
+            AppLog.error("ServerApiClient", "Batch delete error: " + e.getMessage());
+        }
+        return false;
+    }
+
+    /**
+     * Circuit breaker guarding all requests of this client
+     */
+    public CircuitBreaker getCircuitBreaker() {
+        return circuitBreaker;
     }
 
     /**
@@ -193,7 +934,7 @@ public class ServerApiClient {
     public boolean ping() {
         try {
             Request request = new Request.Builder()
-                    .url(baseUrl + "/api/ping")
+                    .url(baseUrl + PING_PATH)
                     .get()
                     .build();
 
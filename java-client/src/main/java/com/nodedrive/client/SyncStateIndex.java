@@ -0,0 +1,418 @@
+package com.nodedrive.client;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Persistent local index of what has been synced, keyed by absolute file path.
+ * A file whose size, modification time and file key still match its synced entry
+ * can be skipped with a single stat instead of being read, hashed and checked
+ * against the server.
+ * The index is kept in memory and written to disk as JSON lines. A flush appends
+ * the entries changed since the previous one, and a tombstone (an entry with only a
+ * path) for each removed one, so a large index is not rewritten for a few changes.
+ * Once superseded lines would outnumber the live entries, or when the file is opened with
+ * superseded lines, it is compacted: rewritten with one line per entry and replaced
+ * atomically.
+ */
+public class SyncStateIndex {
+
+    public enum State {
+        PENDING,
+        UPLOADING,
+        SYNCED
+    }
+
+    /**
+     * Index entry. Entries are never mutated once stored; updates replace them.
+     */
+    public static class Entry {
+        public String path;
+        public long size;
+        public long lastModified;
+        public String fileKey;
+        public String checksum;
+        public State state;
+        public long syncedAt;
+        public String uploadId;      // server upload id of a partial upload
+
+        public Entry() {
+        }
+
+        public Entry(String path, long size, long lastModified, String fileKey, String checksum, State state) {
+            this.path = path;
+            this.size = size;
+            this.lastModified = lastModified;
+            this.fileKey = fileKey;
+            this.checksum = checksum;
+            this.state = state;
+            this.syncedAt = state == State.SYNCED ? System.currentTimeMillis() : 0;
+        }
+
+        /**
+         * Whether the file on disk still looks like the one this entry describes
+         */
+        public boolean matches(BasicFileAttributes attrs) {
+            if (size != attrs.size() || lastModified != attrs.lastModifiedTime().toMillis()) {
+                return false;
+            }
+            String currentKey = fileKeyOf(attrs);
+            return fileKey == null || currentKey == null || fileKey.equals(currentKey);
+        }
+
+        @Override
+        public String toString() {
+            return String.format("IndexEntry{path=%s, size=%d, lastModified=%d, state=%s, checksum=%s}",
+                    path, size, lastModified, state, checksum);
+        }
+    }
+
+    private final Path indexFile;
+    private final Gson gson = new Gson();
+    private final ConcurrentSkipListMap<String, Entry> entries = new ConcurrentSkipListMap<>();
+    private final ConcurrentHashMap<String, String> pathsByFileKey = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, Integer> checksumCounts = new ConcurrentHashMap<>();
+    private final Set<String> dirtyPaths = ConcurrentHashMap.newKeySet();
+    private ScheduledExecutorService flusher;
+    private int fileLines;         // lines in the index file, superseded ones included
+    private boolean compactNeeded; // the file holds superseded or damaged lines
+
+    private SyncStateIndex(Path indexFile) {
+        this.indexFile = indexFile;
+    }
+
+    /**
+     * Open the index stored at the given file, loading existing entries if present.
+     * A missing or unreadable index yields an empty one.
+     */
+    public static SyncStateIndex open(Path indexFile) {
+        SyncStateIndex index = new SyncStateIndex(indexFile);
+        index.load();
+        if (index.compactNeeded) {
+            try {
+                index.flush();
+            } catch (IOException e) {
+                AppLog.error("SyncStateIndex", "Failed to compact sync index: " + e.getMessage());
+            }
+        }
+        return index;
+    }
+
+    private void load() {
+        if (!Files.exists(indexFile)) {
+            AppLog.info("SyncStateIndex", "No sync index found, starting empty: " + indexFile);
+            return;
+        }
+
+        int lines = 0;
+        int skipped = 0;
+        try (BufferedReader reader = Files.newBufferedReader(indexFile, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.isEmpty()) {
+                    continue;
+                }
+                lines++;
+                try {
+                    Entry entry = gson.fromJson(line, Entry.class);
+                    if (entry == null || entry.path == null) {
+                        skipped++;
+                    } else if (entry.state == null) {
+                        remove(entry.path);
+                    } else {
+                        put(entry);
+                    }
+                } catch (JsonParseException e) {
+                    skipped++;
+                }
+            }
+        } catch (IOException e) {
+            AppLog.error("SyncStateIndex", "Failed to load sync index " + indexFile + ": " + e.getMessage());
+        }
+
+        // Loading replays the file; nothing in it needs writing again unless it is compacted
+        dirtyPaths.clear();
+        fileLines = lines;
+        compactNeeded = lines > entries.size();
+
+        AppLog.info("SyncStateIndex", "Loaded " + entries.size() + " entries from " + indexFile
+                + (skipped > 0 ? " (" + skipped + " corrupt lines skipped)" : ""));
+    }
+
+    /**
+     * String form of a file key (e.g. device and inode), or null if the file system has none
+     */
+    public static String fileKeyOf(BasicFileAttributes attrs) {
+        Object key = attrs.fileKey();
+        return key != null ? key.toString() : null;
+    }
+
+    public Entry get(String path) {
+        return entries.get(path);
+    }
+
+    public void put(Entry entry) {
+        Entry previous = entries.put(entry.path, entry);
+        if (previous != null) {
+            uncount(previous.checksum);
+        }
+        count(entry.checksum);
+        if (previous != null && previous.fileKey != null && !previous.fileKey.equals(entry.fileKey)) {
+            pathsByFileKey.remove(previous.fileKey, entry.path);
+        }
+        if (entry.fileKey != null) {
+            pathsByFileKey.put(entry.fileKey, entry.path);
+        }
+        dirtyPaths.add(entry.path);
+    }
+
+    public void remove(String path) {
+        Entry removed = entries.remove(path);
+        if (removed != null) {
+            uncount(removed.checksum);
+            if (removed.fileKey != null) {
+                pathsByFileKey.remove(removed.fileKey, path);
+            }
+            dirtyPaths.add(path);
+        }
+    }
+
+    /**
+     * Entry of the file with the given file key, or null. After a move the entry still
+     * has the old path, which is how moves are recognised without reading the file.
+     */
+    public Entry findByFileKey(String fileKey) {
+        String path = pathsByFileKey.get(fileKey);
+        Entry entry = path != null ? entries.get(path) : null;
+        return entry != null && fileKey.equals(entry.fileKey) ? entry : null;
+    }
+
+    /**
+     * Number of entries with the given checksum
+     */
+    public int countChecksum(String checksum) {
+        return checksumCounts.getOrDefault(checksum, 0);
+    }
+
+    private void count(String checksum) {
+        if (checksum != null) {
+            checksumCounts.merge(checksum, 1, Integer::sum);
+        }
+    }
+
+    private void uncount(String checksum) {
+        if (checksum != null) {
+            checksumCounts.computeIfPresent(checksum, (key, count) -> count > 1 ? count - 1 : null);
+        }
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    /**
+     * Entries for the files directly inside a directory (not in its subdirectories)
+     */
+    public List<Entry> listDirectory(String directory) {
+        String prefix = directory.endsWith(File.separator) ? directory : directory + File.separator;
+        List<Entry> children = new ArrayList<>();
+
+        // Paths sharing the prefix are contiguous in the sorted map
+        for (Entry entry : entries.tailMap(prefix).values()) {
+            if (!entry.path.startsWith(prefix)) {
+                break;
+            }
+            if (entry.path.indexOf(File.separatorChar, prefix.length()) < 0) {
+                children.add(entry);
+            }
+        }
+        return children;
+    }
+
+    /**
+     * Entries for a path and, if it is a directory, everything below it
+     */
+    public List<Entry> listTree(String path) {
+        List<Entry> tree = new ArrayList<>();
+        Entry own = entries.get(path);
+        if (own != null) {
+            tree.add(own);
+        }
+
+        String prefix = path.endsWith(File.separator) ? path : path + File.separator;
+        for (Entry entry : entries.tailMap(prefix).values()) {
+            if (!entry.path.startsWith(prefix)) {
+                break;
+            }
+            tree.add(entry);
+        }
+        return tree;
+    }
+
+    /**
+     * Whether a file was synced and has not changed on disk since
+     */
+    public boolean isUnchanged(String path, BasicFileAttributes attrs) {
+        Entry entry = entries.get(path);
+        return entry != null && entry.state == State.SYNCED && entry.matches(attrs);
+    }
+
+    /**
+     * Record a file as synced with the given checksum
+     */
+    public void markSynced(String path, BasicFileAttributes attrs, String checksum) {
+        put(new Entry(path, attrs.size(), attrs.lastModifiedTime().toMillis(), fileKeyOf(attrs), checksum, State.SYNCED));
+    }
+
+    /**
+     * Record a partial upload so it can be resumed after a restart. The resume offset
+     * comes from the server's upload check; only the upload id is kept here.
+     */
+    public void markUploading(String path, BasicFileAttributes attrs, String checksum, String uploadId) {
+        Entry entry = new Entry(path, attrs.size(), attrs.lastModifiedTime().toMillis(), fileKeyOf(attrs),
+                checksum, State.UPLOADING);
+        entry.uploadId = uploadId;
+        put(entry);
+    }
+
+    /**
+     * Flush the index to disk periodically while it has unsaved changes
+     */
+    public void startAutoFlush(long intervalMillis) {
+        if (flusher != null) {
+            return;
+        }
+
+        flusher = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "sync-index-flush");
+            thread.setDaemon(true);
+            return thread;
+        });
+        flusher.scheduleWithFixedDelay(() -> {
+            try {
+                flush();
+            } catch (IOException e) {
+                AppLog.error("SyncStateIndex", "Failed to flush sync index: " + e.getMessage());
+            }
+        }, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Write the changes since the last flush to disk: appended, or by compacting the
+     * file once superseded lines would outnumber the live entries
+     */
+    public synchronized void flush() throws IOException {
+        if (dirtyPaths.isEmpty() && !compactNeeded) {
+            return;
+        }
+
+        if (compactNeeded || fileLines + dirtyPaths.size() > 2 * entries.size()) {
+            compact();
+        } else {
+            append();
+        }
+    }
+
+    /**
+     * Append the changed entries, and tombstones for the removed ones
+     */
+    private void append() throws IOException {
+        List<String> paths = new ArrayList<>(dirtyPaths);
+        // Taken before the entries are read, so a change made meanwhile stays dirty
+        dirtyPaths.removeAll(paths);
+
+        try {
+            Files.createDirectories(indexFile.getParent());
+            try (BufferedWriter writer = Files.newBufferedWriter(indexFile, StandardCharsets.UTF_8,
+                    StandardOpenOption.CREATE, StandardOpenOption.APPEND)) {
+                for (String path : paths) {
+                    Entry entry = entries.get(path);
+                    writer.write(gson.toJson(entry != null ? entry : tombstone(path)));
+                    writer.newLine();
+                }
+            }
+        } catch (IOException e) {
+            // A partly written line would garble the next append; rewrite the file instead
+            dirtyPaths.addAll(paths);
+            compactNeeded = true;
+            throw e;
+        }
+
+        fileLines += paths.size();
+        AppLog.debug("SyncStateIndex", () -> "Appended " + paths.size() + " changes to " + indexFile);
+    }
+
+    private static Entry tombstone(String path) {
+        Entry entry = new Entry();
+        entry.path = path;
+        return entry;
+    }
+
+    /**
+     * Rewrite the file with one line per live entry, replacing it atomically
+     */
+    private void compact() throws IOException {
+        dirtyPaths.clear();
+
+        try {
+            Files.createDirectories(indexFile.getParent());
+            Path tempFile = indexFile.resolveSibling(indexFile.getFileName() + ".tmp");
+
+            try (BufferedWriter writer = Files.newBufferedWriter(tempFile, StandardCharsets.UTF_8)) {
+                for (Entry entry : entries.values()) {
+                    writer.write(gson.toJson(entry));
+                    writer.newLine();
+                }
+            }
+
+            try {
+                Files.move(tempFile, indexFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(tempFile, indexFile, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } catch (IOException e) {
+            compactNeeded = true;
+            throw e;
+        }
+
+        compactNeeded = false;
+        fileLines = entries.size();
+        AppLog.debug("SyncStateIndex", () -> "Compacted " + entries.size() + " entries to " + indexFile);
+    }
+
+    /**
+     * Stop periodic flushing and write any pending changes
+     */
+    public void close() {
+        if (flusher != null) {
+            flusher.shutdownNow();
+            flusher = null;
+        }
+
+        try {
+            flush();
+        } catch (IOException e) {
+            AppLog.error("SyncStateIndex", "Failed to flush sync index: " + e.getMessage());
+        }
+    }
+}
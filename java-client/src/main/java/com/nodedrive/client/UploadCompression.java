@@ -0,0 +1,157 @@
+package com.nodedrive.client;
+
+import okhttp3.MediaType;
+import okhttp3.RequestBody;
+import okio.BufferedSink;
+import okio.Okio;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Set;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Streaming gzip compression of upload bodies.
+ * Decides per byte range whether compressing is worth it: files with extensions of
+ * already-compressed formats are never compressed, and for the rest a small sample of
+ * the range is checked for byte entropy, since random-looking data does not shrink.
+ */
+public class UploadCompression {
+
+    public static final String ENCODING = "gzip";
+
+    // Ranges smaller than this gain too little to be worth a compressor
+    private static final long MIN_LENGTH = 4 * 1024;
+    private static final int SAMPLE_SIZE = 16 * 1024;
+    // Bits per byte above which a sample is treated as incompressible (8 is random data)
+    private static final double MAX_ENTROPY = 7.2;
+
+    private static final Set<String> COMPRESSED_EXTENSIONS = new HashSet<>(Arrays.asList(
+            "7z", "aac", "apk", "avi", "br", "bz2", "dmg", "docx", "epub", "flac", "gif", "gz", "heic",
+            "iso", "jar", "jpeg", "jpg", "lz4", "m4a", "m4v", "mkv", "mov", "mp3", "mp4", "odt", "ogg",
+            "opus", "pdf", "png", "pptx", "rar", "tgz", "webm", "webp", "woff", "woff2", "xlsx", "xz",
+            "zip", "zst"
+    ));
+
+    private static final ThreadLocal<ByteBuffer> SAMPLE =
+            ThreadLocal.withInitial(() -> ByteBuffer.allocate(SAMPLE_SIZE));
+
+    /**
+     * Whether the given byte range of a file is likely to compress. Errors while
+     * sampling count as no, the range is then sent as is.
+     */
+    public static boolean shouldCompress(Path path, long offset, long length) {
+        if (length < MIN_LENGTH || hasCompressedExtension(path)) {
+            return false;
+        }
+
+        ByteBuffer sample = SAMPLE.get();
+        sample.clear();
+        if (length < sample.capacity()) {
+            sample.limit((int) length);
+        }
+
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            // Sample from the middle of the range, past any header
+            long position = offset + (length - sample.limit()) / 2;
+            while (sample.hasRemaining()) {
+                int read = channel.read(sample, position + sample.position());
+                if (read < 0) {
+                    break;
+                }
+            }
+        } catch (IOException e) {
+            return false;
+        }
+
+        return entropy(sample.array(), sample.position()) <= MAX_ENTROPY;
+    }
+
+    static boolean hasCompressedExtension(Path path) {
+        String name = path.getFileName().toString();
+        int dot = name.lastIndexOf('.');
+        return dot >= 0 && COMPRESSED_EXTENSIONS.contains(name.substring(dot + 1).toLowerCase(Locale.ROOT));
+    }
+
+    /**
+     * Shannon entropy of the byte distribution, in bits per byte
+     */
+    static double entropy(byte[] data, int length) {
+        if (length == 0) {
+            return 0;
+        }
+
+        int[] counts = new int[256];
+        for (int i = 0; i < length; i++) {
+            counts[data[i] & 0xff]++;
+        }
+
+        double entropy = 0;
+        for (int count : counts) {
+            if (count > 0) {
+                double p = (double) count / length;
+                entropy -= p * Math.log(p);
+            }
+        }
+        return entropy / Math.log(2);
+    }
+
+    /**
+     * Wrap a body so it is gzip-compressed while it is written. The compressed length
+     * is not known up front, so the request is sent with chunked transfer encoding.
+     */
+    public static RequestBody gzip(RequestBody body) {
+        return new RequestBody() {
+            @Override
+            public MediaType contentType() {
+                return body.contentType();
+            }
+
+            @Override
+            public long contentLength() {
+                return -1;
+            }
+
+            @Override
+            public void writeTo(BufferedSink sink) throws IOException {
+                // The sink belongs to the enclosing request, so it must stay open
+                OutputStream target = new FilterOutputStream(sink.outputStream()) {
+                    @Override
+                    public void write(byte[] b, int off, int len) throws IOException {
+                        out.write(b, off, len);
+                    }
+
+                    @Override
+                    public void close() throws IOException {
+                        flush();
+                    }
+                };
+
+                try (GZIPOutputStream gzip = new FastGzipOutputStream(target)) {
+                    BufferedSink compressed = Okio.buffer(Okio.sink(gzip));
+                    body.writeTo(compressed);
+                    compressed.emit();
+                }
+            }
+        };
+    }
+
+    /**
+     * gzip at the fastest level: uploads should not be held up by the compressor
+     */
+    private static class FastGzipOutputStream extends GZIPOutputStream {
+        FastGzipOutputStream(OutputStream out) throws IOException {
+            super(out, FileHasher.BUFFER_SIZE);
+            def.setLevel(Deflater.BEST_SPEED);
+        }
+    }
+}
@@ -0,0 +1,333 @@
+package com.nodedrive.client;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only journal of the upload queue's outstanding work, in a memory-mapped file.
+ * Every queued event is appended as a pending record and every handled one as a done
+ * record, so after a crash or restart exactly the work that was still outstanding can
+ * be queued again. Appending is a memory copy into the mapping, cheap enough to do
+ * under the queue lock; the operating system writes the pages back, so records
+ * survive the process being killed.
+ * When the mapping is full the journal is compacted: the outstanding records are
+ * written to a second file with a higher generation, and the two files alternate.
+ * Each record carries a CRC over its generation and content, so a torn final record or
+ * leftovers from an older generation end the log on recovery.
+ * Version 2 records also keep the file's size and modification time, which recovered
+ * creations need to be recognised as moves; version 1 journals are still read.
+ */
+public class UploadJournal {
+
+    private static final int MAGIC = 0x4e444a4c;  // "NDJL"
+    private static final int VERSION = 2;
+    private static final int VERSION_WITHOUT_ATTRIBUTES = 1;
+    private static final int HEADER_SIZE = 16;     // magic, version, generation
+    private static final int RECORD_HEADER_SIZE = 8;  // payload length, crc
+    private static final int INITIAL_CAPACITY = 8 * 1024 * 1024;
+
+    private static final byte OP_PENDING = 1;
+    private static final byte OP_DONE = 2;
+
+    /**
+     * An outstanding queued event and the group it was queued under
+     */
+    public static class Record {
+        public final String group;
+        public final DirectoryWatcher.FileEvent event;
+
+        public Record(String group, DirectoryWatcher.FileEvent event) {
+            this.group = group;
+            this.event = event;
+        }
+    }
+
+    private final Path[] files;
+    private final Map<String, Record> outstanding = new LinkedHashMap<>();
+    private final CRC32 crc = new CRC32();
+
+    private int current;        // index of the active file
+    private long generation;
+    private MappedByteBuffer buffer;
+    private boolean failed = false;
+
+    private UploadJournal(Path basePath) {
+        this.files = new Path[]{
+                basePath.resolveSibling(basePath.getFileName() + ".0"),
+                basePath.resolveSibling(basePath.getFileName() + ".1")
+        };
+    }
+
+    /**
+     * Open the journal stored next to basePath, recovering the outstanding records of
+     * the newest valid generation and compacting them into a fresh one
+     */
+    public static UploadJournal open(Path basePath) throws IOException {
+        UploadJournal journal = new UploadJournal(basePath);
+        Files.createDirectories(basePath.toAbsolutePath().getParent());
+
+        long bestGeneration = -1;
+        int best = -1;
+        for (int i = 0; i < journal.files.length; i++) {
+            long generation = readGeneration(journal.files[i]);
+            if (generation > bestGeneration) {
+                bestGeneration = generation;
+                best = i;
+            }
+        }
+
+        if (best >= 0) {
+            journal.current = best;
+            journal.generation = bestGeneration;
+            journal.recover(journal.files[best]);
+        } else {
+            journal.current = 1;
+            journal.generation = 0;
+        }
+
+        journal.compact(journal.capacityFor(INITIAL_CAPACITY));
+        if (!journal.outstanding.isEmpty()) {
+            AppLog.info("UploadJournal", "Recovered " + journal.outstanding.size() + " outstanding uploads");
+        }
+        return journal;
+    }
+
+    /**
+     * Generation in a journal file's header, or -1 if the file is missing or not a journal
+     */
+    private static long readGeneration(Path file) {
+        if (!Files.isRegularFile(file)) {
+            return -1;
+        }
+
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            while (header.hasRemaining() && channel.read(header) != -1) {
+                // Read the whole header
+            }
+            header.flip();
+            if (header.remaining() < HEADER_SIZE || header.getInt() != MAGIC) {
+                return -1;
+            }
+            int version = header.getInt();
+            if (version != VERSION && version != VERSION_WITHOUT_ATTRIBUTES) {
+                return -1;
+            }
+            return header.getLong();
+        } catch (IOException e) {
+            AppLog.warn("UploadJournal", "Cannot read journal " + file + ": " + e.getMessage());
+            return -1;
+        }
+    }
+
+    /**
+     * Replay the records of a journal file up to the first invalid one
+     */
+    private void recover(Path file) throws IOException {
+        ByteBuffer data;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            data = ByteBuffer.allocate((int) Math.min(channel.size(), Integer.MAX_VALUE));
+            while (data.hasRemaining() && channel.read(data) != -1) {
+                // Read the whole file
+            }
+        }
+        data.flip();
+        boolean withAttributes = data.getInt(4) != VERSION_WITHOUT_ATTRIBUTES;
+        data.position(HEADER_SIZE);
+
+        int records = 0;
+        while (data.remaining() >= RECORD_HEADER_SIZE) {
+            int length = data.getInt();
+            int checksum = data.getInt();
+            if (length <= 0 || length > data.remaining()) {
+                break;
+            }
+
+            byte[] payload = new byte[length];
+            data.get(payload);
+            if (checksum(payload, length) != checksum) {
+                break;
+            }
+
+            apply(ByteBuffer.wrap(payload), withAttributes);
+            records++;
+        }
+
+        int replayed = records;
+        AppLog.debug("UploadJournal", () -> "Replayed " + replayed + " records from " + file);
+    }
+
+    private void apply(ByteBuffer payload, boolean withAttributes) {
+        byte op = payload.get();
+        String path = readString(payload);
+        if (op == OP_DONE) {
+            outstanding.remove(path);
+            return;
+        }
+
+        DirectoryWatcher.FileEventType type = DirectoryWatcher.FileEventType.values()[payload.get()];
+        String group = readString(payload);
+        long size = withAttributes ? payload.getLong() : -1;
+        long lastModified = withAttributes ? payload.getLong() : 0;
+        outstanding.remove(path);
+        outstanding.put(path, new Record(group, new DirectoryWatcher.FileEvent(type, path, size, lastModified)));
+    }
+
+    /**
+     * Outstanding records in the order they were last queued
+     */
+    public synchronized List<Record> outstanding() {
+        return new ArrayList<>(outstanding.values());
+    }
+
+    /**
+     * Record an event as queued under a group
+     */
+    public synchronized void pending(String group, DirectoryWatcher.FileEvent event) {
+        Record record = new Record(group, event);
+        outstanding.remove(event.filePath);
+        outstanding.put(event.filePath, record);
+        append(pendingPayload(record));
+    }
+
+    /**
+     * Record the event for a path as handled
+     */
+    public synchronized void done(String path) {
+        if (outstanding.remove(path) == null) {
+            return;
+        }
+
+        byte[] pathBytes = path.getBytes(StandardCharsets.UTF_8);
+        ByteBuffer payload = ByteBuffer.allocate(1 + 4 + pathBytes.length);
+        payload.put(OP_DONE);
+        payload.putInt(pathBytes.length).put(pathBytes);
+        append(payload.array());
+    }
+
+    private void append(byte[] payload) {
+        if (failed) {
+            return;
+        }
+
+        try {
+            if (buffer.remaining() < RECORD_HEADER_SIZE + payload.length) {
+                // The live records replace the log. The outstanding map already
+                // includes this record, so it is written too.
+                compact(capacityFor(buffer.capacity()));
+                return;
+            }
+
+            buffer.putInt(payload.length);
+            buffer.putInt(checksum(payload, payload.length));
+            buffer.put(payload);
+        } catch (IOException e) {
+            failed = true;
+            AppLog.error("UploadJournal", "Journal disabled after write failure: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Write the outstanding records to the other file under a new generation and
+     * switch to it. The header is written last, so until then the old file stays the
+     * newest valid one.
+     */
+    private void compact(int capacity) throws IOException {
+        int target = 1 - current;
+        long newGeneration = generation + 1;
+
+        MappedByteBuffer mapped;
+        try (FileChannel channel = FileChannel.open(files[target], StandardOpenOption.CREATE,
+                StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            mapped = channel.map(FileChannel.MapMode.READ_WRITE, 0, capacity);
+        }
+
+        generation = newGeneration;
+        mapped.position(HEADER_SIZE);
+        buffer = mapped;
+
+        for (Record record : outstanding.values()) {
+            byte[] payload = pendingPayload(record);
+            buffer.putInt(payload.length);
+            buffer.putInt(checksum(payload, payload.length));
+            buffer.put(payload);
+        }
+        // Whatever follows belongs to an older generation and fails its checksum
+        if (buffer.remaining() >= RECORD_HEADER_SIZE) {
+            buffer.putLong(buffer.position(), 0);
+        }
+        buffer.force();
+
+        buffer.putInt(0, MAGIC);
+        buffer.putInt(4, VERSION);
+        buffer.putLong(8, newGeneration);
+        buffer.force();
+
+        current = target;
+        AppLog.debug("UploadJournal", () -> "Compacted journal to " + outstanding.size() + " records, generation "
+                + newGeneration);
+    }
+
+    private static byte[] pendingPayload(Record record) {
+        byte[] path = record.event.filePath.getBytes(StandardCharsets.UTF_8);
+        byte[] group = record.group.getBytes(StandardCharsets.UTF_8);
+        ByteBuffer payload = ByteBuffer.allocate(1 + 4 + path.length + 1 + 4 + group.length + 8 + 8);
+        payload.put(OP_PENDING);
+        payload.putInt(path.length).put(path);
+        payload.put((byte) record.event.type.ordinal());
+        payload.putInt(group.length).put(group);
+        payload.putLong(record.event.size);
+        payload.putLong(record.event.lastModified);
+        return payload.array();
+    }
+
+    /**
+     * Mapping size for the outstanding records: the given capacity, doubled until they
+     * fill at most half of it
+     */
+    private int capacityFor(int capacity) {
+        long live = HEADER_SIZE;
+        for (Record record : outstanding.values()) {
+            live += RECORD_HEADER_SIZE + 26 + record.event.filePath.length() * 3L + record.group.length() * 3L;
+        }
+        while (live > capacity / 2) {
+            capacity *= 2;
+        }
+        return capacity;
+    }
+
+    private int checksum(byte[] payload, int length) {
+        crc.reset();
+        for (int shift = 0; shift < 64; shift += 8) {
+            crc.update((int) (generation >>> shift));
+        }
+        crc.update(payload, 0, length);
+        return (int) crc.getValue();
+    }
+
+    private static String readString(ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.getInt()];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Write the mapped pages to disk
+     */
+    public synchronized void close() {
+        if (buffer != null && !failed) {
+            buffer.force();
+        }
+    }
+}
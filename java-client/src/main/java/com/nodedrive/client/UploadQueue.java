@@ -0,0 +1,291 @@
+package com.nodedrive.client;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Bounded work queue between the directory watcher and the network.
+ * A pool of worker threads drains it; producers block while it is full.
+ * Events for a path that is already queued replace the queued one, and a path is
+ * never handled by two workers at the same time: an event arriving while its path
+ * is in flight waits until the current run finishes.
+ * Workers take events in batches sized to the backlog, so a deep queue (initial scan,
+ * bursts of changes) is handled with few server round trips while a shallow one is
+ * still spread across all workers.
+ * Events can be submitted under a group (the watch root they came from). Groups are
+ * served round-robin and a group below its share of the capacity is never blocked,
+ * so one busy root cannot starve the others.
+ * With a journal, every accepted event is recorded until its handling finishes, so
+ * work that was queued or in flight when the process stopped can be resumed.
+ */
+public class UploadQueue {
+
+    public interface Handler {
+        void handle(List<DirectoryWatcher.FileEvent> events) throws Exception;
+    }
+
+    private final int workerCount;
+    private final int capacity;
+    private final int maxBatchSize;
+    private final Handler handler;
+    private final UploadJournal journal;  // null if not journaled
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notEmpty = lock.newCondition();
+    private final Condition notFull = lock.newCondition();
+
+    private static class Queued {
+        final String group;
+        DirectoryWatcher.FileEvent event;
+
+        Queued(String group, DirectoryWatcher.FileEvent event) {
+            this.group = group;
+            this.event = event;
+        }
+    }
+
+    private final Map<String, Queued> pending = new HashMap<>();
+    private final Map<String, Integer> pendingByGroup = new HashMap<>();
+    private final Map<String, ArrayDeque<String>> ready = new LinkedHashMap<>();  // group -> ready paths
+    private final ArrayDeque<String> readyGroups = new ArrayDeque<>();  // round-robin order of groups in ready
+    private int readyCount = 0;
+    private final Set<String> inFlight = new HashSet<>();
+
+    private final List<Thread> workers = new ArrayList<>();
+    private volatile boolean running = false;
+
+    public UploadQueue(int workerCount, int capacity, int maxBatchSize, Handler handler) {
+        this(workerCount, capacity, maxBatchSize, handler, null);
+    }
+
+    public UploadQueue(int workerCount, int capacity, int maxBatchSize, Handler handler, UploadJournal journal) {
+        this.workerCount = Math.max(1, workerCount);
+        this.capacity = Math.max(1, capacity);
+        this.maxBatchSize = Math.max(1, maxBatchSize);
+        this.handler = handler;
+        this.journal = journal;
+    }
+
+    /**
+     * Start the worker threads
+     */
+    public void start() {
+        if (running) {
+            return;
+        }
+
+        running = true;
+        for (int i = 0; i < workerCount; i++) {
+            Thread worker = new Thread(this::workerLoop, "upload-worker-" + (i + 1));
+            worker.setDaemon(true);
+            worker.start();
+            workers.add(worker);
+        }
+
+        AppLog.info("UploadQueue", "Started " + workerCount + " upload workers (queue capacity " + capacity + ")");
+    }
+
+    /**
+     * Stop the workers. Queued events that have not started are dropped; with a
+     * journal they stay recorded and are resumed on the next start.
+     */
+    public void stop() {
+        if (!running) {
+            return;
+        }
+
+        lock.lock();
+        try {
+            running = false;
+            notEmpty.signalAll();
+            notFull.signalAll();
+            if (!pending.isEmpty()) {
+                AppLog.warn("UploadQueue", "Dropping " + pending.size() + " queued events");
+            }
+            pending.clear();
+            pendingByGroup.clear();
+            ready.clear();
+            readyGroups.clear();
+            readyCount = 0;
+        } finally {
+            lock.unlock();
+        }
+
+        for (Thread worker : workers) {
+            try {
+                worker.join(TimeUnit.SECONDS.toMillis(5));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+        workers.clear();
+        AppLog.info("UploadQueue", "Stopped upload workers");
+    }
+
+    /**
+     * Queue an event, blocking while the queue is full.
+     * If an event for the same path is already queued it is replaced.
+     */
+    public void submit(DirectoryWatcher.FileEvent event) throws InterruptedException {
+        submit("", event);
+    }
+
+    /**
+     * Queue an event under a group, blocking while the queue is full and the group
+     * already holds its share of it
+     */
+    public void submit(String group, DirectoryWatcher.FileEvent event) throws InterruptedException {
+        String key = event.filePath;
+
+        lock.lockInterruptibly();
+        try {
+            while (running && !pending.containsKey(key) && isFull(group)) {
+                notFull.await();
+            }
+            if (!running) {
+                return;
+            }
+
+            if (journal != null) {
+                journal.pending(group, event);
+            }
+
+            Queued queued = pending.get(key);
+            if (queued != null) {
+                // Already queued, the newer event replaces it
+                queued.event = event;
+                return;
+            }
+
+            pending.put(key, new Queued(group, event));
+            pendingByGroup.merge(group, 1, Integer::sum);
+            if (!inFlight.contains(key)) {
+                makeReady(group, key);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Whether a new event of the group has to wait. Called with the lock held.
+     */
+    private boolean isFull(String group) {
+        if (pending.size() < capacity) {
+            return false;
+        }
+        int groups = pendingByGroup.containsKey(group) ? pendingByGroup.size() : pendingByGroup.size() + 1;
+        return pendingByGroup.getOrDefault(group, 0) >= capacity / groups;
+    }
+
+    /**
+     * Append a path to its group's ready list. Called with the lock held.
+     */
+    private void makeReady(String group, String key) {
+        ArrayDeque<String> keys = ready.get(group);
+        if (keys == null) {
+            keys = new ArrayDeque<>();
+            ready.put(group, keys);
+            readyGroups.addLast(group);
+        }
+        keys.addLast(key);
+        readyCount++;
+        notEmpty.signal();
+    }
+
+    /**
+     * Take the next ready path, one group at a time. Called with the lock held.
+     */
+    private String takeReady() {
+        String group = readyGroups.pollFirst();
+        ArrayDeque<String> keys = ready.get(group);
+        String key = keys.pollFirst();
+        readyCount--;
+
+        if (keys.isEmpty()) {
+            ready.remove(group);
+        } else {
+            readyGroups.addLast(group);
+        }
+        return key;
+    }
+
+    /**
+     * Number of queued events not yet picked up by a worker
+     */
+    public int size() {
+        lock.lock();
+        try {
+            return pending.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void workerLoop() {
+        while (running) {
+            List<String> keys = new ArrayList<>();
+            List<DirectoryWatcher.FileEvent> batch = new ArrayList<>();
+
+            lock.lock();
+            try {
+                while (running && readyCount == 0) {
+                    notEmpty.await();
+                }
+                if (!running) {
+                    return;
+                }
+
+                int batchSize = Math.min(maxBatchSize, Math.max(1, readyCount / workerCount));
+                while (keys.size() < batchSize && readyCount > 0) {
+                    String key = takeReady();
+                    Queued queued = pending.remove(key);
+                    pendingByGroup.computeIfPresent(queued.group, (group, count) -> count > 1 ? count - 1 : null);
+                    keys.add(key);
+                    batch.add(queued.event);
+                    inFlight.add(key);
+                }
+                notFull.signalAll();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } finally {
+                lock.unlock();
+            }
+
+            boolean handled = false;
+            try {
+                handler.handle(batch);
+                handled = true;
+            } catch (Exception e) {
+                AppLog.error("UploadQueue", "Error handling batch of " + batch.size() + " events: " + e.getMessage());
+            }
+
+            lock.lock();
+            try {
+                for (String key : keys) {
+                    inFlight.remove(key);
+                    Queued queued = pending.get(key);
+                    if (queued != null) {
+                        // A newer event arrived while this path was in flight
+                        makeReady(queued.group, key);
+                    } else if (handled && journal != null) {
+                        journal.done(key);
+                    }
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+}
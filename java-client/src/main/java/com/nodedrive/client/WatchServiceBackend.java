@@ -0,0 +1,295 @@
+package com.nodedrive.client;
+
+import java.io.IOException;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Watcher backend using the JDK WatchService, with one registration per directory.
+ * After an event overflow the affected directories are rescanned and compared with the
+ * sync state index so that no changes are lost. Overflows are collected until the
+ * pending keys are drained and each overflowed directory is then rescanned once, as
+ * Linux signals an overflow on every watch key at once. A rescan covers only the
+ * directory itself; its subdirectories have their own keys and overflow on their own.
+ */
+public class WatchServiceBackend implements WatcherBackend {
+
+    private final ParallelScanner scanner;
+    private final SyncStateIndex stateIndex;
+    private Listener listener;
+    private WatchService watchService;
+    private volatile boolean running = false;
+    private ExecutorService executor;
+    private final Map<WatchKey, Path> watchKeys = new ConcurrentHashMap<>();
+    private final Set<Path> registeredDirs = ConcurrentHashMap.newKeySet();
+    private final Set<Path> overflowedDirs = new HashSet<>();  // only used by the watch thread
+
+    /**
+     * The backend takes over the scanner and shuts it down when stopped. stateIndex may
+     * be null, in which case every file in an overflowed directory is reported as created.
+     */
+    public WatchServiceBackend(ParallelScanner scanner, SyncStateIndex stateIndex) {
+        this.scanner = scanner;
+        this.stateIndex = stateIndex;
+    }
+
+    @Override
+    public void start(Path root, Listener listener) throws IOException {
+        this.listener = listener;
+        watchService = root.getFileSystem().newWatchService();
+
+        // Register directory and all subdirectories recursively
+        registerDirectoryRecursively(root, false);
+
+        running = true;
+        executor = Executors.newSingleThreadExecutor();
+
+        // Start watching in background thread
+        executor.submit(() -> {
+            AppLog.info("WatchServiceBackend", "Started watching: " + root + " (recursive)");
+            watchLoop();
+        });
+    }
+
+    /**
+     * Register a directory and all its subdirectories with the watch service.
+     * With reportFiles set, files already inside are reported as created, since they
+     * may have been written before the directory could be watched.
+     */
+    private void registerDirectoryRecursively(Path dir, boolean reportFiles) throws IOException {
+        try {
+            scanner.scan(dir, new ParallelScanner.Visitor() {
+                @Override
+                public void preVisitDirectory(Path directory) throws IOException {
+                    register(directory);
+                }
+
+                @Override
+                public void visitFile(Path file, BasicFileAttributes attrs) {
+                    if (reportFiles) {
+                        listener.onEvent(DirectoryWatcher.FileEventType.CREATED, file);
+                    }
+                }
+            });
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while registering " + dir);
+        }
+    }
+
+    private void register(Path directory) throws IOException {
+        WatchKey key = directory.register(watchService,
+                StandardWatchEventKinds.ENTRY_CREATE,
+                StandardWatchEventKinds.ENTRY_MODIFY,
+                StandardWatchEventKinds.ENTRY_DELETE);
+        watchKeys.put(key, directory);
+        registeredDirs.add(directory);
+        AppLog.debug("WatchServiceBackend", () -> "Registered: " + directory);
+    }
+
+    @Override
+    public void stop() {
+        if (!running) {
+            return;
+        }
+
+        running = false;
+
+        try {
+            if (watchService != null) {
+                watchService.close();
+            }
+        } catch (IOException e) {
+            AppLog.error("WatchServiceBackend", "Error closing watch service: " + e.getMessage());
+        }
+
+        if (executor != null) {
+            executor.shutdown();
+            try {
+                if (!executor.awaitTermination(5, TimeUnit.SECONDS)) {
+                    executor.shutdownNow();
+                }
+            } catch (InterruptedException e) {
+                executor.shutdownNow();
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        scanner.shutdown();
+        watchKeys.clear();
+        registeredDirs.clear();
+        overflowedDirs.clear();
+    }
+
+    /**
+     * Main watch loop
+     */
+    private void watchLoop() {
+        while (running) {
+            WatchKey key;
+            try {
+                // Wait for events (blocks until an event occurs), or drain the queue before a rescan
+                key = overflowedDirs.isEmpty() ? watchService.poll(1, TimeUnit.SECONDS) : watchService.poll();
+                if (key == null) {
+                    if (!overflowedDirs.isEmpty()) {
+                        rescanOverflowed();
+                    }
+                    continue;
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            } catch (ClosedWatchServiceException e) {
+                break;
+            } catch (Exception e) {
+                AppLog.error("WatchServiceBackend", "Error polling watch service: " + e.getMessage());
+                break;
+            }
+
+            // Get the directory for this watch key
+            Path dir = watchKeys.get(key);
+            if (dir == null) {
+                AppLog.warn("WatchServiceBackend", "Watch key not recognized");
+                key.reset();
+                continue;
+            }
+
+            boolean overflowed = false;
+            for (WatchEvent<?> event : key.pollEvents()) {
+                WatchEvent.Kind<?> kind = event.kind();
+
+                // Events were lost: rescan the directory once the pending keys are handled
+                if (kind == StandardWatchEventKinds.OVERFLOW) {
+                    overflowed = true;
+                    continue;
+                }
+
+                @SuppressWarnings("unchecked")
+                WatchEvent<Path> pathEvent = (WatchEvent<Path>) event;
+                Path filename = pathEvent.context();
+                Path fullPath = dir.resolve(filename);
+
+                // If a new directory is created, register it
+                if (kind == StandardWatchEventKinds.ENTRY_CREATE) {
+                    try {
+                        if (Files.isDirectory(fullPath)) {
+                            registerDirectoryRecursively(fullPath, true);
+                            AppLog.info("WatchServiceBackend", "Registered new directory: " + fullPath);
+                        }
+                    } catch (IOException e) {
+                        AppLog.error("WatchServiceBackend", "Failed to register new directory: " + e.getMessage());
+                    }
+                }
+
+                DirectoryWatcher.FileEventType eventType = toEventType(kind);
+                if (eventType != null) {
+                    listener.onEvent(eventType, fullPath);
+                }
+            }
+
+            if (overflowed) {
+                overflowedDirs.add(dir);
+            }
+
+            // Reset the key
+            boolean valid = key.reset();
+            if (!valid) {
+                watchKeys.remove(key);
+                registeredDirs.remove(dir);
+                AppLog.warn("WatchServiceBackend", "Watch key no longer valid, removed from tracking");
+            }
+        }
+    }
+
+    /**
+     * Rescan each directory that overflowed once, however many overflows it reported
+     */
+    private void rescanOverflowed() {
+        List<Path> dirs = new ArrayList<>(overflowedDirs);
+        overflowedDirs.clear();
+        for (Path dir : dirs) {
+            rescanDirectory(dir);
+        }
+    }
+
+    /**
+     * Recover from an event overflow in one directory. Its files are compared with the
+     * sync state index and the differences reported as events: unknown files as
+     * created, changed or unsynced files as modified, and indexed files that are gone
+     * as deleted. Subdirectories that were never registered are registered and their
+     * files reported as created. Without a state index every file is reported as created.
+     */
+    private void rescanDirectory(Path dir) {
+        AppLog.warn("WatchServiceBackend", "Event overflow in " + dir + ", rescanning directory");
+
+        Map<String, SyncStateIndex.Entry> known = new HashMap<>();
+        if (stateIndex != null) {
+            for (SyncStateIndex.Entry entry : stateIndex.listDirectory(dir.toString())) {
+                known.put(entry.path, entry);
+            }
+        }
+
+        int changes = 0;
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir)) {
+            for (Path child : stream) {
+                BasicFileAttributes attrs;
+                try {
+                    attrs = Files.readAttributes(child, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+                } catch (IOException e) {
+                    continue;
+                }
+
+                if (attrs.isDirectory()) {
+                    if (!registeredDirs.contains(child)) {
+                        try {
+                            registerDirectoryRecursively(child, true);
+                            AppLog.info("WatchServiceBackend", "Registered new directory: " + child);
+                        } catch (IOException e) {
+                            AppLog.error("WatchServiceBackend", "Failed to register new directory: " + e.getMessage());
+                        }
+                    }
+                    continue;
+                }
+
+                if (!attrs.isRegularFile()) {
+                    continue;
+                }
+
+                SyncStateIndex.Entry entry = known.remove(child.toString());
+                if (entry == null) {
+                    listener.onEvent(DirectoryWatcher.FileEventType.CREATED, child);
+                    changes++;
+                } else if (entry.state != SyncStateIndex.State.SYNCED || !entry.matches(attrs)) {
+                    listener.onEvent(DirectoryWatcher.FileEventType.MODIFIED, child);
+                    changes++;
+                }
+            }
+        } catch (IOException | DirectoryIteratorException e) {
+            AppLog.error("WatchServiceBackend", "Failed to rescan " + dir + ": " + e.getMessage());
+            return;
+        }
+
+        for (String path : known.keySet()) {
+            listener.onEvent(DirectoryWatcher.FileEventType.DELETED, Paths.get(path));
+            changes++;
+        }
+
+        AppLog.info("WatchServiceBackend", "Rescanned " + dir + " after overflow: " + changes + " changes");
+    }
+
+    /**
+     * Map a watch event kind to a file event type
+     */
+    private static DirectoryWatcher.FileEventType toEventType(WatchEvent.Kind<?> kind) {
+        if (kind == StandardWatchEventKinds.ENTRY_CREATE) {
+            return DirectoryWatcher.FileEventType.CREATED;
+        } else if (kind == StandardWatchEventKinds.ENTRY_MODIFY) {
+            return DirectoryWatcher.FileEventType.MODIFIED;
+        } else if (kind == StandardWatchEventKinds.ENTRY_DELETE) {
+            return DirectoryWatcher.FileEventType.DELETED;
+        }
+        return null;
+    }
+}
@@ -0,0 +1,29 @@
+package com.nodedrive.client;
+
+import java.io.IOException;
+import java.nio.file.Path;
+
+/**
+ * Source of raw file system events for a DirectoryWatcher.
+ * A backend only reports which paths were created, modified or deleted under its root;
+ * debouncing, hashing and uploading happen above it and are the same for every backend.
+ */
+public interface WatcherBackend {
+
+    interface Listener {
+        /**
+         * Called for each change. May be called from several threads at once.
+         */
+        void onEvent(DirectoryWatcher.FileEventType type, Path path);
+    }
+
+    /**
+     * Start reporting changes under root. Files already present are not reported.
+     */
+    void start(Path root, Listener listener) throws IOException;
+
+    /**
+     * Stop reporting changes and release resources
+     */
+    void stop();
+}
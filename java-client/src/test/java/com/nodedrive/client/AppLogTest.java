@@ -0,0 +1,51 @@
+package com.nodedrive.client;
+
+import org.junit.Test;
+
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+public class AppLogTest {
+
+    // The formats AppLog used before caching timestamps, in the default time zone
+    private final SimpleDateFormat timestampFormat = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSS'Z'");
+    private final SimpleDateFormat fileNameFormat = new SimpleDateFormat("yyyy-MM-dd-HH");
+
+    private void assertFormattedLikeSimpleDateFormat(long timestamp) {
+        Date date = new Date(timestamp);
+        assertEquals("timestamp " + timestamp, timestampFormat.format(date) + " | I | [CLIENT] Test | message",
+                AppLog.formatLogMessage(timestamp, "I", "Test", "message"));
+        assertEquals("timestamp " + timestamp, fileNameFormat.format(date) + ".log", AppLog.getLogFileName(timestamp));
+    }
+
+    @Test
+    public void randomTimestampsMatchSimpleDateFormat() {
+        Random random = new Random(42);
+        long from = 946684800000L;  // 2000-01-01
+        long span = 40L * 365 * 24 * 3600 * 1000;
+        for (int i = 0; i < 1000000; i++) {
+            assertFormattedLikeSimpleDateFormat(from + (long) (random.nextDouble() * span));
+        }
+    }
+
+    @Test
+    public void consecutiveTimestampsMatchSimpleDateFormat() {
+        // Steps just under a second walk through every second, minute and hour change over
+        // 28 March - 9 April 2024, which holds the European and the half-hour Lord Howe shifts
+        long timestamp = 1711584000000L;  // 2024-03-28
+        for (int i = 0; i < 1000000; i++) {
+            assertFormattedLikeSimpleDateFormat(timestamp);
+            timestamp += 997;
+        }
+    }
+
+    @Test
+    public void nullMessageIsWrittenAsNull() {
+        long timestamp = 1700000000123L;
+        assertEquals(timestampFormat.format(new Date(timestamp)) + " | E | [CLIENT] Test | null",
+                AppLog.formatLogMessage(timestamp, "E", "Test", null));
+    }
+}
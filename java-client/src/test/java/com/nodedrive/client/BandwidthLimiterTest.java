@@ -0,0 +1,117 @@
+package com.nodedrive.client;
+
+import org.junit.Test;
+
+import java.io.InterruptedIOException;
+import java.time.LocalTime;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class BandwidthLimiterTest {
+
+    private static LocalTime time(String value) {
+        return LocalTime.parse(value);
+    }
+
+    @Test
+    public void parsesScheduleInKilobytes() {
+        List<BandwidthLimiter.Window> windows = BandwidthLimiter.parseSchedule(" 09:00-17:00=512, 22:00-06:00=0 ");
+
+        assertEquals(2, windows.size());
+        assertEquals(time("09:00"), windows.get(0).start);
+        assertEquals(time("17:00"), windows.get(0).end);
+        assertEquals(512 * 1024, windows.get(0).bytesPerSecond);
+        assertEquals(0, windows.get(1).bytesPerSecond);
+
+        assertTrue(BandwidthLimiter.parseSchedule(null).isEmpty());
+        assertTrue(BandwidthLimiter.parseSchedule("  ").isEmpty());
+    }
+
+    @Test
+    public void rejectsInvalidScheduleEntries() {
+        for (String value : Arrays.asList("09:00-17:00", "09:00=512", "=512-09:00", "9-17=512", "09:00-17:00=fast")) {
+            try {
+                BandwidthLimiter.parseSchedule(value);
+                fail("accepted " + value);
+            } catch (IllegalArgumentException expected) {
+                // expected
+            }
+        }
+    }
+
+    @Test
+    public void windowsMayWrapPastMidnight() {
+        BandwidthLimiter.Window day = new BandwidthLimiter.Window(time("09:00"), time("17:00"), 1);
+        assertTrue(day.contains(time("09:00")));
+        assertTrue(day.contains(time("16:59")));
+        assertFalse(day.contains(time("17:00")));
+        assertFalse(day.contains(time("08:59")));
+
+        BandwidthLimiter.Window night = new BandwidthLimiter.Window(time("22:00"), time("06:00"), 1);
+        assertTrue(night.contains(time("23:30")));
+        assertTrue(night.contains(time("00:00")));
+        assertTrue(night.contains(time("05:59")));
+        assertFalse(night.contains(time("06:00")));
+        assertFalse(night.contains(time("12:00")));
+    }
+
+    @Test
+    public void firstMatchingWindowSetsTheRate() {
+        BandwidthLimiter limiter = new BandwidthLimiter(1000,
+                BandwidthLimiter.parseSchedule("09:00-17:00=2,12:00-13:00=0,22:00-06:00=0"));
+
+        assertEquals(2048, limiter.rateAt(time("12:30")));
+        assertEquals(0, limiter.rateAt(time("02:00")));
+        assertEquals(1000, limiter.rateAt(time("19:00")));
+    }
+
+    @Test
+    public void unlimitedRateNeverWaits() throws InterruptedIOException {
+        BandwidthLimiter limiter = new BandwidthLimiter(0, Collections.<BandwidthLimiter.Window>emptyList());
+
+        long start = System.nanoTime();
+        for (int i = 0; i < 1000; i++) {
+            limiter.acquire(1024 * 1024);
+        }
+        assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(1));
+    }
+
+    @Test
+    public void waitsOffTheShortfall() throws InterruptedIOException {
+        BandwidthLimiter limiter = new BandwidthLimiter(100 * 1024, Collections.<BandwidthLimiter.Window>emptyList());
+
+        // The bucket starts with one second of data
+        long start = System.nanoTime();
+        limiter.acquire(100 * 1024);
+        assertTrue(System.nanoTime() - start < TimeUnit.MILLISECONDS.toNanos(200));
+
+        // Half a second more must be waited for
+        start = System.nanoTime();
+        limiter.acquire(50 * 1024);
+        long waited = System.nanoTime() - start;
+        assertTrue(waited >= TimeUnit.MILLISECONDS.toNanos(400));
+        assertTrue(waited < TimeUnit.MILLISECONDS.toNanos(1500));
+    }
+
+    @Test
+    public void interruptWhileThrottledFails() {
+        BandwidthLimiter limiter = new BandwidthLimiter(1024, Collections.<BandwidthLimiter.Window>emptyList());
+
+        Thread.currentThread().interrupt();
+        try {
+            limiter.acquire(10 * 1024);
+            fail("acquire did not notice the interrupt");
+        } catch (InterruptedIOException expected) {
+            assertTrue(Thread.currentThread().isInterrupted());
+        } finally {
+            Thread.interrupted();
+        }
+    }
+}
@@ -0,0 +1,139 @@
+package com.nodedrive.client;
+
+import com.sun.net.httpserver.HttpServer;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class CircuitBreakerTest {
+
+    private HttpServer server;
+    private final AtomicInteger requests = new AtomicInteger();
+    private volatile int status = 200;
+    private CircuitBreaker breaker;
+
+    @Before
+    public void setUp() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/", exchange -> {
+            requests.incrementAndGet();
+            exchange.sendResponseHeaders(status, -1);
+            exchange.close();
+        });
+        server.start();
+    }
+
+    @After
+    public void tearDown() {
+        if (breaker != null) {
+            breaker.stop();
+        }
+        server.stop(0);
+    }
+
+    private int call(String path) throws IOException {
+        OkHttpClient client = new OkHttpClient.Builder().addInterceptor(breaker).build();
+        Request request = new Request.Builder()
+                .url("http://127.0.0.1:" + server.getAddress().getPort() + path)
+                .build();
+        try (Response response = client.newCall(request).execute()) {
+            return response.code();
+        }
+    }
+
+    @Test
+    public void opensAfterConsecutiveServerErrors() throws IOException {
+        breaker = new CircuitBreaker(3, () -> false);
+        status = 503;
+
+        call("/api/upload/check");
+        call("/api/upload/check");
+        assertFalse(breaker.isOpen());
+        call("/api/upload/check");
+        assertTrue(breaker.isOpen());
+
+        // Open: requests fail without reaching the server, pings still go through
+        try {
+            call("/api/upload/check");
+            fail("request passed an open circuit");
+        } catch (CircuitBreaker.OpenException expected) {
+            // expected
+        }
+        assertEquals(3, requests.get());
+        assertEquals(503, call(ServerApiClient.PING_PATH));
+        assertEquals(4, requests.get());
+    }
+
+    @Test
+    public void successAndClientErrorsResetTheCount() throws IOException {
+        breaker = new CircuitBreaker(2, () -> false);
+
+        status = 500;
+        call("/api/upload/check");
+        status = 400;
+        call("/api/upload/check");
+        status = 500;
+        call("/api/upload/check");
+        assertFalse(breaker.isOpen());
+
+        call("/api/upload/check");
+        assertTrue(breaker.isOpen());
+    }
+
+    @Test
+    public void zeroThresholdNeverOpens() throws IOException {
+        breaker = new CircuitBreaker(0, () -> false);
+        status = 503;
+
+        for (int i = 0; i < 10; i++) {
+            call("/api/upload/check");
+        }
+        assertFalse(breaker.isOpen());
+    }
+
+    @Test(timeout = 15000)
+    public void probesWithBackoffAndNotifiesListenersOnClose() throws Exception {
+        List<Long> probes = new CopyOnWriteArrayList<>();
+        breaker = new CircuitBreaker(1, () -> {
+            probes.add(System.nanoTime());
+            return probes.size() == 3;
+        });
+        CountDownLatch available = new CountDownLatch(2);
+        breaker.addListener(available::countDown);
+        breaker.addListener(() -> {
+            throw new IllegalStateException("failing listener");
+        });
+        breaker.addListener(available::countDown);
+
+        breaker.trip();
+        assertTrue(breaker.isOpen());
+
+        // Probes after 1 s, 2 s and 4 s; the third succeeds
+        assertTrue(available.await(12, TimeUnit.SECONDS));
+        assertFalse(breaker.isOpen());
+        assertEquals(3, probes.size());
+        long firstGap = probes.get(1) - probes.get(0);
+        long secondGap = probes.get(2) - probes.get(1);
+        assertTrue(firstGap >= TimeUnit.MILLISECONDS.toNanos(1900));
+        assertTrue(secondGap >= TimeUnit.MILLISECONDS.toNanos(3900));
+
+        // Closed again: requests reach the server
+        assertEquals(200, call("/api/upload/check"));
+    }
+}
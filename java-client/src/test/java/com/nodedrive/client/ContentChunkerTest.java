@@ -0,0 +1,184 @@
+package com.nodedrive.client;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class ContentChunkerTest {
+
+    private Path dir;
+
+    @Before
+    public void setUp() throws IOException {
+        dir = Files.createTempDirectory("chunker-test");
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        for (Path file : Files.list(dir).toArray(Path[]::new)) {
+            Files.delete(file);
+        }
+        Files.delete(dir);
+    }
+
+    private static byte[] randomBytes(int length, long seed) {
+        byte[] data = new byte[length];
+        new Random(seed).nextBytes(data);
+        return data;
+    }
+
+    private List<ContentChunker.Chunk> chunk(byte[] data) throws IOException {
+        Path file = dir.resolve("data");
+        Files.write(file, data);
+        return ContentChunker.chunk(file);
+    }
+
+    private static String sha256(byte[] data, int offset, int length) throws NoSuchAlgorithmException {
+        MessageDigest digest = MessageDigest.getInstance("SHA-256");
+        digest.update(data, offset, length);
+        return FileHasher.toHex(digest.digest());
+    }
+
+    private static Set<String> hashes(List<ContentChunker.Chunk> chunks) {
+        Set<String> hashes = new HashSet<>();
+        for (ContentChunker.Chunk chunk : chunks) {
+            hashes.add(chunk.hash);
+        }
+        return hashes;
+    }
+
+    /**
+     * Chunks cover the data without gaps, respect the size limits and carry the
+     * digest of their own bytes
+     */
+    private static void assertValidChunks(byte[] data, List<ContentChunker.Chunk> chunks) throws Exception {
+        long offset = 0;
+        for (int i = 0; i < chunks.size(); i++) {
+            ContentChunker.Chunk chunk = chunks.get(i);
+            assertEquals(offset, chunk.offset);
+            assertTrue(chunk.length <= ContentChunker.MAX_SIZE);
+            if (i < chunks.size() - 1) {
+                assertTrue(chunk.length >= ContentChunker.MIN_SIZE);
+            }
+            assertEquals(sha256(data, (int) chunk.offset, chunk.length), chunk.hash);
+            offset += chunk.length;
+        }
+        assertEquals(data.length, offset);
+    }
+
+    @Test
+    public void emptyFileHasNoChunks() throws IOException {
+        assertEquals(0, chunk(new byte[0]).size());
+    }
+
+    @Test
+    public void fileBelowMinimumSizeIsOneChunk() throws Exception {
+        byte[] data = randomBytes(ContentChunker.MIN_SIZE - 1, 1);
+        List<ContentChunker.Chunk> chunks = chunk(data);
+
+        assertEquals(1, chunks.size());
+        assertValidChunks(data, chunks);
+    }
+
+    @Test
+    public void chunksCoverFileWithinSizeLimits() throws Exception {
+        byte[] data = randomBytes(20 * 1024 * 1024 + 12345, 2);
+        List<ContentChunker.Chunk> chunks = chunk(data);
+
+        assertValidChunks(data, chunks);
+        // Random content averages close to the target chunk size
+        long average = data.length / chunks.size();
+        assertTrue("average " + average, average > ContentChunker.AVG_SIZE / 2 && average < ContentChunker.AVG_SIZE * 2);
+    }
+
+    @Test
+    public void contentWithoutBoundariesIsCutAtMaximumSize() throws Exception {
+        byte[] data = new byte[3 * ContentChunker.MAX_SIZE + 100];
+        List<ContentChunker.Chunk> chunks = chunk(data);
+
+        assertValidChunks(data, chunks);
+        assertEquals(4, chunks.size());
+        assertEquals(ContentChunker.MAX_SIZE, chunks.get(0).length);
+        assertEquals(100, chunks.get(3).length);
+    }
+
+    @Test
+    public void sameContentGivesSameChunks() throws Exception {
+        byte[] data = randomBytes(10 * 1024 * 1024, 3);
+        List<ContentChunker.Chunk> first = chunk(data);
+        List<ContentChunker.Chunk> second = chunk(data.clone());
+
+        assertEquals(first.size(), second.size());
+        for (int i = 0; i < first.size(); i++) {
+            assertEquals(first.get(i).offset, second.get(i).offset);
+            assertEquals(first.get(i).hash, second.get(i).hash);
+        }
+    }
+
+    @Test
+    public void editInPlaceChangesOneChunkOf64MbFile() throws Exception {
+        byte[] data = randomBytes(64 * 1024 * 1024, 4);
+        List<ContentChunker.Chunk> before = chunk(data);
+
+        byte[] edited = data.clone();
+        int middle = edited.length / 2;
+        for (int i = 0; i < 100; i++) {
+            edited[middle + i] ^= 0x5a;
+        }
+        List<ContentChunker.Chunk> after = chunk(edited);
+
+        assertValidChunks(edited, after);
+        Set<String> changed = hashes(after);
+        changed.removeAll(hashes(before));
+        assertEquals(1, changed.size());
+        assertEquals(before.size(), after.size());
+    }
+
+    @Test
+    public void insertionOnlyChangesChunksAroundIt() throws Exception {
+        byte[] data = randomBytes(16 * 1024 * 1024, 5);
+        List<ContentChunker.Chunk> before = chunk(data);
+
+        int at = data.length / 3;
+        byte[] inserted = randomBytes(1000, 6);
+        byte[] edited = new byte[data.length + inserted.length];
+        System.arraycopy(data, 0, edited, 0, at);
+        System.arraycopy(inserted, 0, edited, at, inserted.length);
+        System.arraycopy(data, at, edited, at + inserted.length, data.length - at);
+        List<ContentChunker.Chunk> after = chunk(edited);
+
+        assertValidChunks(edited, after);
+        Set<String> changed = hashes(after);
+        changed.removeAll(hashes(before));
+        assertTrue("changed " + changed.size(), changed.size() <= 2);
+
+        // Chunks after the edit are the same content, shifted by the insertion
+        List<Long> shiftedTail = new ArrayList<>();
+        for (ContentChunker.Chunk chunk : before) {
+            if (chunk.offset > at + ContentChunker.MAX_SIZE) {
+                shiftedTail.add(chunk.offset + inserted.length);
+            }
+        }
+        List<Long> tail = new ArrayList<>();
+        for (ContentChunker.Chunk chunk : after) {
+            if (chunk.offset > at + inserted.length + ContentChunker.MAX_SIZE) {
+                tail.add(chunk.offset);
+            }
+        }
+        assertEquals(shiftedTail, tail);
+    }
+}
@@ -0,0 +1,210 @@
+package com.nodedrive.client;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class DeltaEncoderTest {
+
+    private Path dir;
+
+    @Before
+    public void setUp() throws IOException {
+        dir = Files.createTempDirectory("delta-test");
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        for (Path file : Files.list(dir).toArray(Path[]::new)) {
+            Files.delete(file);
+        }
+        Files.delete(dir);
+    }
+
+    private static byte[] randomBytes(int length, long seed) {
+        byte[] data = new byte[length];
+        new Random(seed).nextBytes(data);
+        return data;
+    }
+
+    private static byte[] splice(byte[] data, int at, int remove, byte[] insert) {
+        byte[] result = new byte[data.length - remove + insert.length];
+        System.arraycopy(data, 0, result, 0, at);
+        System.arraycopy(insert, 0, result, at, insert.length);
+        System.arraycopy(data, at + remove, result, at + insert.length, data.length - at - remove);
+        return result;
+    }
+
+    private BlockSignature signature(byte[] data) throws IOException {
+        Path file = dir.resolve("old");
+        Files.write(file, data);
+        return BlockSignature.compute(file, data.length);
+    }
+
+    private DeltaEncoder.Delta encode(BlockSignature base, byte[] data) throws IOException {
+        Path file = dir.resolve("new");
+        Files.write(file, data);
+        return DeltaEncoder.encode(base, file, data.length);
+    }
+
+    /**
+     * Rebuild the new version the way the server does: copied blocks from the old
+     * version, literal ranges from the new one
+     */
+    private static byte[] apply(BlockSignature base, byte[] oldData, byte[] newData, DeltaEncoder.Delta delta) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (DeltaEncoder.Instruction instruction : delta.instructions) {
+            if (instruction.isCopy()) {
+                for (int block = instruction.block; block < instruction.block + instruction.count; block++) {
+                    out.write(oldData, block * base.blockSize, base.blockLength(block));
+                }
+            } else {
+                out.write(newData, (int) instruction.offset, (int) instruction.length);
+            }
+        }
+        return out.toByteArray();
+    }
+
+    private static String sha256(byte[] data) throws Exception {
+        return FileHasher.toHex(MessageDigest.getInstance("SHA-256").digest(data));
+    }
+
+    private DeltaEncoder.Delta assertRoundTrip(byte[] oldData, byte[] newData) throws Exception {
+        BlockSignature base = signature(oldData);
+        DeltaEncoder.Delta delta = encode(base, newData);
+
+        assertArrayEquals(newData, apply(base, oldData, newData, delta));
+        assertEquals(newData.length, delta.fileSize);
+        assertEquals(sha256(newData), delta.checksum);
+        return delta;
+    }
+
+    @Test
+    public void unchangedFileIsAllCopies() throws Exception {
+        byte[] data = randomBytes(1024 * 1024 + 17, 1);
+        DeltaEncoder.Delta delta = assertRoundTrip(data, data);
+
+        assertEquals(0, delta.literalBytes);
+    }
+
+    @Test
+    public void insertionSendsLittleMoreThanTheInsertedBytes() throws Exception {
+        byte[] oldData = randomBytes(2 * 1024 * 1024, 2);
+        byte[] newData = splice(oldData, 700001, 0, randomBytes(5000, 3));
+        DeltaEncoder.Delta delta = assertRoundTrip(oldData, newData);
+
+        int blockSize = BlockSignature.blockSizeFor(oldData.length);
+        assertTrue("literal " + delta.literalBytes, delta.literalBytes <= 5000 + 2L * blockSize);
+    }
+
+    @Test
+    public void deletionAndReplacementRoundTrip() throws Exception {
+        byte[] oldData = randomBytes(3 * 1024 * 1024 + 999, 4);
+        byte[] newData = splice(oldData, 100, 20000, new byte[0]);
+        newData = splice(newData, 2 * 1024 * 1024, 3000, randomBytes(7000, 5));
+        assertRoundTrip(oldData, newData);
+    }
+
+    @Test
+    public void appendedDataRoundTrips() throws Exception {
+        byte[] oldData = randomBytes(500000, 6);
+        byte[] newData = splice(oldData, oldData.length, 0, randomBytes(123457, 7));
+        DeltaEncoder.Delta delta = assertRoundTrip(oldData, newData);
+
+        assertTrue(delta.literalBytes < 123457 + BlockSignature.blockSizeFor(oldData.length));
+    }
+
+    @Test
+    public void unrelatedContentIsAllLiteral() throws Exception {
+        byte[] newData = randomBytes(300000, 9);
+        DeltaEncoder.Delta delta = assertRoundTrip(randomBytes(300000, 8), newData);
+
+        assertEquals(newData.length, delta.literalBytes);
+    }
+
+    @Test
+    public void emptyVersionsRoundTrip() throws Exception {
+        assertRoundTrip(new byte[0], randomBytes(10000, 10));
+        assertRoundTrip(randomBytes(10000, 11), new byte[0]);
+    }
+
+    @Test
+    public void signatureSurvivesSerialization() throws Exception {
+        BlockSignature original = signature(randomBytes(777777, 12));
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        original.writeTo(new DataOutputStream(bytes));
+
+        BlockSignature read = BlockSignature.readFrom(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+        assertEquals(original.blockSize, read.blockSize);
+        assertEquals(original.fileSize, read.fileSize);
+        assertEquals(original.checksum, read.checksum);
+        assertEquals(original.blockCount(), read.blockCount());
+        for (int i = 0; i < original.blockCount(); i++) {
+            assertEquals(original.weak[i], read.weak[i]);
+        }
+        assertArrayEquals(original.strong, read.strong);
+    }
+
+    @Test
+    public void hasherComputesSameSignatureInItsRead() throws Exception {
+        // Spans several hasher buffers and ends in a partial block
+        byte[] data = randomBytes(3 * FileHasher.BUFFER_SIZE + 12345, 11);
+        BlockSignature expected = signature(data);
+
+        FileHasher.Result hash = FileHasher.hash(dir.resolve("old"), true);
+        assertEquals(sha256(data), hash.checksum);
+        assertEquals(expected.checksum, hash.signature.checksum);
+        assertEquals(expected.blockSize, hash.signature.blockSize);
+        assertEquals(expected.fileSize, hash.signature.fileSize);
+        assertArrayEquals(expected.weak, hash.signature.weak);
+        assertArrayEquals(expected.strong, hash.signature.strong);
+
+        assertNull(FileHasher.hash(dir.resolve("old")).signature);
+    }
+
+    @Test(expected = IOException.class)
+    public void corruptSignatureIsRejected() throws Exception {
+        BlockSignature.readFrom(new DataInputStream(new ByteArrayInputStream(new byte[]{1, 2, 3, 4, 5, 6, 7, 8})));
+    }
+
+    @Test(expected = IOException.class)
+    public void fileChangedSinceStatIsDetected() throws Exception {
+        Path file = dir.resolve("old");
+        Files.write(file, randomBytes(10000, 13));
+        BlockSignature.compute(file, 9000);
+    }
+
+    @Test
+    public void weakSumRollsLikeRsync() {
+        byte[] data = randomBytes(4096, 14);
+        int length = 1024;
+        int a = 0;
+        int b = 0;
+        for (int i = 0; i < length; i++) {
+            a += data[i] & 0xff;
+            b += a;
+        }
+        for (int start = 1; start + length <= data.length; start++) {
+            int out = data[start - 1] & 0xff;
+            int in = data[start + length - 1] & 0xff;
+            a += in - out;
+            b += a - length * out;
+            assertEquals(BlockSignature.weakSum(data, start, length), BlockSignature.toWeak(a, b));
+        }
+    }
+}
@@ -0,0 +1,110 @@
+package com.nodedrive.client;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+public class EventDebouncerTest {
+
+    private static final long QUIET = 100;
+
+    private final BlockingQueue<String> settled = new LinkedBlockingQueue<>();
+    private final Path file = Paths.get("/watch/a.txt");
+    private EventDebouncer debouncer;
+
+    private void start(long quietPeriod, long maxLatency) {
+        debouncer = new EventDebouncer(new EventDebouncer.Config(quietPeriod, maxLatency),
+                (type, path) -> settled.add(type + " " + path));
+        debouncer.start();
+    }
+
+    @After
+    public void tearDown() {
+        if (debouncer != null) {
+            debouncer.stop();
+        }
+    }
+
+    private String next() throws InterruptedException {
+        return settled.poll(QUIET * 10, TimeUnit.MILLISECONDS);
+    }
+
+    @Test
+    public void createdThenDeletedIsDropped() throws InterruptedException {
+        start(QUIET, 10000);
+        debouncer.submit(DirectoryWatcher.FileEventType.CREATED, file);
+        debouncer.submit(DirectoryWatcher.FileEventType.DELETED, file);
+
+        assertNull(settled.poll(QUIET * 4, TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    public void deletedThenCreatedBecomesModified() throws InterruptedException {
+        start(QUIET, 10000);
+        debouncer.submit(DirectoryWatcher.FileEventType.DELETED, file);
+        debouncer.submit(DirectoryWatcher.FileEventType.CREATED, file);
+
+        assertEquals("MODIFIED " + file, next());
+        assertNull(settled.poll(QUIET * 2, TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    public void createdThenModifiedStaysCreated() throws InterruptedException {
+        start(QUIET, 10000);
+        debouncer.submit(DirectoryWatcher.FileEventType.CREATED, file);
+        debouncer.submit(DirectoryWatcher.FileEventType.MODIFIED, file);
+        debouncer.submit(DirectoryWatcher.FileEventType.MODIFIED, file);
+
+        assertEquals("CREATED " + file, next());
+    }
+
+    @Test
+    public void modifiedThenDeletedBecomesDeleted() throws InterruptedException {
+        start(QUIET, 10000);
+        debouncer.submit(DirectoryWatcher.FileEventType.MODIFIED, file);
+        debouncer.submit(DirectoryWatcher.FileEventType.DELETED, file);
+
+        assertEquals("DELETED " + file, next());
+    }
+
+    @Test
+    public void burstSettlesOnceAfterQuietPeriod() throws InterruptedException {
+        start(QUIET, 10000);
+        for (int i = 0; i < 20; i++) {
+            debouncer.submit(DirectoryWatcher.FileEventType.MODIFIED, file);
+        }
+
+        assertEquals("MODIFIED " + file, next());
+        assertNull(settled.poll(QUIET * 2, TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    public void maxLatencyReleasesPathThatNeverGoesQuiet() throws InterruptedException {
+        start(QUIET, QUIET * 3);
+        long deadline = System.currentTimeMillis() + QUIET * 10;
+        String event = null;
+        while (event == null && System.currentTimeMillis() < deadline) {
+            debouncer.submit(DirectoryWatcher.FileEventType.MODIFIED, file);
+            event = settled.poll(QUIET / 4, TimeUnit.MILLISECONDS);
+        }
+
+        assertNotNull(event);
+    }
+
+    @Test
+    public void disabledDispatchesImmediately() {
+        start(0, 10000);
+        debouncer.submit(DirectoryWatcher.FileEventType.CREATED, file);
+
+        assertEquals("CREATED " + file, settled.poll());
+    }
+}
@@ -0,0 +1,261 @@
+package com.nodedrive.client;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class FileSyncerTest {
+
+    /**
+     * Server stand-in recording the requests it gets
+     */
+    private static class FakeClient extends ServerApiClient {
+        final List<FileCheckRequest> checks = Collections.synchronizedList(new ArrayList<>());
+        final List<String> uploads = Collections.synchronizedList(new ArrayList<>());
+        final List<String> renames = Collections.synchronizedList(new ArrayList<>());
+        final List<String> deletes = Collections.synchronizedList(new ArrayList<>());
+        volatile String checkError;
+        volatile int uploadStatus = 200;
+        volatile CountDownLatch renameStarted;
+        volatile CountDownLatch renameRelease;
+
+        FakeClient() {
+            super(new ServerApiClient.Config());
+        }
+
+        @Override
+        public List<FileCheckResponse> checkFileStatusBatch(List<FileCheckRequest> requests) {
+            checks.addAll(requests);
+            List<FileCheckResponse> results = new ArrayList<>();
+            for (int i = 0; i < requests.size(); i++) {
+                FileCheckResponse response = new FileCheckResponse();
+                response.error = checkError;
+                results.add(response);
+            }
+            return results;
+        }
+
+        @Override
+        public FileUploadResponse uploadChunk(FileUploadRequest request, long startByte, long length) {
+            uploads.add(request.fileName + "@" + startByte + "+" + length);
+            FileUploadResponse response = new FileUploadResponse();
+            response.statusCode = uploadStatus;
+            response.success = uploadStatus == 200;
+            response.bytesUploaded = startByte + length;
+            response.isComplete = response.success && startByte + length == request.fileSize;
+            return response;
+        }
+
+        @Override
+        public boolean renameFile(FileRenameRequest request) {
+            if (renameStarted != null) {
+                renameStarted.countDown();
+                try {
+                    renameRelease.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return false;
+                }
+            }
+            renames.add(request.fileName + " -> " + request.newFileName);
+            return true;
+        }
+
+        @Override
+        public boolean deleteFiles(String username, String deviceId, List<FileDeleteRequest> requests) {
+            for (FileDeleteRequest request : requests) {
+                deletes.add(request.fileName);
+            }
+            return true;
+        }
+    }
+
+    private Path dir;
+    private FakeClient client;
+    private SyncStateIndex stateIndex;
+    private RetryQueue retryQueue;
+    private FileSyncer syncer;
+
+    @Before
+    public void setUp() throws IOException {
+        dir = Files.createTempDirectory("file-syncer-test");
+        Files.createDirectories(dir.resolve("state"));
+        client = new FakeClient();
+        stateIndex = SyncStateIndex.open(dir.resolve("state/sync-state.jsonl"));
+        retryQueue = RetryQueue.open(dir.resolve("state/retry-queue.jsonl"));
+        syncer = new FileSyncer("user", "device", client, stateIndex,
+                new ChunkedUploader(client, stateIndex, ChunkedUploader.DEFAULT_CHUNK_SIZE),
+                null, null, retryQueue, 0, 0);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        retryQueue.stop();
+        stateIndex.close();
+        try (Stream<Path> paths = Files.walk(dir)) {
+            for (Path path : paths.sorted(Comparator.reverseOrder()).toArray(Path[]::new)) {
+                Files.delete(path);
+            }
+        }
+    }
+
+    private FileSyncer moveAwareSyncer() {
+        return new FileSyncer("user", "device", client, stateIndex,
+                new ChunkedUploader(client, stateIndex, ChunkedUploader.DEFAULT_CHUNK_SIZE),
+                null, null, retryQueue, 60000, 60000);
+    }
+
+    /**
+     * Write a file and record it as synced, as after an earlier upload
+     */
+    private Path syncedFile(String name) throws IOException {
+        Path file = Files.write(dir.resolve(name), new byte[]{1, 2, 3});
+        BasicFileAttributes attrs = Files.readAttributes(file, BasicFileAttributes.class);
+        stateIndex.markSynced(file.toString(), attrs, "checksum-" + name);
+        return file;
+    }
+
+    /**
+     * The created event the watcher reports for a file, with its size and modification time
+     */
+    private static DirectoryWatcher.FileEvent created(Path file) throws IOException {
+        BasicFileAttributes attrs = Files.readAttributes(file, BasicFileAttributes.class);
+        return new DirectoryWatcher.FileEvent(DirectoryWatcher.FileEventType.CREATED, file.toString(),
+                attrs.size(), attrs.lastModifiedTime().toMillis());
+    }
+
+    private void sync(DirectoryWatcher.FileEventType type, Path file) {
+        syncer.syncFiles(Collections.singletonList(new DirectoryWatcher.FileEvent(type, file.toString())));
+    }
+
+    @Test
+    public void zeroByteFileIsCheckedAndUploaded() throws IOException {
+        Path file = Files.createFile(dir.resolve("empty.txt"));
+
+        sync(DirectoryWatcher.FileEventType.CREATED, file);
+
+        assertEquals(1, client.checks.size());
+        assertEquals(0, client.checks.get(0).fileSize);
+        assertEquals(Collections.singletonList("empty.txt@0+0"), client.uploads);
+        SyncStateIndex.Entry entry = stateIndex.get(file.toString());
+        assertNotNull(entry);
+        assertEquals(SyncStateIndex.State.SYNCED, entry.state);
+        assertEquals(0, retryQueue.size());
+    }
+
+    @Test
+    public void rejectedCheckIsNotRetried() throws IOException {
+        Path file = Files.write(dir.resolve("a.txt"), new byte[]{1, 2, 3});
+        client.checkError = "Missing required fields";
+
+        sync(DirectoryWatcher.FileEventType.CREATED, file);
+
+        assertTrue(client.uploads.isEmpty());
+        assertEquals(0, retryQueue.size());
+    }
+
+    @Test
+    public void rejectedUploadIsNotRetried() throws IOException {
+        Path file = Files.write(dir.resolve("a.txt"), new byte[]{1, 2, 3});
+        client.uploadStatus = 400;
+
+        sync(DirectoryWatcher.FileEventType.CREATED, file);
+
+        assertEquals(1, client.uploads.size());
+        assertEquals(0, retryQueue.size());
+    }
+
+    @Test
+    public void failedUploadIsParked() throws IOException {
+        Path file = Files.write(dir.resolve("a.txt"), new byte[]{1, 2, 3});
+        client.uploadStatus = 500;
+
+        sync(DirectoryWatcher.FileEventType.CREATED, file);
+
+        assertEquals(1, retryQueue.size());
+    }
+
+    @Test
+    public void moveIsRenamedNotDeletedAndUploaded() throws IOException {
+        syncer = moveAwareSyncer();
+        Path oldFile = syncedFile("old.txt");
+        Path newFile = Files.move(oldFile, dir.resolve("new.txt"));
+
+        // The deletion is held for the move window, then the creation is recognised as the move
+        sync(DirectoryWatcher.FileEventType.DELETED, oldFile);
+        assertEquals(1, retryQueue.size());
+        syncer.syncFiles(Collections.singletonList(created(newFile)));
+
+        assertEquals(Collections.singletonList("old.txt -> new.txt"), client.renames);
+        assertTrue(client.uploads.isEmpty());
+        assertNull(stateIndex.get(oldFile.toString()));
+        assertEquals(SyncStateIndex.State.SYNCED, stateIndex.get(newFile.toString()).state);
+        assertEquals(0, retryQueue.size());
+
+        // The held deletion comes due with nothing left to delete
+        sync(DirectoryWatcher.FileEventType.MODIFIED, oldFile);
+        assertTrue(client.deletes.isEmpty());
+    }
+
+    @Test(timeout = 10000)
+    public void heldDeletionWaitsForRenameInProgress() throws Exception {
+        syncer = moveAwareSyncer();
+        Path oldFile = syncedFile("old.txt");
+        Path newFile = Files.move(oldFile, dir.resolve("new.txt"));
+        DirectoryWatcher.FileEvent createdEvent = created(newFile);
+        syncer.noteCreated(createdEvent);
+
+        client.renameStarted = new CountDownLatch(1);
+        client.renameRelease = new CountDownLatch(1);
+        Thread mover = new Thread(() -> syncer.syncFiles(Collections.singletonList(createdEvent)));
+        mover.setDaemon(true);
+        mover.start();
+        try {
+            client.renameStarted.await();
+
+            // The held deletion comes due while the rename is still under way
+            sync(DirectoryWatcher.FileEventType.MODIFIED, oldFile);
+            assertTrue(client.deletes.isEmpty());
+            assertEquals(1, retryQueue.size());
+        } finally {
+            client.renameRelease.countDown();
+        }
+        mover.join();
+        assertEquals(Collections.singletonList("old.txt -> new.txt"), client.renames);
+        assertNull(stateIndex.get(oldFile.toString()));
+
+        sync(DirectoryWatcher.FileEventType.MODIFIED, oldFile);
+        assertTrue(client.deletes.isEmpty());
+    }
+
+    @Test
+    public void deletionWithoutMoveIsSentAfterHold() throws IOException {
+        syncer = moveAwareSyncer();
+        Path file = syncedFile("gone.txt");
+        Files.delete(file);
+
+        sync(DirectoryWatcher.FileEventType.DELETED, file);
+        assertTrue(client.deletes.isEmpty());
+
+        sync(DirectoryWatcher.FileEventType.MODIFIED, file);
+        assertEquals(Collections.singletonList("gone.txt"), client.deletes);
+        assertNull(stateIndex.get(file.toString()));
+        assertEquals(0, retryQueue.size());
+    }
+}
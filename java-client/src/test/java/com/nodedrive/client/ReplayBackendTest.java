@@ -0,0 +1,107 @@
+package com.nodedrive.client;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class ReplayBackendTest {
+
+    private Path dir;
+
+    @Before
+    public void setUp() throws IOException {
+        dir = Files.createTempDirectory("replay-test");
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        for (Path file : Files.list(dir).toArray(Path[]::new)) {
+            Files.delete(file);
+        }
+        Files.delete(dir);
+    }
+
+    /**
+     * Backend that reports the events it is told to, in place of the file system
+     */
+    private static class ScriptedBackend implements WatcherBackend {
+        private Listener listener;
+
+        @Override
+        public void start(Path root, Listener listener) {
+            this.listener = listener;
+        }
+
+        void emit(DirectoryWatcher.FileEventType type, Path path) {
+            listener.onEvent(type, path);
+        }
+
+        @Override
+        public void stop() {
+        }
+    }
+
+    @Test
+    public void recordedEventsAreWrittenAsTheyHappen() throws IOException {
+        Path root = dir.resolve("root");
+        Path log = dir.resolve("events.log");
+        ScriptedBackend source = new ScriptedBackend();
+        RecordingBackend recorder = new RecordingBackend(source, log);
+        recorder.start(root, (type, path) -> { });
+
+        source.emit(DirectoryWatcher.FileEventType.CREATED, root.resolve("a.txt"));
+
+        List<String> lines = Files.readAllLines(log, StandardCharsets.UTF_8);
+        recorder.stop();
+        assertEquals(1, lines.size());
+        assertTrue(lines.get(0).endsWith("\tCREATED\ta.txt"));
+    }
+
+    @Test
+    public void replayReproducesRecordedEventsUnderNewRoot() throws Exception {
+        Path recordedRoot = dir.resolve("recorded");
+        Path log = dir.resolve("events.log");
+        ScriptedBackend source = new ScriptedBackend();
+        RecordingBackend recorder = new RecordingBackend(source, log);
+        recorder.start(recordedRoot, (type, path) -> { });
+
+        source.emit(DirectoryWatcher.FileEventType.CREATED, recordedRoot.resolve("a.txt"));
+        source.emit(DirectoryWatcher.FileEventType.MODIFIED, recordedRoot.resolve("sub").resolve("b.txt"));
+        source.emit(DirectoryWatcher.FileEventType.DELETED, recordedRoot.resolve("a.txt"));
+        recorder.stop();
+
+        Path replayRoot = dir.resolve("replayed");
+        List<String> replayed = Collections.synchronizedList(new ArrayList<>());
+        CountDownLatch done = new CountDownLatch(3);
+        ReplayBackend replay = new ReplayBackend(log, false);
+        replay.start(replayRoot, (type, path) -> {
+            replayed.add(type + " " + replayRoot.relativize(path));
+            done.countDown();
+        });
+
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        replay.stop();
+        assertEquals(Arrays.asList("CREATED a.txt", "MODIFIED " + Paths.get("sub", "b.txt"), "DELETED a.txt"),
+                replayed);
+    }
+
+    @Test(expected = IOException.class)
+    public void missingLogFailsToStart() throws IOException {
+        new ReplayBackend(dir.resolve("missing.log"), false).start(dir, (type, path) -> { });
+    }
+}
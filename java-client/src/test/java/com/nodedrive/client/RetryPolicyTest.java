@@ -0,0 +1,133 @@
+package com.nodedrive.client;
+
+import com.sun.net.httpserver.HttpServer;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.ConnectException;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.nio.file.NoSuchFileException;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class RetryPolicyTest {
+
+    private HttpServer server;
+    private final AtomicInteger requests = new AtomicInteger();
+    private final Queue<Integer> statuses = new ConcurrentLinkedQueue<>();
+    private volatile int defaultStatus = 200;
+
+    @Before
+    public void setUp() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/", exchange -> {
+            requests.incrementAndGet();
+            Integer status = statuses.poll();
+            exchange.sendResponseHeaders(status != null ? status : defaultStatus, -1);
+            exchange.close();
+        });
+        server.start();
+    }
+
+    @After
+    public void tearDown() {
+        server.stop(0);
+    }
+
+    private int call(RetryPolicy policy, String path) throws IOException {
+        OkHttpClient client = new OkHttpClient.Builder().addInterceptor(policy).build();
+        Request request = new Request.Builder()
+                .url("http://127.0.0.1:" + server.getAddress().getPort() + path)
+                .build();
+        try (Response response = client.newCall(request).execute()) {
+            return response.code();
+        }
+    }
+
+    @Test
+    public void retriesTransientStatusUntilSuccess() throws IOException {
+        statuses.add(503);
+        statuses.add(429);
+
+        assertEquals(200, call(new RetryPolicy(3, 1), "/api/upload/check"));
+        assertEquals(3, requests.get());
+    }
+
+    @Test
+    public void returnsLastResponseOnceAttemptsAreUsed() throws IOException {
+        defaultStatus = 503;
+
+        assertEquals(503, call(new RetryPolicy(2, 1), "/api/upload/check"));
+        assertEquals(3, requests.get());
+    }
+
+    @Test
+    public void doesNotRetryClientErrors() throws IOException {
+        defaultStatus = 400;
+
+        assertEquals(400, call(new RetryPolicy(3, 1), "/api/upload/check"));
+        assertEquals(1, requests.get());
+    }
+
+    @Test
+    public void doesNotRetryPings() throws IOException {
+        defaultStatus = 503;
+
+        assertEquals(503, call(new RetryPolicy(3, 1), ServerApiClient.PING_PATH));
+        assertEquals(1, requests.get());
+    }
+
+    @Test
+    public void budgetLimitsRetries() throws IOException {
+        defaultStatus = 500;
+        RetryPolicy policy = new RetryPolicy(100, 1);
+
+        // The first request may spend the initial budget of 10 retries
+        assertEquals(500, call(policy, "/api/upload/check"));
+        assertEquals(11, requests.get());
+
+        // Two requests earn less than one retry
+        assertEquals(500, call(policy, "/api/upload/check"));
+        assertEquals(12, requests.get());
+    }
+
+    @Test
+    public void backoffDoublesWithJitterAndHonoursRetryAfter() {
+        RetryPolicy policy = new RetryPolicy(3, 1000);
+
+        for (int i = 0; i < 100; i++) {
+            long first = policy.backoff(0, -1);
+            assertTrue(first >= 500 && first <= 1000);
+            long third = policy.backoff(2, -1);
+            assertTrue(third >= 2000 && third <= 4000);
+        }
+        assertEquals(5000, policy.backoff(0, 5000));
+        assertEquals(30000, policy.backoff(0, 120000));
+    }
+
+    @Test
+    public void classifiesFailures() {
+        assertTrue(RetryPolicy.isRetryable(new SocketTimeoutException()));
+        assertTrue(RetryPolicy.isRetryable(new ConnectException()));
+        assertFalse(RetryPolicy.isRetryable(new InterruptedIOException()));
+        assertFalse(RetryPolicy.isRetryable(new NoSuchFileException("/a")));
+
+        assertTrue(RetryPolicy.isRetryable(408));
+        assertTrue(RetryPolicy.isRetryable(503));
+        assertFalse(RetryPolicy.isRetryable(400));
+        assertFalse(RetryPolicy.isRetryable(409));
+        assertFalse(RetryPolicy.isRetryable(501));
+    }
+}
@@ -0,0 +1,151 @@
+package com.nodedrive.client;
+
+import com.google.gson.Gson;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class RetryQueueTest {
+
+    private Path dir;
+    private Path queueFile;
+    private RetryQueue queue;
+
+    @Before
+    public void setUp() throws IOException {
+        dir = Files.createTempDirectory("retry-queue-test");
+        queueFile = dir.resolve("retry-queue.jsonl");
+        queue = RetryQueue.open(queueFile);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        queue.stop();
+        for (Path file : Files.list(dir).toArray(Path[]::new)) {
+            Files.delete(file);
+        }
+        Files.delete(dir);
+    }
+
+    /**
+     * The entries as written to disk by flush(), by path
+     */
+    private Map<String, RetryQueue.Entry> saved() throws IOException {
+        queue.flush();
+        Gson gson = new Gson();
+        Map<String, RetryQueue.Entry> saved = new HashMap<>();
+        for (String line : Files.readAllLines(queueFile, StandardCharsets.UTF_8)) {
+            RetryQueue.Entry entry = gson.fromJson(line, RetryQueue.Entry.class);
+            saved.put(entry.path, entry);
+        }
+        return saved;
+    }
+
+    @Test
+    public void parkBacksOffWithEachAttempt() throws IOException {
+        long before = System.currentTimeMillis();
+        queue.park("/a", "upload did not complete");
+        RetryQueue.Entry first = saved().get("/a");
+        assertEquals(1, first.attempts);
+        assertEquals("upload did not complete", first.reason);
+        // 10 s base delay, jittered down to half of it
+        assertTrue(first.nextAttempt >= before + 5000);
+        assertTrue(first.nextAttempt <= System.currentTimeMillis() + 10000);
+
+        queue.park("/a", "upload did not complete");
+        queue.park("/a", "upload did not complete");
+        RetryQueue.Entry third = saved().get("/a");
+        assertEquals(3, third.attempts);
+        assertTrue(third.nextAttempt >= before + 20000);
+    }
+
+    @Test
+    public void parkGivesUpAfterMaxAttempts() {
+        for (int i = 1; i < RetryQueue.MAX_ATTEMPTS; i++) {
+            queue.park("/a", "failed");
+        }
+        assertEquals(1, queue.size());
+
+        queue.park("/a", "failed");
+        assertEquals(0, queue.size());
+    }
+
+    @Test
+    public void holdCountsNoAttemptAndKeepsFirstHoldTime() throws Exception {
+        assertEquals(0, queue.heldFor("/a"));
+
+        queue.hold("/a", 60000, "waiting for a move");
+        Thread.sleep(20);
+        queue.hold("/a", 60000, "waiting for a move");
+
+        assertTrue(queue.heldFor("/a") >= 20);
+        RetryQueue.Entry entry = saved().get("/a");
+        assertEquals(0, entry.attempts);
+        assertEquals("waiting for a move", entry.reason);
+    }
+
+    @Test
+    public void clearForgetsFile() throws IOException {
+        queue.park("/a", "failed");
+        queue.defer("/b");
+        queue.clear("/a");
+
+        Map<String, RetryQueue.Entry> saved = saved();
+        assertNull(saved.get("/a"));
+        assertNotNull(saved.get("/b"));
+        assertEquals(1, queue.size());
+    }
+
+    @Test
+    public void entriesSurviveReopen() throws IOException {
+        queue.park("/a", "server check failed");
+        queue.park("/a", "server check failed");
+        queue.defer("/b");
+        queue.hold("/c", 60000, "waiting for a move");
+        queue.stop();
+
+        queue = RetryQueue.open(queueFile);
+        assertEquals(3, queue.size());
+
+        Map<String, RetryQueue.Entry> saved = saved();
+        assertEquals(2, saved.get("/a").attempts);
+        assertEquals("server check failed", saved.get("/a").reason);
+        assertEquals(Long.MAX_VALUE, saved.get("/b").nextAttempt);
+        assertTrue(saved.get("/c").heldSince > 0);
+    }
+
+    @Test(timeout = 10000)
+    public void retryNowResubmitsDeferredFilesAsModifications() throws Exception {
+        BlockingQueue<DirectoryWatcher.FileEvent> submitted = new LinkedBlockingQueue<>();
+        queue.defer("/a");
+        queue.start(submitted::put);
+
+        // Deferred files wait for retryNow()
+        assertNull(submitted.poll(1500, TimeUnit.MILLISECONDS));
+
+        queue.retryNow();
+        DirectoryWatcher.FileEvent event = submitted.poll(5, TimeUnit.SECONDS);
+        assertNotNull(event);
+        assertEquals("/a", event.filePath);
+        assertEquals(DirectoryWatcher.FileEventType.MODIFIED, event.type);
+
+        // Resubmitted with a fresh backoff, but kept until the sync reports back
+        assertEquals(1, queue.size());
+        assertEquals(0, saved().get("/a").attempts);
+    }
+}
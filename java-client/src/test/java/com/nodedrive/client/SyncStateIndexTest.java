@@ -0,0 +1,187 @@
+package com.nodedrive.client;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+public class SyncStateIndexTest {
+
+    private static final String ROOT = File.separator + "sync";
+
+    private Path dir;
+    private Path indexFile;
+    private SyncStateIndex index;
+
+    @Before
+    public void setUp() throws IOException {
+        dir = Files.createTempDirectory("sync-state-index-test");
+        indexFile = dir.resolve("sync-state.jsonl");
+        index = SyncStateIndex.open(indexFile);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        index.close();
+        for (Path file : Files.list(dir).toArray(Path[]::new)) {
+            Files.delete(file);
+        }
+        Files.delete(dir);
+    }
+
+    private static String path(String... names) {
+        return ROOT + File.separator + String.join(File.separator, names);
+    }
+
+    private static SyncStateIndex.Entry entry(String path, String fileKey, String checksum) {
+        return new SyncStateIndex.Entry(path, 3, 1000, fileKey, checksum, SyncStateIndex.State.SYNCED);
+    }
+
+    private SyncStateIndex reopen() throws IOException {
+        index.close();
+        index = SyncStateIndex.open(indexFile);
+        return index;
+    }
+
+    private int lines() throws IOException {
+        return Files.readAllLines(indexFile, StandardCharsets.UTF_8).size();
+    }
+
+    private static List<String> paths(List<SyncStateIndex.Entry> entries) {
+        List<String> paths = new ArrayList<>();
+        for (SyncStateIndex.Entry entry : entries) {
+            paths.add(entry.path);
+        }
+        return paths;
+    }
+
+    @Test
+    public void entriesAndRemovalsSurviveReopen() throws IOException {
+        index.put(entry(path("a.txt"), "1:1", "aaa"));
+        index.put(entry(path("b.txt"), "1:2", "bbb"));
+        index.flush();
+        index.remove(path("a.txt"));
+        SyncStateIndex.Entry uploading = new SyncStateIndex.Entry(path("b.txt"), 5, 2000, "1:2", "ccc",
+                SyncStateIndex.State.UPLOADING);
+        uploading.uploadId = "upload-1";
+        index.put(uploading);
+
+        reopen();
+        assertEquals(1, index.size());
+        assertNull(index.get(path("a.txt")));
+        SyncStateIndex.Entry loaded = index.get(path("b.txt"));
+        assertEquals(SyncStateIndex.State.UPLOADING, loaded.state);
+        assertEquals(5, loaded.size);
+        assertEquals("ccc", loaded.checksum);
+        assertEquals("upload-1", loaded.uploadId);
+    }
+
+    @Test
+    public void flushAppendsChangesAndCompactsWhenTheyOutnumberEntries() throws IOException {
+        for (int i = 0; i < 4; i++) {
+            index.put(entry(path("f" + i), null, null));
+        }
+        index.flush();
+        assertEquals(4, lines());
+
+        // Two changes against four entries are appended, a tombstone included
+        index.put(entry(path("f0"), null, "changed"));
+        index.remove(path("f1"));
+        index.flush();
+        assertEquals(6, lines());
+
+        // A flush with nothing changed writes nothing
+        index.flush();
+        assertEquals(6, lines());
+
+        // Two more would leave five superseded lines against three entries
+        index.put(entry(path("f2"), null, "changed"));
+        index.put(entry(path("f3"), null, "changed"));
+        index.flush();
+        assertEquals(3, lines());
+
+        reopen();
+        assertEquals(3, index.size());
+        assertEquals("changed", index.get(path("f0")).checksum);
+        assertNull(index.get(path("f1")));
+    }
+
+    @Test
+    public void openCompactsSupersededAndDamagedLines() throws IOException {
+        index.put(entry(path("a.txt"), null, "aaa"));
+        index.put(entry(path("b.txt"), null, "bbb"));
+        index.flush();
+        index.remove(path("b.txt"));
+        index.flush();
+        Files.write(indexFile, "{\"path\":\"trunc".getBytes(StandardCharsets.UTF_8), StandardOpenOption.APPEND);
+
+        reopen();
+        assertEquals(1, index.size());
+        assertEquals(1, lines());
+        assertEquals("aaa", index.get(path("a.txt")).checksum);
+    }
+
+    @Test
+    public void listsDirectoryAndTree() {
+        index.put(entry(path("docs", "a.txt"), null, null));
+        index.put(entry(path("docs", "sub", "b.txt"), null, null));
+        index.put(entry(path("docs2", "c.txt"), null, null));
+        index.put(entry(path("top.txt"), null, null));
+
+        assertEquals(Collections.singletonList(path("docs", "a.txt")), paths(index.listDirectory(path("docs"))));
+        assertEquals(Arrays.asList(path("docs", "a.txt"), path("docs", "sub", "b.txt")),
+                paths(index.listTree(path("docs"))));
+        assertEquals(Collections.singletonList(path("top.txt")), paths(index.listTree(path("top.txt"))));
+        assertEquals(Collections.singletonList(path("top.txt")), paths(index.listDirectory(ROOT)));
+    }
+
+    @Test
+    public void findsEntryByFileKeyUntilItChanges() throws IOException {
+        index.put(entry(path("a.txt"), "1:1", null));
+        assertEquals(path("a.txt"), index.findByFileKey("1:1").path);
+
+        // Rewritten in place with a new inode: the old key no longer matches
+        index.put(entry(path("a.txt"), "1:2", null));
+        assertNull(index.findByFileKey("1:1"));
+        assertNotNull(index.findByFileKey("1:2"));
+
+        reopen();
+        assertEquals(path("a.txt"), index.findByFileKey("1:2").path);
+        index.remove(path("a.txt"));
+        assertNull(index.findByFileKey("1:2"));
+    }
+
+    @Test
+    public void countsChecksumsAcrossChangesAndReopen() throws IOException {
+        index.put(entry(path("a.txt"), null, "same"));
+        index.put(entry(path("b.txt"), null, "same"));
+        index.put(entry(path("c.txt"), null, "other"));
+        assertEquals(2, index.countChecksum("same"));
+
+        index.put(entry(path("b.txt"), null, "other"));
+        assertEquals(1, index.countChecksum("same"));
+        assertEquals(2, index.countChecksum("other"));
+
+        reopen();
+        assertEquals(1, index.countChecksum("same"));
+        assertEquals(2, index.countChecksum("other"));
+
+        index.remove(path("a.txt"));
+        assertEquals(0, index.countChecksum("same"));
+        assertEquals(0, index.countChecksum("missing"));
+    }
+}
@@ -0,0 +1,132 @@
+package com.nodedrive.client;
+
+import okhttp3.MediaType;
+import okhttp3.RequestBody;
+import okio.Buffer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Random;
+import java.util.zip.GZIPInputStream;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class UploadCompressionTest {
+
+    private Path dir;
+
+    @Before
+    public void setUp() throws IOException {
+        dir = Files.createTempDirectory("upload-compression-test");
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        for (Path file : Files.list(dir).toArray(Path[]::new)) {
+            Files.delete(file);
+        }
+        Files.delete(dir);
+    }
+
+    private static byte[] text(int length) {
+        StringBuilder text = new StringBuilder();
+        for (int line = 0; text.length() < length; line++) {
+            text.append("line ").append(line).append(": the quick brown fox jumps over the lazy dog\n");
+        }
+        return text.substring(0, length).getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static byte[] random(int length) {
+        byte[] data = new byte[length];
+        new Random(42).nextBytes(data);
+        return data;
+    }
+
+    @Test
+    public void compressesTextButNotSmallRangesOrCompressedFormats() throws IOException {
+        byte[] data = text(64 * 1024);
+        Path textFile = Files.write(dir.resolve("notes.txt"), data);
+        Path archive = Files.write(dir.resolve("notes.ZIP"), data);
+
+        assertTrue(UploadCompression.shouldCompress(textFile, 0, data.length));
+        assertFalse(UploadCompression.shouldCompress(textFile, 0, 1024));
+        assertFalse(UploadCompression.shouldCompress(archive, 0, data.length));
+    }
+
+    @Test
+    public void samplesTheRequestedRange() throws IOException {
+        // Text followed by random data, each half a range of its own
+        int half = 32 * 1024;
+        byte[] data = new byte[2 * half];
+        System.arraycopy(text(half), 0, data, 0, half);
+        System.arraycopy(random(half), 0, data, half, half);
+        Path file = Files.write(dir.resolve("mixed.bin"), data);
+
+        assertTrue(UploadCompression.shouldCompress(file, 0, half));
+        assertFalse(UploadCompression.shouldCompress(file, half, half));
+    }
+
+    @Test
+    public void missingFileIsNotCompressed() {
+        assertFalse(UploadCompression.shouldCompress(dir.resolve("missing.txt"), 0, 64 * 1024));
+    }
+
+    @Test
+    public void measuresEntropyInBitsPerByte() {
+        assertEquals(0, UploadCompression.entropy(new byte[1000], 1000), 1e-9);
+        assertEquals(0, UploadCompression.entropy(new byte[0], 0), 1e-9);
+
+        byte[] everyValue = new byte[256 * 4];
+        for (int i = 0; i < everyValue.length; i++) {
+            everyValue[i] = (byte) i;
+        }
+        assertEquals(8, UploadCompression.entropy(everyValue, everyValue.length), 1e-9);
+        // Only the first length bytes count
+        assertEquals(1, UploadCompression.entropy(everyValue, 2), 1e-9);
+    }
+
+    @Test
+    public void recognisesCompressedExtensions() {
+        assertTrue(UploadCompression.hasCompressedExtension(Paths.get("photo.JPG")));
+        assertTrue(UploadCompression.hasCompressedExtension(Paths.get("dir.txt", "backup.tar.gz")));
+        assertFalse(UploadCompression.hasCompressedExtension(Paths.get("report.txt")));
+        assertFalse(UploadCompression.hasCompressedExtension(Paths.get("Makefile")));
+    }
+
+    @Test
+    public void gzipBodyDecompressesToTheOriginal() throws IOException {
+        byte[] data = text(100 * 1024);
+        MediaType type = MediaType.parse("application/octet-stream");
+        RequestBody body = UploadCompression.gzip(RequestBody.create(data, type));
+
+        assertEquals(-1, body.contentLength());
+        assertEquals(type, body.contentType());
+
+        Buffer sink = new Buffer();
+        body.writeTo(sink);
+        byte[] compressed = sink.readByteArray();
+        assertTrue(compressed.length < data.length / 4);
+
+        ByteArrayOutputStream decompressed = new ByteArrayOutputStream();
+        try (InputStream in = new GZIPInputStream(new ByteArrayInputStream(compressed))) {
+            byte[] buffer = new byte[8192];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                decompressed.write(buffer, 0, read);
+            }
+        }
+        assertArrayEquals(data, decompressed.toByteArray());
+    }
+}
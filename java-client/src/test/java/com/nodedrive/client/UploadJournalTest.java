@@ -0,0 +1,250 @@
+package com.nodedrive.client;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.CRC32;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+public class UploadJournalTest {
+
+    private Path dir;
+    private Path base;
+
+    @Before
+    public void setUp() throws IOException {
+        dir = Files.createTempDirectory("journal-test");
+        base = dir.resolve("upload-journal");
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        for (Path file : Files.list(dir).toArray(Path[]::new)) {
+            Files.delete(file);
+        }
+        Files.delete(dir);
+    }
+
+    private static DirectoryWatcher.FileEvent event(DirectoryWatcher.FileEventType type, String path) {
+        return new DirectoryWatcher.FileEvent(type, path);
+    }
+
+    private static List<String> describe(List<UploadJournal.Record> records) {
+        List<String> described = new ArrayList<>();
+        for (UploadJournal.Record record : records) {
+            described.add(record.group + " " + record.event.type + " " + record.event.filePath);
+        }
+        return described;
+    }
+
+    private List<String> reopen() throws IOException {
+        UploadJournal journal = UploadJournal.open(base);
+        List<String> outstanding = describe(journal.outstanding());
+        journal.close();
+        return outstanding;
+    }
+
+    /**
+     * The journal file with the highest generation, which recovery reads
+     */
+    private Path activeFile() throws IOException {
+        Path best = null;
+        long bestGeneration = -1;
+        for (String suffix : new String[]{".0", ".1"}) {
+            Path file = dir.resolve("upload-journal" + suffix);
+            if (Files.exists(file)) {
+                long generation = ByteBuffer.wrap(Files.readAllBytes(file), 8, 8).getLong();
+                if (generation > bestGeneration) {
+                    bestGeneration = generation;
+                    best = file;
+                }
+            }
+        }
+        return best;
+    }
+
+    private static int indexOf(byte[] data, byte[] pattern) {
+        outer:
+        for (int i = 0; i <= data.length - pattern.length; i++) {
+            for (int j = 0; j < pattern.length; j++) {
+                if (data[i + j] != pattern[j]) {
+                    continue outer;
+                }
+            }
+            return i;
+        }
+        return -1;
+    }
+
+    @Test
+    public void outstandingRecordsSurviveReopen() throws IOException {
+        UploadJournal journal = UploadJournal.open(base);
+        journal.pending("root1", event(DirectoryWatcher.FileEventType.CREATED, "/a"));
+        journal.pending("root2", event(DirectoryWatcher.FileEventType.MODIFIED, "/b"));
+        journal.pending("root1", event(DirectoryWatcher.FileEventType.DELETED, "/c"));
+        journal.done("/b");
+        journal.close();
+
+        assertEquals(Arrays.asList("root1 CREATED /a", "root1 DELETED /c"), reopen());
+        // Recovered records are carried over into the next generation
+        assertEquals(Arrays.asList("root1 CREATED /a", "root1 DELETED /c"), reopen());
+    }
+
+    @Test
+    public void requeuedPathKeepsLatestEventInRequeueOrder() throws IOException {
+        UploadJournal journal = UploadJournal.open(base);
+        journal.pending("root", event(DirectoryWatcher.FileEventType.CREATED, "/a"));
+        journal.pending("root", event(DirectoryWatcher.FileEventType.CREATED, "/b"));
+        journal.pending("root", event(DirectoryWatcher.FileEventType.MODIFIED, "/a"));
+        journal.close();
+
+        assertEquals(Arrays.asList("root CREATED /b", "root MODIFIED /a"), reopen());
+    }
+
+    @Test
+    public void corruptRecordEndsTheLog() throws IOException {
+        UploadJournal journal = UploadJournal.open(base);
+        journal.pending("root", event(DirectoryWatcher.FileEventType.CREATED, "/first"));
+        journal.pending("root", event(DirectoryWatcher.FileEventType.CREATED, "/torn"));
+        journal.pending("root", event(DirectoryWatcher.FileEventType.CREATED, "/after"));
+        journal.close();
+
+        // Flip a byte inside the second record, as a write cut short would leave it
+        Path file = activeFile();
+        byte[] data = Files.readAllBytes(file);
+        int at = indexOf(data, "/torn".getBytes(StandardCharsets.UTF_8));
+        assertTrue(at > 0);
+        data[at + 2] ^= 0x01;
+        Files.write(file, data);
+
+        assertEquals(Arrays.asList("root CREATED /first"), reopen());
+    }
+
+    @Test
+    public void truncatedRecordEndsTheLog() throws IOException {
+        UploadJournal journal = UploadJournal.open(base);
+        journal.pending("root", event(DirectoryWatcher.FileEventType.CREATED, "/first"));
+        journal.pending("root", event(DirectoryWatcher.FileEventType.CREATED, "/second"));
+        journal.close();
+
+        Path file = activeFile();
+        byte[] data = Files.readAllBytes(file);
+        int at = indexOf(data, "/second".getBytes(StandardCharsets.UTF_8));
+        Files.write(file, Arrays.copyOf(data, at + 3));
+
+        assertEquals(Arrays.asList("root CREATED /first"), reopen());
+    }
+
+    @Test
+    public void recordsOfAnotherGenerationAreIgnored() throws IOException {
+        UploadJournal journal = UploadJournal.open(base);
+        journal.pending("root", event(DirectoryWatcher.FileEventType.CREATED, "/a"));
+        journal.close();
+
+        // Same records under a newer header, as left behind by an unfinished compaction
+        Path file = activeFile();
+        byte[] data = Files.readAllBytes(file);
+        ByteBuffer.wrap(data).putLong(8, ByteBuffer.wrap(data).getLong(8) + 2);
+        Files.write(file, data);
+
+        assertEquals(0, reopen().size());
+    }
+
+    @Test
+    public void fullJournalIsCompactedWithoutLosingRecords() throws IOException {
+        UploadJournal journal = UploadJournal.open(base);
+        StringBuilder padding = new StringBuilder();
+        for (int i = 0; i < 200; i++) {
+            padding.append('x');
+        }
+
+        // Well over the initial mapping in churn, plus enough live records to make it grow
+        List<String> expected = new ArrayList<>();
+        for (int i = 0; i < 60000; i++) {
+            String path = "/dir/" + padding + "/" + i;
+            journal.pending("root", event(DirectoryWatcher.FileEventType.MODIFIED, path));
+            if (i % 2 == 0) {
+                journal.done(path);
+            } else {
+                expected.add("root MODIFIED " + path);
+            }
+        }
+        journal.close();
+
+        assertEquals(expected, reopen());
+    }
+
+    @Test
+    public void recordsKeepSizeAndModificationTime() throws IOException {
+        UploadJournal journal = UploadJournal.open(base);
+        journal.pending("root", new DirectoryWatcher.FileEvent(DirectoryWatcher.FileEventType.CREATED, "/a",
+                1234, 1700000000000L));
+        journal.pending("root", event(DirectoryWatcher.FileEventType.DELETED, "/b"));
+        journal.close();
+
+        journal = UploadJournal.open(base);
+        List<UploadJournal.Record> records = journal.outstanding();
+        journal.close();
+        assertEquals(1234, records.get(0).event.size);
+        assertEquals(1700000000000L, records.get(0).event.lastModified);
+        assertEquals(-1, records.get(1).event.size);
+        assertEquals(0, records.get(1).event.lastModified);
+    }
+
+    @Test
+    public void versionOneJournalIsStillRead() throws IOException {
+        // Header and one pending record as version 1 wrote them, without size and modification time
+        long generation = 7;
+        byte[] path = "/old".getBytes(StandardCharsets.UTF_8);
+        byte[] group = "root".getBytes(StandardCharsets.UTF_8);
+        ByteBuffer payload = ByteBuffer.allocate(1 + 4 + path.length + 1 + 4 + group.length);
+        payload.put((byte) 1).putInt(path.length).put(path);
+        payload.put((byte) DirectoryWatcher.FileEventType.CREATED.ordinal());
+        payload.putInt(group.length).put(group);
+
+        CRC32 crc = new CRC32();
+        for (int shift = 0; shift < 64; shift += 8) {
+            crc.update((int) (generation >>> shift));
+        }
+        crc.update(payload.array());
+
+        ByteBuffer file = ByteBuffer.allocate(16 + 8 + payload.capacity() + 8);
+        file.putInt(0x4e444a4c).putInt(1).putLong(generation);
+        file.putInt(payload.capacity()).putInt((int) crc.getValue()).put(payload.array());
+        Files.write(dir.resolve("upload-journal.0"), file.array());
+
+        UploadJournal journal = UploadJournal.open(base);
+        List<UploadJournal.Record> records = journal.outstanding();
+        journal.close();
+        assertEquals(Arrays.asList("root CREATED /old"), describe(records));
+        assertEquals(-1, records.get(0).event.size);
+
+        // Carried over into a version 2 generation
+        assertNotNull(activeFile());
+        assertEquals(2, ByteBuffer.wrap(Files.readAllBytes(activeFile())).getInt(4));
+        assertEquals(Arrays.asList("root CREATED /old"), reopen());
+    }
+
+    @Test
+    public void unreadableJournalStartsEmpty() throws IOException {
+        Files.write(dir.resolve("upload-journal.0"), "not a journal".getBytes(StandardCharsets.UTF_8));
+
+        assertEquals(0, reopen().size());
+        UploadJournal journal = UploadJournal.open(base);
+        journal.pending("root", event(DirectoryWatcher.FileEventType.CREATED, "/a"));
+        journal.close();
+        assertEquals(Arrays.asList("root CREATED /a"), reopen());
+    }
+}
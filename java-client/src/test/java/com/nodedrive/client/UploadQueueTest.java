@@ -0,0 +1,160 @@
+package com.nodedrive.client;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class UploadQueueTest {
+
+    private final List<String> handled = Collections.synchronizedList(new ArrayList<>());
+    private final CountDownLatch gateEntered = new CountDownLatch(1);
+    private final CountDownLatch gateReleased = new CountDownLatch(1);
+    private UploadQueue queue;
+
+    @After
+    public void tearDown() {
+        gateReleased.countDown();
+        if (queue != null) {
+            queue.stop();
+        }
+    }
+
+    private static DirectoryWatcher.FileEvent event(DirectoryWatcher.FileEventType type, String path) {
+        return new DirectoryWatcher.FileEvent(type, path);
+    }
+
+    private static DirectoryWatcher.FileEvent modified(String path) {
+        return event(DirectoryWatcher.FileEventType.MODIFIED, path);
+    }
+
+    /**
+     * Start a single worker queue and occupy the worker with a gate event, so that
+     * events submitted until the gate is released stay queued
+     */
+    private void startGated(int capacity, int maxBatchSize) throws InterruptedException {
+        queue = new UploadQueue(1, capacity, maxBatchSize, events -> {
+            for (DirectoryWatcher.FileEvent event : events) {
+                if (event.filePath.equals("/gate")) {
+                    gateEntered.countDown();
+                    gateReleased.await(5, TimeUnit.SECONDS);
+                } else {
+                    handled.add(event.type + " " + event.filePath);
+                }
+            }
+        });
+        queue.start();
+        queue.submit("gate", modified("/gate"));
+        assertTrue(gateEntered.await(5, TimeUnit.SECONDS));
+    }
+
+    private void awaitHandled(int count) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (handled.size() < count && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(count, handled.size());
+    }
+
+    private Thread submitInBackground(String group, String path) {
+        Thread thread = new Thread(() -> {
+            try {
+                queue.submit(group, modified(path));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        thread.setDaemon(true);
+        thread.start();
+        return thread;
+    }
+
+    @Test
+    public void newerEventReplacesQueuedOneForSamePath() throws Exception {
+        startGated(10, 10);
+        queue.submit(event(DirectoryWatcher.FileEventType.CREATED, "/a"));
+        queue.submit(event(DirectoryWatcher.FileEventType.DELETED, "/a"));
+        assertEquals(1, queue.size());
+
+        gateReleased.countDown();
+        awaitHandled(1);
+        assertEquals("DELETED /a", handled.get(0));
+    }
+
+    @Test
+    public void groupsAreServedRoundRobin() throws Exception {
+        startGated(100, 1);
+        for (int i = 0; i < 4; i++) {
+            queue.submit("busy", modified("/busy/" + i));
+        }
+        queue.submit("quiet", modified("/quiet/0"));
+        queue.submit("quiet", modified("/quiet/1"));
+
+        gateReleased.countDown();
+        awaitHandled(6);
+        assertEquals(Arrays.asList("MODIFIED /busy/0", "MODIFIED /quiet/0", "MODIFIED /busy/1",
+                "MODIFIED /quiet/1", "MODIFIED /busy/2", "MODIFIED /busy/3"), handled);
+    }
+
+    @Test
+    public void groupBelowItsShareIsNotBlockedByAFullQueue() throws Exception {
+        startGated(4, 10);
+        for (int i = 0; i < 4; i++) {
+            queue.submit("busy", modified("/busy/" + i));
+        }
+
+        // Full, but the other group has none of its share yet
+        Thread quiet = submitInBackground("quiet", "/quiet/0");
+        quiet.join(1000);
+        assertFalse(quiet.isAlive());
+
+        // The busy group is over its share and has to wait for the worker
+        Thread busy = submitInBackground("busy", "/busy/4");
+        busy.join(200);
+        assertTrue(busy.isAlive());
+
+        // Replacing an already queued path never waits
+        queue.submit("busy", modified("/busy/0"));
+
+        gateReleased.countDown();
+        busy.join(5000);
+        assertFalse(busy.isAlive());
+        awaitHandled(6);
+    }
+
+    @Test
+    public void pathIsNeverHandledByTwoWorkersAtOnce() throws Exception {
+        CountDownLatch firstRunStarted = new CountDownLatch(1);
+        CountDownLatch releaseFirstRun = new CountDownLatch(1);
+        AtomicInteger running = new AtomicInteger();
+        AtomicInteger maxRunning = new AtomicInteger();
+
+        queue = new UploadQueue(4, 10, 1, events -> {
+            maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+            firstRunStarted.countDown();
+            releaseFirstRun.await(5, TimeUnit.SECONDS);
+            handled.add(events.get(0).filePath);
+            running.decrementAndGet();
+        });
+        queue.start();
+
+        queue.submit(modified("/a"));
+        assertTrue(firstRunStarted.await(5, TimeUnit.SECONDS));
+        queue.submit(modified("/a"));
+        Thread.sleep(100);
+        releaseFirstRun.countDown();
+
+        awaitHandled(2);
+        assertEquals(1, maxRunning.get());
+    }
+}
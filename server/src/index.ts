@@ -2,18 +2,26 @@ import express from 'express';
 import multer from 'multer';
 import cors from 'cors';
 import fs from 'fs/promises';
+import { createReadStream } from 'fs';
 import path from 'path';
 import crypto from 'crypto';
+import zlib from 'zlib';
 import { AppLog } from './appLog.js';
 
 const app = express();
 const PORT = process.env.PORT || 3000;
 
 app.use(cors());
-app.use(express.json());
+app.use(express.json({ limit: '5mb' }));
 
 const UPLOAD_DIR = './uploads';
+const MAX_BATCH_SIZE = 500;
 const METADATA_FILE = './uploads/metadata.json';
+const CHUNK_DIR = './uploads/.chunks';
+const MAX_CHUNK_CHECK = 1000;
+const MAX_CHUNK_SIZE = 8 * 1024 * 1024;
+const CHUNK_HASH_PATTERN = /^[0-9a-f]{64}$/;
+const MAX_DELTA_INSTRUCTIONS_SIZE = 16 * 1024 * 1024;
 
 interface FileMetadata {
   username: string;
@@ -84,10 +92,31 @@ async function saveMetadata(deviceId: string, checksum: string, metadata: FileMe
   await saveAllMetadata(metadataStore);
 }
 
+// Chunks are content-addressed and kept per user, so later versions of a file (or
+// similar files) only need to send the chunks that changed
+function getChunkPath(username: string, hash: string): string {
+  return path.join(CHUNK_DIR, sanitizeForFilesystem(username), hash.slice(0, 2), hash);
+}
+
+async function pathExists(filePath: string): Promise<boolean> {
+  try {
+    await fs.access(filePath);
+    return true;
+  } catch {
+    return false;
+  }
+}
+
+async function chunkExists(username: string, hash: string): Promise<boolean> {
+  return pathExists(getChunkPath(username, hash));
+}
+
+// Streams the file through the hash, so large files are never held in memory
 async function calculateChecksum(filePath: string): Promise<string> {
   const hash = crypto.createHash('sha256');
-  const data = await fs.readFile(filePath);
-  hash.update(data);
+  for await (const data of createReadStream(filePath)) {
+    hash.update(data);
+  }
   return hash.digest('hex');
 }
 
@@ -97,82 +126,158 @@ app.get('/api/ping', (req, res) => {
   res.sendStatus(200);
 });
 
-// Upload check endpoint
-app.post('/api/upload/check', async (req, res) => {
-  try {
-    const { username, deviceId, fileName, fileSize, checksum } = req.body;
-    AppLog.debug('UploadCheckEndpoint', `Upload check request for ${fileName} from user ${username}`);
+interface UploadCheckResult {
+  status: number;
+  body: Record<string, unknown>;
+}
 
-    if (!username || !deviceId || !fileName || !fileSize || !checksum) {
-      return res.status(400).json({ error: 'Missing required fields' });
-    }
+async function checkUploadStatus(request: any, metadataStore: MetadataStore): Promise<UploadCheckResult> {
+  const { username, deviceId, fileName, fileSize, checksum } = request || {};
+  AppLog.debug('UploadCheckEndpoint', `Upload check request for ${fileName} from user ${username}`);
 
-    const metadata = await loadMetadata(deviceId, checksum);
+  // A size of 0 is valid, so only a missing size is rejected
+  if (!username || !deviceId || !fileName || fileSize === undefined || fileSize === null || !checksum) {
+    return { status: 400, body: { error: 'Missing required fields' } };
+  }
 
-    if (!metadata) {
-      return res.json({
+  const metadata = metadataStore[deviceId]?.[checksum] || null;
+
+  if (!metadata) {
+    return {
+      status: 200,
+      body: {
         exists: false,
         uploadedSize: 0,
         isComplete: false
-      });
-    }
+      }
+    };
+  }
 
-    if (metadata.isComplete && metadata.checksum === checksum && metadata.fileSize === fileSize) {
-      AppLog.info('UploadCheckEndpoint', `File already exists and complete: ${fileName} for user ${username}`);
-      return res.status(409).json({
+  if (metadata.isComplete && metadata.checksum === checksum && metadata.fileSize === fileSize) {
+    AppLog.info('UploadCheckEndpoint', `File already exists and complete: ${fileName} for user ${username}`);
+    return {
+      status: 409,
+      body: {
         exists: true,
         uploadedSize: metadata.fileSize,
         isComplete: true
-      });
-    }
-
-    // Handle file size mismatch - restart upload
-    if (metadata.fileSize !== fileSize || metadata.checksum !== checksum) {
-      AppLog.info('UploadCheckEndpoint', `File metadata mismatch detected, will restart upload: ${fileName} for user ${username}`);
-      const uploadPath = getUploadPath(username, deviceId, fileName);
-      try {
-        await fs.unlink(uploadPath);
-      } catch {
-        // File might not exist, continue
       }
+    };
+  }
 
-      return res.json({
+  // Handle file size mismatch - restart upload
+  if (metadata.fileSize !== fileSize || metadata.checksum !== checksum) {
+    AppLog.info('UploadCheckEndpoint', `File metadata mismatch detected, will restart upload: ${fileName} for user ${username}`);
+    const uploadPath = getUploadPath(username, deviceId, fileName);
+    try {
+      await fs.unlink(uploadPath);
+    } catch {
+      // File might not exist, continue
+    }
+
+    return {
+      status: 200,
+      body: {
         exists: false,
         uploadedSize: 0,
         isComplete: false,
         shouldRestart: true
-      });
-    }
+      }
+    };
+  }
 
-    const uploadPath = getUploadPath(username, deviceId, fileName);
-    try {
-      const stats = await fs.stat(uploadPath);
-      return res.json({
+  const uploadPath = getUploadPath(username, deviceId, fileName);
+  try {
+    const stats = await fs.stat(uploadPath);
+    return {
+      status: 200,
+      body: {
         exists: true,
         uploadedSize: stats.size,
         isComplete: false
-      });
-    } catch {
-      return res.json({
+      }
+    };
+  } catch {
+    return {
+      status: 200,
+      body: {
         exists: false,
         uploadedSize: 0,
         isComplete: false
-      });
-    }
+      }
+    };
+  }
+}
+
+// Upload check endpoint
+app.post('/api/upload/check', async (req, res) => {
+  try {
+    const result = await checkUploadStatus(req.body, await loadAllMetadata());
+    res.status(result.status).json(result.body);
   } catch (error) {
     AppLog.error('UploadCheckEndpoint', `Upload check error: ${error}`);
     res.status(500).json({ error: 'Internal server error' });
   }
 });
 
+// Batch upload check endpoint: one result per requested file, in request order
+app.post('/api/upload/check/batch', async (req, res) => {
+  try {
+    const { files } = req.body;
+
+    if (!Array.isArray(files)) {
+      return res.status(400).json({ error: 'Missing required fields' });
+    }
+
+    if (files.length > MAX_BATCH_SIZE) {
+      return res.status(400).json({ error: `Too many files in batch (max ${MAX_BATCH_SIZE})` });
+    }
+
+    AppLog.debug('UploadCheckEndpoint', `Batch upload check request for ${files.length} files`);
+
+    const metadataStore = await loadAllMetadata();
+    const results = [];
+    for (const file of files) {
+      const result = await checkUploadStatus(file, metadataStore);
+      results.push(result.body);
+    }
+
+    res.json({ results });
+  } catch (error) {
+    AppLog.error('UploadCheckEndpoint', `Batch upload check error: ${error}`);
+    res.status(500).json({ error: 'Internal server error' });
+  }
+});
+
 // Configure multer for file uploads
 const storage = multer.memoryStorage();
 const upload = multer({ storage });
 
+// File parts may be gzip-compressed by the client, announced in a contentEncoding field.
+// Returns the decoded data, or sends an error response and returns null.
+function decodeFileData(data: Buffer, contentEncoding: string | undefined, maxSize: number,
+                        res: express.Response): Buffer | null {
+  if (!contentEncoding || contentEncoding === 'identity') {
+    return data;
+  }
+  if (contentEncoding !== 'gzip') {
+    res.status(415).json({ success: false, message: `Unsupported content encoding: ${contentEncoding}` });
+    return null;
+  }
+
+  try {
+    return zlib.gunzipSync(data, { maxOutputLength: Math.max(1, maxSize) });
+  } catch (error) {
+    AppLog.error('UploadEncoding', `Failed to decode gzip file data: ${error}`);
+    res.status(400).json({ success: false, message: 'Invalid compressed file data' });
+    return null;
+  }
+}
+
 // File upload endpoint
 app.post('/api/upload', upload.single('file'), async (req, res) => {
   try {
-    const { username, deviceId, fileName, fileSize, checksum, startByte, lastModified } = req.body;
+    const { username, deviceId, fileName, fileSize, checksum, startByte, lastModified, contentEncoding } = req.body;
     const file = req.file;
 
     if (!username || !deviceId || !fileName || !fileSize || !checksum || !file) {
@@ -186,6 +291,11 @@ app.post('/api/upload', upload.single('file'), async (req, res) => {
     const startByteNum = parseInt(startByte || '0');
     AppLog.info('UploadEndpoint', `Upload request for ${fileName} from user ${username}, startByte: ${startByteNum}`);
 
+    const data = decodeFileData(file.buffer, contentEncoding, fileSizeNum - startByteNum, res);
+    if (!data) {
+      return;
+    }
+
     let metadata = await loadMetadata(deviceId, checksum);
 
     if (!metadata) {
@@ -232,10 +342,10 @@ app.post('/api/upload', upload.single('file'), async (req, res) => {
 
     // Append or create file
     if (startByteNum === 0) {
-      await fs.writeFile(uploadPath, file.buffer);
+      await fs.writeFile(uploadPath, data);
     } else {
       const fileHandle = await fs.open(uploadPath, 'a');
-      await fileHandle.write(file.buffer);
+      await fileHandle.write(data);
       await fileHandle.close();
     }
 
@@ -275,6 +385,276 @@ app.post('/api/upload', upload.single('file'), async (req, res) => {
   }
 });
 
+// Delta uploads carry their reconstruct instructions as a form field, which can exceed multer's default limit
+const deltaUpload = multer({ storage, limits: { fieldSize: MAX_DELTA_INSTRUCTIONS_SIZE } });
+
+// Delta upload endpoint: rebuild a new version of a file from blocks of the stored
+// base version plus the literal data sent in the file part
+app.post('/api/upload/delta', deltaUpload.single('file'), async (req, res) => {
+  try {
+    const { username, deviceId, fileName, fileSize, checksum, lastModified, baseChecksum, blockSize, instructions,
+      contentEncoding } = req.body;
+    const file = req.file;
+
+    if (!username || !deviceId || !fileName || !fileSize || !checksum || !baseChecksum || !blockSize || !instructions) {
+      return res.status(400).json({ success: false, message: 'Missing required fields' });
+    }
+
+    const fileSizeNum = parseInt(fileSize);
+    const blockSizeNum = parseInt(blockSize);
+    const literal = file ? decodeFileData(file.buffer, contentEncoding, fileSizeNum, res) : Buffer.alloc(0);
+    if (!literal) {
+      return;
+    }
+
+    let ops: any[];
+    try {
+      ops = JSON.parse(instructions);
+    } catch {
+      return res.status(400).json({ success: false, message: 'Invalid instructions' });
+    }
+    if (!Array.isArray(ops) || !(blockSizeNum > 0)) {
+      return res.status(400).json({ success: false, message: 'Invalid instructions' });
+    }
+
+    // The base must be the complete version the client computed its delta against
+    const baseMetadata = await loadMetadata(deviceId, baseChecksum);
+    const uploadPath = getUploadPath(username, deviceId, fileName);
+    let baseSize: number;
+    try {
+      baseSize = (await fs.stat(uploadPath)).size;
+    } catch {
+      baseSize = -1;
+    }
+    if (!baseMetadata || !baseMetadata.isComplete || baseMetadata.fileName !== fileName || baseSize < 0
+        || (await calculateChecksum(uploadPath)) !== baseChecksum) {
+      AppLog.info('DeltaUploadEndpoint', `Base version of ${fileName} not found for user ${username}`);
+      return res.status(409).json({ success: false, message: 'Base version not available' });
+    }
+
+    // The rebuilt file is hashed as it is written, not read back afterwards
+    const tempPath = `${uploadPath}.assembling`;
+    const hash = crypto.createHash('sha256');
+    let assembledSize = 0;
+    let literalOffset = 0;
+    let valid = true;
+
+    const baseHandle = await fs.open(uploadPath, 'r');
+    const fileHandle = await fs.open(tempPath, 'w');
+    try {
+      for (const op of ops) {
+        if (op && Number.isInteger(op.block) && Number.isInteger(op.count)) {
+          const start = op.block * blockSizeNum;
+          const end = Math.min(baseSize, (op.block + op.count) * blockSizeNum);
+          if (op.block < 0 || op.count <= 0 || start >= end) {
+            valid = false;
+            break;
+          }
+
+          // Copy long block runs piecewise to keep memory bounded
+          for (let position = start; position < end; position += MAX_CHUNK_SIZE) {
+            const data = Buffer.alloc(Math.min(MAX_CHUNK_SIZE, end - position));
+            await baseHandle.read(data, 0, data.length, position);
+            hash.update(data);
+            await fileHandle.write(data);
+            assembledSize += data.length;
+          }
+        } else if (op && Number.isInteger(op.length) && op.length > 0) {
+          if (literalOffset + op.length > literal.length) {
+            valid = false;
+            break;
+          }
+          const data = literal.subarray(literalOffset, literalOffset + op.length);
+          literalOffset += op.length;
+          hash.update(data);
+          await fileHandle.write(data);
+          assembledSize += data.length;
+        } else {
+          valid = false;
+          break;
+        }
+      }
+    } finally {
+      await fileHandle.close();
+      await baseHandle.close();
+    }
+
+    if (!valid || literalOffset !== literal.length) {
+      await fs.unlink(tempPath);
+      return res.status(400).json({ success: false, message: 'Invalid instructions' });
+    }
+
+    if (assembledSize !== fileSizeNum || hash.digest('hex') !== checksum) {
+      await fs.unlink(tempPath);
+      AppLog.error('DeltaUploadEndpoint', `Checksum verification failed for rebuilt file: ${fileName} for user ${username}`);
+      return res.status(400).json({ success: false, message: 'Checksum verification failed' });
+    }
+
+    await fs.rename(tempPath, uploadPath);
+
+    await saveMetadata(deviceId, checksum, {
+      username,
+      deviceId,
+      fileName,
+      fileSize: fileSizeNum,
+      checksum,
+      uploadedSize: fileSizeNum,
+      isComplete: true,
+      lastModified,
+      uploadTimestamp: new Date().toISOString()
+    });
+
+    AppLog.info('DeltaUploadEndpoint', `File rebuilt from delta (${literal.length} of ${fileSizeNum} bytes sent): ${fileName} for user ${username}`);
+    res.json({ success: true, bytesUploaded: fileSizeNum, isComplete: true });
+  } catch (error) {
+    AppLog.error('DeltaUploadEndpoint', `Delta upload error: ${error}`);
+    res.status(500).json({ success: false, message: 'Internal server error' });
+  }
+});
+
+// Chunk check endpoint: which of the given chunk hashes are not stored yet
+app.post('/api/chunks/check', async (req, res) => {
+  try {
+    const { username, deviceId, hashes } = req.body;
+
+    if (!username || !deviceId || !Array.isArray(hashes)) {
+      return res.status(400).json({ error: 'Missing required fields' });
+    }
+
+    if (hashes.length > MAX_CHUNK_CHECK) {
+      return res.status(400).json({ error: `Too many chunks in check (max ${MAX_CHUNK_CHECK})` });
+    }
+
+    if (!hashes.every((hash: unknown) => typeof hash === 'string' && CHUNK_HASH_PATTERN.test(hash))) {
+      return res.status(400).json({ error: 'Invalid chunk hash' });
+    }
+
+    const missing = [];
+    for (const hash of hashes) {
+      if (!(await chunkExists(username, hash))) {
+        missing.push(hash);
+      }
+    }
+
+    AppLog.debug('ChunkCheckEndpoint', `${missing.length} of ${hashes.length} chunks missing for user ${username}`);
+    res.json({ missing });
+  } catch (error) {
+    AppLog.error('ChunkCheckEndpoint', `Chunk check error: ${error}`);
+    res.status(500).json({ error: 'Internal server error' });
+  }
+});
+
+// Chunk upload endpoint: store one chunk under its SHA-256 hash
+app.post('/api/chunks/upload', upload.single('file'), async (req, res) => {
+  try {
+    const { username, deviceId, hash, contentEncoding } = req.body;
+    const file = req.file;
+
+    if (!username || !deviceId || !hash || !file) {
+      return res.status(400).json({ success: false, message: 'Missing required fields' });
+    }
+
+    if (!CHUNK_HASH_PATTERN.test(hash) || file.buffer.length > MAX_CHUNK_SIZE) {
+      return res.status(400).json({ success: false, message: 'Invalid chunk' });
+    }
+
+    const data = decodeFileData(file.buffer, contentEncoding, MAX_CHUNK_SIZE, res);
+    if (!data) {
+      return;
+    }
+
+    const actualHash = crypto.createHash('sha256').update(data).digest('hex');
+    if (actualHash !== hash) {
+      AppLog.error('ChunkUploadEndpoint', `Chunk hash mismatch for user ${username}: expected ${hash}, got ${actualHash}`);
+      return res.status(400).json({ success: false, message: 'Chunk hash mismatch' });
+    }
+
+    // Write to a temporary name first so a chunk is never visible half-written
+    const chunkPath = getChunkPath(username, hash);
+    const tempPath = `${chunkPath}.${process.pid}.${Date.now()}.tmp`;
+    await fs.mkdir(path.dirname(chunkPath), { recursive: true });
+    await fs.writeFile(tempPath, data);
+    await fs.rename(tempPath, chunkPath);
+
+    res.json({ success: true });
+  } catch (error) {
+    AppLog.error('ChunkUploadEndpoint', `Chunk upload error: ${error}`);
+    res.status(500).json({ success: false, message: 'Internal server error' });
+  }
+});
+
+// Chunk commit endpoint: assemble a file from stored chunks, in order
+app.post('/api/chunks/commit', async (req, res) => {
+  try {
+    const { username, deviceId, fileName, fileSize, checksum, lastModified, chunks } = req.body;
+
+    if (!username || !deviceId || !fileName || fileSize === undefined || fileSize === null || !checksum
+        || !Array.isArray(chunks)) {
+      return res.status(400).json({ success: false, message: 'Missing required fields' });
+    }
+
+    if (!chunks.every((chunk: any) => chunk && typeof chunk.hash === 'string' && CHUNK_HASH_PATTERN.test(chunk.hash))) {
+      return res.status(400).json({ success: false, message: 'Invalid chunk hash' });
+    }
+
+    const missing = [];
+    for (const chunk of chunks) {
+      if (!(await chunkExists(username, chunk.hash))) {
+        missing.push(chunk.hash);
+      }
+    }
+    if (missing.length > 0) {
+      return res.status(400).json({ success: false, message: `${missing.length} chunks missing`, missing });
+    }
+
+    const userDeviceDir = getUserDeviceDir(username, deviceId);
+    await fs.mkdir(userDeviceDir, { recursive: true });
+
+    const uploadPath = getUploadPath(username, deviceId, fileName);
+    const tempPath = `${uploadPath}.assembling`;
+    const hash = crypto.createHash('sha256');
+    let assembledSize = 0;
+
+    const fileHandle = await fs.open(tempPath, 'w');
+    try {
+      for (const chunk of chunks) {
+        const data = await fs.readFile(getChunkPath(username, chunk.hash));
+        hash.update(data);
+        await fileHandle.write(data);
+        assembledSize += data.length;
+      }
+    } finally {
+      await fileHandle.close();
+    }
+
+    if (assembledSize !== fileSize || hash.digest('hex') !== checksum) {
+      await fs.unlink(tempPath);
+      AppLog.error('ChunkCommitEndpoint', `Checksum verification failed for assembled file: ${fileName} for user ${username}`);
+      return res.status(400).json({ success: false, message: 'Checksum verification failed' });
+    }
+
+    await fs.rename(tempPath, uploadPath);
+
+    await saveMetadata(deviceId, checksum, {
+      username,
+      deviceId,
+      fileName,
+      fileSize,
+      checksum,
+      uploadedSize: fileSize,
+      isComplete: true,
+      lastModified,
+      uploadTimestamp: new Date().toISOString()
+    });
+
+    AppLog.info('ChunkCommitEndpoint', `File assembled from ${chunks.length} chunks: ${fileName} for user ${username}`);
+    res.json({ success: true, bytesUploaded: fileSize, isComplete: true });
+  } catch (error) {
+    AppLog.error('ChunkCommitEndpoint', `Chunk commit error: ${error}`);
+    res.status(500).json({ success: false, message: 'Internal server error' });
+  }
+});
+
 // File delete endpoint
 app.post('/api/delete', async (req, res) => {
   try {
@@ -333,6 +713,135 @@ app.post('/api/delete', async (req, res) => {
   }
 });
 
+// File rename endpoint: renames a stored file after it was moved on the client, without re-uploading it
+app.post('/api/rename', async (req, res) => {
+  try {
+    const { username, deviceId, fileName, newFileName, checksum } = req.body;
+    AppLog.info('RenameEndpoint', `Rename request for ${fileName} to ${newFileName} from user ${username}`);
+
+    if (!username || !deviceId || !fileName || !newFileName || !checksum) {
+      return res.status(400).json({
+        success: false,
+        message: 'Missing required fields'
+      });
+    }
+
+    const metadataStore = await loadAllMetadata();
+    const metadata = metadataStore[deviceId]?.[checksum];
+
+    if (!metadata || !metadata.isComplete) {
+      return res.status(409).json({
+        success: false,
+        message: 'File not found on server, upload it instead'
+      });
+    }
+
+    if (metadata.fileName !== newFileName) {
+      const newPath = getUploadPath(username, deviceId, newFileName);
+      // Another stored file already has the new name; renaming would overwrite it
+      if (await pathExists(newPath)) {
+        return res.status(409).json({
+          success: false,
+          message: 'A file with the new name already exists, upload it instead'
+        });
+      }
+
+      try {
+        await fs.rename(getUploadPath(username, deviceId, metadata.fileName), newPath);
+      } catch {
+        return res.status(409).json({
+          success: false,
+          message: 'File not found on server, upload it instead'
+        });
+      }
+
+      metadata.fileName = newFileName;
+      await saveAllMetadata(metadataStore);
+    }
+
+    res.json({
+      success: true,
+      message: 'File renamed successfully'
+    });
+
+  } catch (error) {
+    AppLog.error('RenameEndpoint', `Rename error: ${error}`);
+    res.status(500).json({
+      success: false,
+      message: 'Internal server error'
+    });
+  }
+});
+
+// Batch file delete endpoint: deletes many files of one device with a single metadata update
+app.post('/api/delete/batch', async (req, res) => {
+  try {
+    const { username, deviceId, files } = req.body;
+
+    if (!username || !deviceId || !Array.isArray(files)) {
+      return res.status(400).json({
+        success: false,
+        message: 'Missing required fields'
+      });
+    }
+
+    if (files.length > MAX_BATCH_SIZE) {
+      return res.status(400).json({
+        success: false,
+        message: `Too many files in batch (max ${MAX_BATCH_SIZE})`
+      });
+    }
+
+    for (const file of files) {
+      if (!file || typeof file.fileName !== 'string' || !file.fileName || typeof file.checksum !== 'string' || !file.checksum) {
+        return res.status(400).json({
+          success: false,
+          message: 'Each file needs a fileName and checksum'
+        });
+      }
+    }
+
+    AppLog.info('DeleteEndpoint', `Batch delete request for ${files.length} files from user ${username}`);
+
+    const metadataStore = await loadAllMetadata();
+    let deleted = 0;
+
+    for (const { fileName, checksum } of files) {
+      if (!metadataStore[deviceId]?.[checksum]) {
+        continue;
+      }
+
+      try {
+        await fs.unlink(getUploadPath(username, deviceId, fileName));
+      } catch {
+        // File might not exist, continue with metadata cleanup
+      }
+
+      delete metadataStore[deviceId][checksum];
+      deleted++;
+    }
+
+    if (deleted > 0) {
+      if (metadataStore[deviceId] && Object.keys(metadataStore[deviceId]).length === 0) {
+        delete metadataStore[deviceId];
+      }
+      await saveAllMetadata(metadataStore);
+    }
+
+    res.json({
+      success: true,
+      deleted
+    });
+
+  } catch (error) {
+    AppLog.error('DeleteEndpoint', `Batch delete error: ${error}`);
+    res.status(500).json({
+      success: false,
+      message: 'Internal server error'
+    });
+  }
+});
+
 async function startServer() {
   try {
     AppLog.info('Server', 'Starting server...');